@@ -0,0 +1,269 @@
+/**
+ *
+ */
+package org.theseed.dl4j.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.dl4j.metrics.MetricsRegistry;
+import org.theseed.dl4j.metrics.MetricsReporter;
+import org.theseed.dl4j.metrics.MetricsServer;
+import org.theseed.dl4j.train.CrossValidateProcessor;
+import org.theseed.dl4j.train.ITrainReporter;
+import org.theseed.dl4j.train.SearchProcessor;
+import org.theseed.dl4j.train.TrainingProcessor;
+import org.theseed.utils.ICommand;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.ConsoleAppender;
+
+/**
+ * This is the command-line front end for training a dl4j.run model.  It runs the same search and cross-validation
+ * commands as the training manager, but needs no display, so it can be used on compute nodes.  Progress is
+ * written as JSON lines to the standard output or to a file.
+ *
+ * The positional parameters are the command (SEARCH, PSEARCH for a search with the parameter combinations
+ * trained in parallel, XVALIDATE, or PXVALIDATE for a cross-validation with the folds trained in parallel) and the
+ * model directory.  If the model directory has no parameter file, a default
+ * one is created, as in the training manager.  Without a display there is no meta-column dialog, so the
+ * meta-columns are taken from the command-line option instead.
+ *
+ * The command-line options are as follows.
+ *
+ * -h	display command usage
+ * -v	display more detailed log messages
+ * -o	output file for the progress reports (appended to); the default is the standard output
+ * -t	type of model (CLASS or REGRESSION); the default is determined from the model directory
+ *
+ * --meta		comma-delimited list of meta-columns to use when creating a parameter file; the first is the ID column
+ * --metrics	port on which to serve metrics over HTTP
+ *
+ * Log messages are always written to the standard error, so the standard output holds only the progress reports.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class BatchTrainer {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(BatchTrainer.class);
+
+    // COMMAND-LINE OPTIONS
+
+    /** help option */
+    @Option(name = "-h", aliases = { "--help" }, help = true, usage = "display command usage")
+    private boolean help;
+
+    /** verbose logging */
+    @Option(name = "-v", aliases = { "--verbose" }, usage = "display more detailed log messages")
+    private boolean verbose;
+
+    /** output file for progress reports */
+    @Option(name = "-o", aliases = { "--output" }, metaVar = "progress.jsonl", usage = "output file for progress reports")
+    private File outFile;
+
+    /** model type override */
+    @Option(name = "-t", aliases = { "--type" }, usage = "type of model (default is determined from the model directory)")
+    private TrainingProcessor.Type modelType;
+
+    /** meta-columns for a new parameter file */
+    @Option(name = "--meta", metaVar = "id,name", usage = "meta-columns to use when creating a parameter file")
+    private String metaCols;
+
+    /** port for the metrics server */
+    @Option(name = "--metrics", metaVar = "9400", usage = "port on which to serve metrics over HTTP")
+    private Integer metricsPort;
+
+    /** command to run */
+    @Argument(index = 0, metaVar = "command", usage = "command to run", required = true)
+    private Command command;
+
+    /** model directory */
+    @Argument(index = 1, metaVar = "modelDir", usage = "model directory", required = true)
+    private File modelDir;
+
+    /**
+     * Enumeration of the training commands.
+     */
+    public static enum Command {
+        SEARCH {
+            @Override
+            public ICommand create(ITrainReporter reporter) {
+                return new SearchProcessor(reporter);
+            }
+
+            @Override
+            public String[] getParms(ModelDirectory model, TrainingProcessor.Type type) {
+                return model.getSearchParms(type);
+            }
+        }, PSEARCH {
+            @Override
+            public ICommand create(ITrainReporter reporter) {
+                return new ParallelSearchProcessor(reporter);
+            }
+
+            @Override
+            public String[] getParms(ModelDirectory model, TrainingProcessor.Type type) {
+                return model.getSearchParms(type);
+            }
+        }, XVALIDATE {
+            @Override
+            public ICommand create(ITrainReporter reporter) {
+                return new CrossValidateProcessor(reporter);
+            }
+
+            @Override
+            public String[] getParms(ModelDirectory model, TrainingProcessor.Type type) throws IOException {
+                return model.getCrossValidateParms(type);
+            }
+        }, PXVALIDATE {
+            @Override
+            public ICommand create(ITrainReporter reporter) {
+                return new ParallelCrossValidator(reporter);
+            }
+
+            @Override
+            public String[] getParms(ModelDirectory model, TrainingProcessor.Type type) throws IOException {
+                return model.getCrossValidateParms(type);
+            }
+        };
+
+        /**
+         * @return a processor for this command
+         *
+         * @param reporter	reporter for the training progress
+         */
+        public abstract ICommand create(ITrainReporter reporter);
+
+        /**
+         * @return the parameters to pass to the processor for this command
+         *
+         * @param model		model directory
+         * @param type		type of model to train
+         *
+         * @throws IOException
+         */
+        public abstract String[] getParms(ModelDirectory model, TrainingProcessor.Type type) throws IOException;
+
+    }
+
+    /**
+     * Run a training command without a display.
+     *
+     * @param args	command-line parameters
+     */
+    public static void main(String[] args) {
+        BatchTrainer trainer = new BatchTrainer();
+        boolean ok = false;
+        if (trainer.parseCommand(args))
+            ok = trainer.run();
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * Parse the command-line parameters.
+     *
+     * @param args	command-line parameters
+     *
+     * @return TRUE if the command can run, else FALSE
+     */
+    public boolean parseCommand(String[] args) {
+        boolean retVal = false;
+        CmdLineParser parser = new CmdLineParser(this);
+        try {
+            parser.parseArgument(args);
+            if (this.help)
+                parser.printUsage(System.err);
+            else if (! this.modelDir.isDirectory())
+                throw new CmdLineException(parser, "Model directory " + this.modelDir + " not found or invalid.");
+            else
+                retVal = true;
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            parser.printUsage(System.err);
+        }
+        this.configureLogging();
+        return retVal;
+    }
+
+    /**
+     * Set the log level and send the console log to the standard error.  The progress reports may be going to
+     * the standard output, and log messages mixed in with them would corrupt the JSON lines.
+     */
+    private void configureLogging() {
+        Level logLevel = (this.verbose ? Level.INFO : Level.ERROR);
+        LoggerContext logging = (LoggerContext) LoggerFactory.getILoggerFactory();
+        ch.qos.logback.classic.Logger root = logging.getLogger(Logger.ROOT_LOGGER_NAME);
+        root.setLevel(logLevel);
+        Iterator<Appender<ILoggingEvent>> appenders = root.iteratorForAppenders();
+        while (appenders.hasNext()) {
+            Appender<ILoggingEvent> appender = appenders.next();
+            if (appender instanceof ConsoleAppender) {
+                // The target is only read when the appender starts.
+                ConsoleAppender<ILoggingEvent> console = (ConsoleAppender<ILoggingEvent>) appender;
+                console.stop();
+                console.setTarget("System.err");
+                console.start();
+            }
+        }
+    }
+
+    /**
+     * Run the command.
+     *
+     * @return TRUE if the command completed, FALSE if it failed
+     */
+    public boolean run() {
+        boolean retVal = false;
+        MetricsServer server = null;
+        try (JsonLinesReporter reporter = (this.outFile == null ? new JsonLinesReporter() : new JsonLinesReporter(this.outFile))) {
+            try {
+                if (this.metricsPort != null)
+                    server = new MetricsServer(MetricsRegistry.getDefault(), this.metricsPort);
+                // Analyze the model directory and create the parameter file if needed.
+                ModelDirectory model = new ModelDirectory(this.modelDir);
+                if (! model.hasParms()) {
+                    String[] cols = (this.metaCols == null ? new String[0] : StringUtils.split(this.metaCols, ','));
+                    model.createParms(cols);
+                    reporter.write("parms", "file", model.getParmFile().toString());
+                }
+                TrainingProcessor.Type type = (this.modelType != null ? this.modelType : model.getType());
+                // Set up the processor.
+                MetricsReporter monitor = new MetricsReporter(reporter, MetricsRegistry.getDefault());
+                monitor.setTrainingFile(model.getTrainingFile());
+                ICommand processor = this.command.create(monitor);
+                if (! processor.parseCommand(this.command.getParms(model, type)))
+                    reporter.write("failed", "error", "Invalid parameter combination.");
+                else {
+                    reporter.write("started", "command", this.command.toString());
+                    processor.run();
+                    reporter.write("finished", "command", this.command.toString());
+                    retVal = true;
+                }
+            } catch (Exception e) {
+                log.error("Error running command.", e);
+                reporter.write("failed", "error", e.toString());
+            } finally {
+                if (server != null)
+                    server.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not open output file: " + e.getMessage());
+        }
+        return retVal;
+    }
+
+}
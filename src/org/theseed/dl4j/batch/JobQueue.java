@@ -0,0 +1,356 @@
+/**
+ *
+ */
+package org.theseed.dl4j.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.dl4j.metrics.MetricsRegistry;
+import org.theseed.dl4j.metrics.MetricsReporter;
+import org.theseed.dl4j.train.TrainingProcessor;
+import org.theseed.io.LineReader;
+import org.theseed.utils.ICommand;
+
+/**
+ * This object manages a persistent queue of training jobs and a pool of worker threads that run them.  The
+ * queue is saved to a file whenever it changes, so it survives an application restart; jobs that were running
+ * when the application stopped are queued again.  Lines of the save file that cannot be parsed are logged and
+ * skipped, so a damaged save file does not keep the application from starting.
+ *
+ * Each worker takes the first queued job in the list, so the order of the queued jobs can be changed while
+ * the workers are running.  Workers running jobs share the native thread budget (see {@link ThreadBudget}).  Two
+ * commands on the same model directory would overwrite each other's output, so a job cannot be added for a
+ * directory that already has an unfinished job, or that has been reserved for an interactive command.
+ *
+ * A queued job can be cancelled at once.  A running job is interrupted, and is marked cancelled when its
+ * command returns.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class JobQueue {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(JobQueue.class);
+    /** file for saving the queue */
+    private File saveFile;
+    /** list of jobs, in queue order */
+    private List<TrainingJob> jobs;
+    /** next job ID number */
+    private int nextId;
+    /** worker threads */
+    private List<Thread> workers;
+    /** TRUE if the workers should stop */
+    private boolean stopped;
+    /** model directory reserved for an interactive command, or NULL if there is none */
+    private File reserved;
+    /** header line for the save file */
+    private static final String HEADER = "id\tstatus\tcommand\tmodel_dir\tparms";
+
+    /**
+     * Create a job queue, loading any saved jobs.
+     *
+     * @param saveFile		file for saving the queue
+     *
+     * @throws IOException
+     */
+    public JobQueue(File saveFile) throws IOException {
+        this.saveFile = saveFile;
+        this.jobs = new ArrayList<TrainingJob>();
+        this.nextId = 1;
+        this.workers = new ArrayList<Thread>();
+        this.stopped = false;
+        this.reserved = null;
+        if (saveFile.exists()) {
+            try (LineReader reader = new LineReader(saveFile)) {
+                // Skip the header.
+                if (reader.hasNext()) reader.next();
+                for (String line : reader) {
+                    try {
+                        TrainingJob job = TrainingJob.fromLine(line);
+                        this.jobs.add(job);
+                        this.nextId = Math.max(this.nextId, job.getId() + 1);
+                    } catch (IllegalArgumentException e) {
+                        log.error("Skipping invalid job in {}: {}", saveFile, e.getMessage());
+                    }
+                }
+            }
+            log.info("{} jobs loaded from {}.", this.jobs.size(), saveFile);
+        }
+    }
+
+    /**
+     * Add a job to the end of the queue.
+     *
+     * @param model		model directory
+     * @param command	command to run
+     * @param type		type of model to train
+     *
+     * @return the new job
+     *
+     * @throws IOException
+     */
+    public synchronized TrainingJob add(ModelDirectory model, BatchTrainer.Command command, TrainingProcessor.Type type)
+            throws IOException {
+        if (this.isBusy(model.getDirectory()))
+            throw new IOException("Model directory " + model.getDirectory() + " is already queued or in use.");
+        String[] parms = command.getParms(model, type);
+        TrainingJob retVal = new TrainingJob(this.nextId++, model.getDirectory(), command, parms,
+                TrainingJob.Status.QUEUED);
+        this.jobs.add(retVal);
+        this.changed();
+        return retVal;
+    }
+
+    /**
+     * Reserve a model directory for an interactive command, so that no jobs can be queued for it.  Only one
+     * directory can be reserved at a time.
+     *
+     * @param dir		model directory to reserve
+     *
+     * @return TRUE if the directory was reserved, FALSE if it already has an unfinished job
+     */
+    public synchronized boolean reserve(File dir) {
+        boolean retVal = ! this.isBusy(dir);
+        if (retVal)
+            this.reserved = dir;
+        return retVal;
+    }
+
+    /**
+     * Release the model directory reserved for an interactive command.
+     */
+    public synchronized void release() {
+        this.reserved = null;
+    }
+
+    /**
+     * @return TRUE if a model directory has an unfinished job or is reserved for an interactive command
+     *
+     * @param dir		model directory to check
+     */
+    private boolean isBusy(File dir) {
+        File target = normalize(dir);
+        boolean retVal = (this.reserved != null && normalize(this.reserved).equals(target));
+        for (int i = 0; i < this.jobs.size() && ! retVal; i++) {
+            TrainingJob job = this.jobs.get(i);
+            retVal = (! job.getStatus().isFinished() && normalize(job.getModelDir()).equals(target));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the absolute, normalized form of a directory name, for comparison
+     *
+     * @param dir		directory to normalize
+     */
+    private static File normalize(File dir) {
+        return dir.getAbsoluteFile().toPath().normalize().toFile();
+    }
+
+    /**
+     * @return a copy of the job list, in queue order
+     */
+    public synchronized List<TrainingJob> getJobs() {
+        return new ArrayList<TrainingJob>(this.jobs);
+    }
+
+    /**
+     * Move a job one position in the queue.
+     *
+     * @param id		ID of the job to move
+     * @param offset	-1 to move it up, 1 to move it down
+     *
+     * @return TRUE if the job was moved
+     */
+    public synchronized boolean move(int id, int offset) {
+        boolean retVal = false;
+        int pos = this.find(id);
+        int newPos = pos + offset;
+        if (pos >= 0 && newPos >= 0 && newPos < this.jobs.size()) {
+            TrainingJob job = this.jobs.get(pos);
+            this.jobs.set(pos, this.jobs.get(newPos));
+            this.jobs.set(newPos, job);
+            this.changed();
+            retVal = true;
+        }
+        return retVal;
+    }
+
+    /**
+     * Cancel a job.  A queued job is cancelled at once, and a running job is interrupted.
+     *
+     * @param id		ID of the job to cancel
+     */
+    public synchronized void cancel(int id) {
+        int pos = this.find(id);
+        if (pos >= 0) {
+            TrainingJob job = this.jobs.get(pos);
+            if (! job.getStatus().isFinished()) {
+                job.cancel();
+                if (job.getStatus() == TrainingJob.Status.QUEUED) {
+                    job.setStatus(TrainingJob.Status.CANCELLED);
+                    this.changed();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the finished jobs from the queue.
+     */
+    public synchronized void clearFinished() {
+        if (this.jobs.removeIf(x -> x.getStatus().isFinished()))
+            this.changed();
+    }
+
+    /**
+     * @return the position of a job in the queue, or -1 if it is not found
+     *
+     * @param id		ID of the job to find
+     */
+    private int find(int id) {
+        int retVal = -1;
+        for (int i = 0; i < this.jobs.size() && retVal < 0; i++) {
+            if (this.jobs.get(i).getId() == id)
+                retVal = i;
+        }
+        return retVal;
+    }
+
+    /**
+     * Save the queue and wake the workers.  This must be called while synchronized on the queue.
+     */
+    private void changed() {
+        try {
+            File tempFile = new File(this.saveFile.getPath() + ".tmp");
+            try (PrintWriter writer = new PrintWriter(tempFile, "UTF-8")) {
+                writer.println(HEADER);
+                for (TrainingJob job : this.jobs)
+                    writer.println(job.toLine());
+            }
+            Files.move(tempFile.toPath(), this.saveFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Could not save job queue to {}: {}", this.saveFile, e.getMessage());
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * Start the worker threads.
+     *
+     * @param count		number of workers
+     */
+    public synchronized void start(int count) {
+        this.stopped = false;
+        for (int i = 1; i <= count; i++) {
+            Thread worker = new Thread(() -> this.work(), "job-worker-" + i);
+            worker.setDaemon(true);
+            this.workers.add(worker);
+            worker.start();
+        }
+        log.info("Job queue started with {} workers.", count);
+    }
+
+    /**
+     * Stop the worker threads.  Running jobs are interrupted, and will be queued again the next time the
+     * queue is loaded.
+     */
+    public synchronized void stop() {
+        this.stopped = true;
+        for (Thread worker : this.workers)
+            worker.interrupt();
+        this.workers.clear();
+        this.notifyAll();
+    }
+
+    /**
+     * @return the next queued job, marked as running, or NULL if the workers are stopping
+     */
+    private synchronized TrainingJob next() {
+        TrainingJob retVal = null;
+        while (retVal == null && ! this.stopped) {
+            for (int i = 0; i < this.jobs.size() && retVal == null; i++) {
+                TrainingJob job = this.jobs.get(i);
+                if (job.getStatus() == TrainingJob.Status.QUEUED)
+                    retVal = job;
+            }
+            if (retVal == null) try {
+                this.wait();
+            } catch (InterruptedException e) {
+                // We only get interrupted when stopping, so this is okay.
+            }
+        }
+        if (retVal != null) {
+            retVal.setStatus(TrainingJob.Status.RUNNING);
+            retVal.setWorker(Thread.currentThread());
+            this.changed();
+        }
+        return retVal;
+    }
+
+    /**
+     * Mark a job as finished.
+     *
+     * @param job		job that has finished
+     * @param status	final status
+     */
+    private synchronized void finish(TrainingJob job, TrainingJob.Status status) {
+        job.setWorker(null);
+        if (job.isCancelled())
+            status = TrainingJob.Status.CANCELLED;
+        // If we are stopping, the job stays running so that it is queued again when the queue is reloaded.
+        if (! this.stopped || status != TrainingJob.Status.FAILED)
+            job.setStatus(status);
+        this.changed();
+        // Clear the interrupt flag so it does not affect the next job.
+        Thread.interrupted();
+    }
+
+    /**
+     * Run jobs until the workers are stopped.
+     */
+    private void work() {
+        TrainingJob job = this.next();
+        while (job != null) {
+            log.info("Starting job {}: {} on {}.", job.getId(), job.getCommand(), job.getModelDir());
+            TrainingJob.Status status = TrainingJob.Status.FAILED;
+            ThreadBudget.acquire(1);
+            MetricsReporter reporter = new MetricsReporter(job, MetricsRegistry.getDefault(),
+                    Integer.toString(job.getId()));
+            try {
+                reporter.setTrainingFile(new File(job.getModelDir(), "training.tbl"));
+                ICommand processor = job.getCommand().create(reporter);
+                if (! processor.parseCommand(job.getParms()))
+                    job.setMessage("Invalid parameter combination.");
+                else {
+                    processor.run();
+                    status = TrainingJob.Status.COMPLETE;
+                }
+            } catch (CancellationException e) {
+                log.info("Job {} cancelled.", job.getId());
+                job.setMessage("Cancelled.");
+            } catch (Exception e) {
+                log.error("Error running job " + job.getId() + ".", e);
+                job.setMessage("Error: " + e.getMessage());
+            } finally {
+                reporter.release();
+                ThreadBudget.release(1);
+            }
+            this.finish(job, status);
+            job = this.next();
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+/**
+ *
+ */
+package org.theseed.dl4j.batch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.theseed.dl4j.train.ITrainReporter;
+
+/**
+ * This reporter writes training progress as JSON lines, one object per report.  Every object has a "time"
+ * field (milliseconds since the epoch) and an "event" field that is "message", "results", "epoch", or one of
+ * the command-level events written by the batch front end.  Each line is flushed as soon as it is written,
+ * so another program can follow the output while training is running.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class JsonLinesReporter implements ITrainReporter, AutoCloseable {
+
+    // FIELDS
+    /** output writer */
+    private PrintWriter writer;
+    /** TRUE if the writer should be closed when we are done */
+    private boolean owned;
+
+    /**
+     * Create a reporter that writes to the standard output.
+     */
+    public JsonLinesReporter() {
+        this(System.out, false);
+    }
+
+    /**
+     * Create a reporter that writes to a file.  The file is appended to if it already exists.
+     *
+     * @param outFile	output file
+     *
+     * @throws IOException
+     */
+    public JsonLinesReporter(File outFile) throws IOException {
+        this(new FileOutputStream(outFile, true), true);
+    }
+
+    /**
+     * Create a reporter that writes to an output stream.
+     *
+     * @param stream	output stream
+     * @param owned		TRUE if the stream should be closed when the reporter is closed
+     */
+    private JsonLinesReporter(OutputStream stream, boolean owned) {
+        this.writer = new PrintWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        this.owned = owned;
+    }
+
+    @Override
+    public void showMessage(String message) {
+        this.write("message", "text", message);
+    }
+
+    @Override
+    public void showResults(String paragraph) {
+        this.write("results", "text", paragraph);
+    }
+
+    @Override
+    public void displayEpoch(int epoch, double score, boolean saved) {
+        StringBuilder line = this.start("epoch");
+        line.append(",\"epoch\":").append(epoch);
+        line.append(",\"score\":").append(number(score));
+        line.append(",\"saved\":").append(saved);
+        this.finish(line);
+    }
+
+    /**
+     * Write an event with a single string field.
+     *
+     * @param event		event type
+     * @param field		name of the field
+     * @param value		value of the field
+     */
+    public void write(String event, String field, String value) {
+        StringBuilder line = this.start(event);
+        line.append(",\"").append(field).append("\":");
+        quote(line, value);
+        this.finish(line);
+    }
+
+    /**
+     * @return a buffer containing the start of an event object
+     *
+     * @param event		event type
+     */
+    private StringBuilder start(String event) {
+        StringBuilder retVal = new StringBuilder(80);
+        retVal.append("{\"time\":").append(System.currentTimeMillis());
+        retVal.append(",\"event\":");
+        quote(retVal, event);
+        return retVal;
+    }
+
+    /**
+     * Finish an event object and write it out.
+     *
+     * @param line		buffer containing the event object
+     */
+    private void finish(StringBuilder line) {
+        line.append('}');
+        synchronized (this.writer) {
+            this.writer.println(line);
+            this.writer.flush();
+        }
+    }
+
+    /**
+     * @return a JSON representation of a floating-point number; JSON has no NaN or infinity, so these are NULL
+     *
+     * @param value		number to convert
+     */
+    private static String number(double value) {
+        String retVal = "null";
+        if (Double.isFinite(value))
+            retVal = Double.toString(value);
+        return retVal;
+    }
+
+    /**
+     * Append a JSON string literal to a buffer.
+     *
+     * @param buffer	output buffer
+     * @param value		string to quote, or NULL
+     */
+    private static void quote(StringBuilder buffer, String value) {
+        if (value == null)
+            buffer.append("null");
+        else {
+            buffer.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                case '"' :
+                    buffer.append("\\\"");
+                    break;
+                case '\\' :
+                    buffer.append("\\\\");
+                    break;
+                case '\n' :
+                    buffer.append("\\n");
+                    break;
+                case '\r' :
+                    buffer.append("\\r");
+                    break;
+                case '\t' :
+                    buffer.append("\\t");
+                    break;
+                default :
+                    if (c < ' ')
+                        buffer.append(String.format("\\u%04x", (int) c));
+                    else
+                        buffer.append(c);
+                }
+            }
+            buffer.append('"');
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this.writer) {
+            if (this.owned)
+                this.writer.close();
+            else
+                this.writer.flush();
+        }
+    }
+
+}
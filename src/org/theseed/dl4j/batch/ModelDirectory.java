@@ -0,0 +1,230 @@
+/**
+ *
+ */
+package org.theseed.dl4j.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.theseed.dl4j.predict.ProgressReport;
+import org.theseed.dl4j.train.TrainingProcessor;
+import org.theseed.io.LineReader;
+import org.theseed.utils.Parms;
+
+/**
+ * This object describes a model directory.  It determines the model type from the label file and the training
+ * file header, creates a default parameter file if there is none, and builds the parameter lists for the search
+ * and cross-validation commands.  It is shared by the GUI and the command-line front ends.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ModelDirectory {
+
+    // FIELDS
+    /** model directory */
+    private File modelDir;
+    /** type of model */
+    private TrainingProcessor.Type modelType;
+    /** set of labels */
+    private Set<String> labels;
+    /** column headers of the training file */
+    private List<String> headers;
+    /** parameter file for the model */
+    private File parmFile;
+    /** name of the saved model file */
+    public static final String MODEL_FILE = "model.ser";
+    /** name of the trial log */
+    public static final String TRIAL_LOG = "trials.log";
+    /** files that are specific to a training run, and are not copied to a work directory */
+    private static final Set<String> RUN_FILES = new HashSet<String>(Arrays.asList("parms.prm", TRIAL_LOG,
+            MODEL_FILE));
+
+    /**
+     * Analyze a model directory.
+     *
+     * @param modelDir	model directory to analyze
+     *
+     * @throws IOException
+     */
+    public ModelDirectory(File modelDir) throws IOException {
+        this.modelDir = modelDir;
+        File labelFile = new File(modelDir, "labels.txt");
+        if (! labelFile.exists())
+            throw new IOException("Model directory " + modelDir + " does not have a label file.");
+        File trainFile = this.getTrainingFile();
+        if (! trainFile.exists())
+            throw new IOException("Model directory " + modelDir + " does not have a training file.");
+        this.labels = LineReader.readSet(labelFile);
+        try (LineReader reader = new LineReader(trainFile)) {
+            String header = (reader.hasNext() ? reader.next() : "");
+            this.headers = Arrays.asList(StringUtils.split(header, '\t'));
+        }
+        // If all of the labels are in the header line, it is a regression model.
+        int count = 0;
+        for (String head : this.headers) {
+            if (this.labels.contains(head)) count++;
+        }
+        if (count == this.labels.size())
+            this.modelType = TrainingProcessor.Type.REGRESSION;
+        else
+            this.modelType = TrainingProcessor.Type.CLASS;
+        this.parmFile = new File(modelDir, "parms.prm");
+    }
+
+    /**
+     * @return the model directory
+     */
+    public File getDirectory() {
+        return this.modelDir;
+    }
+
+    /**
+     * @return the training file
+     */
+    public File getTrainingFile() {
+        return new File(this.modelDir, "training.tbl");
+    }
+
+    /**
+     * @return the type of model
+     */
+    public TrainingProcessor.Type getType() {
+        return this.modelType;
+    }
+
+    /**
+     * @return the parameter file
+     */
+    public File getParmFile() {
+        return this.parmFile;
+    }
+
+    /**
+     * @return TRUE if the model directory has a parameter file
+     */
+    public boolean hasParms() {
+        return this.parmFile.exists();
+    }
+
+    /**
+     * @return the training file columns that can be used as meta-columns
+     */
+    public List<String> getMetaCandidates() {
+        List<String> retVal;
+        if (this.modelType != TrainingProcessor.Type.REGRESSION)
+            retVal = this.headers;
+        else
+            retVal = this.headers.stream().filter(x -> ! this.labels.contains(x)).collect(Collectors.toList());
+        return retVal;
+    }
+
+    /**
+     * Create a default parameter file.  The testing set is a tenth of the training file.
+     *
+     * @param metaCols	meta-columns for the model; the first one is the ID column
+     *
+     * @throws IOException
+     */
+    public void createParms(String[] metaCols) throws IOException {
+        TrainingProcessor processor = TrainingProcessor.create(this.modelType);
+        // Set the defaults.
+        processor.setAllDefaults();
+        // Compute the testing set size.
+        int testSize = (int) (ProgressReport.countRows(this.getTrainingFile()) / 10);
+        if (testSize < 1) testSize = 1;
+        processor.setTestSize(testSize);
+        processor.setMetaCols(metaCols);
+        if (metaCols.length > 0)
+            processor.setIdCol(metaCols[0]);
+        processor.writeParms(this.parmFile);
+    }
+
+    /**
+     * Copy the input files of this model directory to a work directory, so that a training run can be made
+     * there without disturbing this one.  The parameter file, trial log, and saved model are not copied.
+     * The training file is linked rather than copied when possible, since it may be large and is never changed
+     * by training.
+     *
+     * @param workDir		work directory to receive the files; it is created if necessary
+     * @param withTraining	TRUE to include the training file, FALSE if the caller will write its own
+     *
+     * @throws IOException
+     */
+    public void copyTo(File workDir, boolean withTraining) throws IOException {
+        if (! workDir.isDirectory() && ! workDir.mkdirs())
+            throw new IOException("Could not create work directory " + workDir + ".");
+        File trainFile = this.getTrainingFile();
+        for (File file : this.modelDir.listFiles()) {
+            String name = file.getName();
+            File target = new File(workDir, name);
+            if (! file.isFile() || RUN_FILES.contains(name)) {
+                // Here the file is not an input file.
+            } else if (! file.equals(trainFile))
+                Files.copy(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            else if (withTraining) {
+                Files.deleteIfExists(target.toPath());
+                try {
+                    Files.createLink(target.toPath(), file.toPath());
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(file.toPath(), target.toPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the ID column for the model, or NULL if there is none
+     *
+     * @throws IOException
+     */
+    public String getIdCol() throws IOException {
+        String retVal = null;
+        Parms parms = new Parms(this.parmFile);
+        String[] cols = StringUtils.split(parms.getValue("--metaCols"), ',');
+        if (cols != null && cols.length >= 1)
+            retVal = cols[0];
+        return retVal;
+    }
+
+    /**
+     * @return the parameters for a search command
+     *
+     * @param type		type of model to train
+     */
+    public String[] getSearchParms(TrainingProcessor.Type type) {
+        return new String[] { "-t", type.toString(), this.modelDir.toString() };
+    }
+
+    /**
+     * @return the parameters for a cross-validation command
+     *
+     * @param type		type of model to train
+     *
+     * @throws IOException
+     */
+    public String[] getCrossValidateParms(TrainingProcessor.Type type) throws IOException {
+        String idCol = this.getIdCol();
+        List<String> parmList = new ArrayList<String>(10);
+        parmList.add("-t");
+        parmList.add(type.toString());
+        if (idCol != null) {
+            parmList.add("--id");
+            parmList.add(idCol);
+        }
+        parmList.add(this.modelDir.toString());
+        String[] retVal = new String[parmList.size()];
+        retVal = parmList.toArray(retVal);
+        return retVal;
+    }
+
+}
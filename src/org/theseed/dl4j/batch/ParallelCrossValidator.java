@@ -0,0 +1,423 @@
+/**
+ *
+ */
+package org.theseed.dl4j.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.dl4j.train.ITrainReporter;
+import org.theseed.dl4j.train.SearchProcessor;
+import org.theseed.dl4j.train.TrainingProcessor;
+import org.theseed.io.LineReader;
+import org.theseed.io.ParmDescriptor;
+import org.theseed.io.ParmFile;
+import org.theseed.utils.ICommand;
+
+/**
+ * This command performs a cross-validation with the folds trained at the same time on separate workers.
+ *
+ * The training file is shuffled and dealt into K folds.  If an ID column is specified, rows with the same ID are
+ * dealt to the same fold.  Each fold gets its own copy of the model directory under "folds" in the model directory.
+ * The copy's training file has the fold's rows first, followed by all the other rows, and the copy's parameter
+ * file sets the testing set size to the fold size, so the fold is the testing set.  The fold's rows are also
+ * written to a separate testing file.  Each fold is then trained by a search processor on its copy.  If the
+ * parameter file lists several parameter combinations, each fold searches all of them and keeps its best model.
+ *
+ * The workers share the native thread budget (see {@link ThreadBudget}), so they do not oversubscribe the
+ * cores.  When a fold finishes training, its saved model is scored against the fold's testing file (see
+ * {@link TestScore}).  The summary lists the test-set accuracy (classification) or RMSE (regression) of each
+ * fold, followed by the mean and standard deviation over the folds.
+ *
+ * Status messages from every fold are passed to the reporter with the fold number in front.  Only the epochs of
+ * the first fold are passed on, so that the reporter sees a single learning curve.  If the run is interrupted,
+ * the folds are told to stop at their next report, and the run waits for them to finish.
+ *
+ * The positional parameter is the model directory.  The command-line options are as follows.
+ *
+ * -t	type of model (CLASS or REGRESSION)
+ * -k	number of folds (default 5)
+ *
+ * --id			ID column; rows with the same ID are kept in the same fold
+ * --workers	number of folds to train at once (default is the number of folds, limited by the thread budget)
+ * --seed		random number seed for dealing the folds (default 142)
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ParallelCrossValidator implements ICommand {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(ParallelCrossValidator.class);
+    /** reporter for progress and results */
+    private ITrainReporter reporter;
+    /** test-set score of each fold */
+    private TestScore[] testScores;
+    /** last epoch of each fold */
+    private int[] lastEpochs;
+    /** TRUE if the run has been stopped */
+    private volatile boolean cancelled;
+    /** name of the directory holding the fold copies */
+    public static final String FOLD_DIR = "folds";
+    /** name of the testing file in each fold copy */
+    public static final String FOLD_TEST_FILE = "fold.test.tbl";
+
+    // COMMAND-LINE OPTIONS
+
+    /** type of model */
+    @Option(name = "-t", aliases = { "--type" }, usage = "type of model")
+    private TrainingProcessor.Type modelType;
+
+    /** ID column */
+    @Option(name = "--id", metaVar = "sample_id", usage = "ID column; rows with the same ID are kept in the same fold")
+    private String idCol;
+
+    /** number of folds */
+    @Option(name = "-k", aliases = { "--folds" }, metaVar = "10", usage = "number of folds")
+    private int foldK;
+
+    /** number of workers */
+    @Option(name = "--workers", metaVar = "4", usage = "number of folds to train at once")
+    private int workers;
+
+    /** random number seed */
+    @Option(name = "--seed", metaVar = "12345", usage = "random number seed for dealing the folds")
+    private long seed;
+
+    /** model directory */
+    @Argument(index = 0, metaVar = "modelDir", usage = "model directory", required = true)
+    private File modelDir;
+
+    /**
+     * Construct a parallel cross-validator.
+     *
+     * @param reporter	reporter for progress and results
+     */
+    public ParallelCrossValidator(ITrainReporter reporter) {
+        this.reporter = reporter;
+        this.modelType = TrainingProcessor.Type.CLASS;
+        this.foldK = 5;
+        this.workers = 0;
+        this.seed = 142;
+    }
+
+    @Override
+    public boolean parseCommand(String[] args) {
+        boolean retVal = false;
+        CmdLineParser parser = new CmdLineParser(this);
+        try {
+            parser.parseArgument(args);
+            if (this.foldK < 2)
+                throw new CmdLineException(parser, "At least two folds are required.");
+            else if (! this.modelDir.isDirectory())
+                throw new CmdLineException(parser, "Model directory " + this.modelDir + " not found or invalid.");
+            if (this.workers <= 0)
+                this.workers = Math.min(this.foldK, ThreadBudget.getDefaultWorkers());
+            retVal = true;
+        } catch (CmdLineException e) {
+            log.error(e.getMessage());
+        }
+        return retVal;
+    }
+
+    @Override
+    public void run() {
+        try {
+            ModelDirectory model = new ModelDirectory(this.modelDir);
+            List<File> foldDirs = this.createFolds(model);
+            this.testScores = new TestScore[this.foldK];
+            this.lastEpochs = new int[this.foldK];
+            this.cancelled = false;
+            this.trainFolds(foldDirs);
+            this.reporter.showResults(this.summarize());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            this.reporter.showMessage("Cross-validation interrupted.");
+        }
+    }
+
+    /**
+     * Create the fold directories.
+     *
+     * @param model		model directory
+     *
+     * @return a list of the fold directories
+     *
+     * @throws IOException
+     */
+    private List<File> createFolds(ModelDirectory model) throws IOException {
+        // Read the training file.
+        String header;
+        List<String> rows = new ArrayList<String>();
+        try (LineReader reader = new LineReader(model.getTrainingFile())) {
+            header = reader.next();
+            for (String line : reader)
+                rows.add(line);
+        }
+        // Group the rows by ID.  Without an ID column, each row is its own group.
+        List<List<String>> groups = this.groupRows(header, rows);
+        if (groups.size() < this.foldK)
+            throw new IOException("Training file has only " + groups.size() + " distinct rows, too few for "
+                    + this.foldK + " folds.");
+        // Deal the groups into folds.  Each group goes to the smallest fold so far.
+        Collections.shuffle(groups, new Random(this.seed));
+        List<List<String>> folds = new ArrayList<List<String>>(this.foldK);
+        for (int i = 0; i < this.foldK; i++)
+            folds.add(new ArrayList<String>(rows.size() / this.foldK + 1));
+        for (List<String> group : groups) {
+            List<String> smallest = folds.get(0);
+            for (List<String> fold : folds) {
+                if (fold.size() < smallest.size())
+                    smallest = fold;
+            }
+            smallest.addAll(group);
+        }
+        // Build the fold directories.
+        File foldRoot = new File(this.modelDir, FOLD_DIR);
+        List<File> retVal = new ArrayList<File>(this.foldK);
+        for (int i = 0; i < this.foldK; i++) {
+            File foldDir = new File(foldRoot, "fold" + (i + 1));
+            model.copyTo(foldDir, false);
+            // Write the training file with the fold first.
+            try (PrintWriter writer = new PrintWriter(new File(foldDir, "training.tbl"), "UTF-8")) {
+                writer.println(header);
+                for (String line : folds.get(i))
+                    writer.println(line);
+                for (int j = 0; j < this.foldK; j++) {
+                    if (j != i) {
+                        for (String line : folds.get(j))
+                            writer.println(line);
+                    }
+                }
+            }
+            // Write the fold by itself for scoring the fold's model.
+            try (PrintWriter writer = new PrintWriter(new File(foldDir, FOLD_TEST_FILE), "UTF-8")) {
+                writer.println(header);
+                for (String line : folds.get(i))
+                    writer.println(line);
+            }
+            // Write the parameter file with the fold as the testing set.
+            ParmFile parms = new ParmFile(model.getParmFile());
+            ParmDescriptor testSize = parms.get("--testSize");
+            if (testSize == null)
+                throw new IOException("Parameter file " + model.getParmFile() + " has no testing set size.");
+            testSize.setValue(Integer.toString(folds.get(i).size()));
+            testSize.setCommented(false);
+            parms.save(new File(foldDir, "parms.prm"));
+            retVal.add(foldDir);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the training rows grouped by ID, in order of first appearance
+     *
+     * @param header	header line of the training file
+     * @param rows		data lines of the training file
+     *
+     * @throws IOException
+     */
+    private List<List<String>> groupRows(String header, List<String> rows) throws IOException {
+        List<List<String>> retVal;
+        if (this.idCol == null) {
+            retVal = new ArrayList<List<String>>(rows.size());
+            for (String line : rows)
+                retVal.add(Collections.singletonList(line));
+        } else {
+            int idIdx = Arrays.asList(StringUtils.splitPreserveAllTokens(header, '\t')).indexOf(this.idCol);
+            if (idIdx < 0)
+                throw new IOException("ID column " + this.idCol + " not found in training file.");
+            Map<String, List<String>> groupMap = new LinkedHashMap<String, List<String>>();
+            for (String line : rows) {
+                String[] fields = StringUtils.splitPreserveAllTokens(line, '\t');
+                String id = (idIdx < fields.length ? fields[idIdx] : "");
+                groupMap.computeIfAbsent(id, x -> new ArrayList<String>()).add(line);
+            }
+            retVal = new ArrayList<List<String>>(groupMap.values());
+        }
+        return retVal;
+    }
+
+    /**
+     * Train the folds on the worker pool.
+     *
+     * @param foldDirs	list of fold directories
+     *
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private void trainFolds(List<File> foldDirs) throws InterruptedException, IOException {
+        AtomicInteger threadNum = new AtomicInteger(0);
+        ExecutorService pool = Executors.newFixedThreadPool(this.workers, r -> {
+            Thread retVal = new Thread(r, "fold-worker-" + threadNum.incrementAndGet());
+            retVal.setDaemon(true);
+            return retVal;
+        });
+        ThreadBudget.acquire(this.workers);
+        this.reporter.showMessage("Training " + this.foldK + " folds on " + this.workers + " workers.");
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(this.foldK);
+            for (int i = 0; i < this.foldK; i++) {
+                final int fold = i;
+                futures.add(pool.submit(() -> {
+                    this.trainFold(fold, foldDirs.get(fold));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Fold training failed: " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } finally {
+            // Stop any folds still running, and wait for them so they do not write to the fold directories
+            // after we return.  The interrupt flag is cleared while we wait, since we may be here because of it.
+            this.cancelled = true;
+            pool.shutdownNow();
+            boolean interrupted = Thread.interrupted();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            ThreadBudget.release(this.workers);
+        }
+    }
+
+    /**
+     * Train a single fold.
+     *
+     * @param fold		index of the fold
+     * @param foldDir	directory for the fold
+     *
+     * @throws IOException
+     */
+    private void trainFold(int fold, File foldDir) throws IOException {
+        FoldReporter foldReporter = new FoldReporter(fold);
+        ICommand processor = new SearchProcessor(foldReporter);
+        String[] parms = new String[] { "-t", this.modelType.toString(), foldDir.toString() };
+        if (! processor.parseCommand(parms))
+            throw new IllegalArgumentException("Invalid parameters for fold " + (fold + 1) + ".");
+        processor.run();
+        if (! this.cancelled) {
+            // Score the fold's best model on the fold.
+            TestScore score = new TestScore(this.modelType, foldDir, new File(foldDir, FOLD_TEST_FILE));
+            this.testScores[fold] = score;
+            foldReporter.showMessage(String.format("Fold complete.  Test-set %s = %g.",
+                    TestScore.getName(this.modelType), score.getValue()));
+        }
+    }
+
+    /**
+     * @return the results summary for all the folds
+     */
+    private String summarize() {
+        StringBuilder retVal = new StringBuilder(1000);
+        String nl = System.getProperty("line.separator");
+        String name = TestScore.getName(this.modelType);
+        retVal.append(String.format("Cross-validation of %d folds on %d workers.", this.foldK, this.workers)).append(nl);
+        retVal.append(nl).append(String.format("%6s %10s %14s %8s", "Fold", "Test Rows", "Test " + name, "Epochs"))
+                .append(nl);
+        double sum = 0.0;
+        double sumSq = 0.0;
+        int n = 0;
+        for (int i = 0; i < this.foldK; i++) {
+            TestScore score = this.testScores[i];
+            double value = (score == null ? Double.NaN : score.getValue());
+            long rows = (score == null ? 0 : score.getRows());
+            retVal.append(String.format("%6d %10d %14.6g %8d", i + 1, rows, value, this.lastEpochs[i])).append(nl);
+            if (! Double.isNaN(value)) {
+                sum += value;
+                sumSq += value * value;
+                n++;
+            }
+        }
+        if (n > 0) {
+            double mean = sum / n;
+            double stdDev = (n > 1 ? Math.sqrt(Math.max(0.0, (sumSq - sum * mean) / (n - 1))) : 0.0);
+            retVal.append(nl).append(String.format("Mean test-set %s = %g, standard deviation = %g.", name, mean,
+                    stdDev)).append(nl);
+        }
+        return retVal.toString();
+    }
+
+    /**
+     * This reporter collects the results of a single fold and passes its progress to the main reporter.
+     */
+    private class FoldReporter implements ITrainReporter {
+
+        /** index of the fold */
+        private int fold;
+        /** message prefix */
+        private String prefix;
+
+        /**
+         * Create a reporter for a fold.
+         *
+         * @param fold	index of the fold
+         */
+        public FoldReporter(int fold) {
+            this.fold = fold;
+            this.prefix = "Fold " + (fold + 1) + ": ";
+        }
+
+        @Override
+        public void showMessage(String message) {
+            this.checkCancelled();
+            reporter.showMessage(this.prefix + message);
+        }
+
+        @Override
+        public void showResults(String paragraph) {
+            // The fold's own search report is not needed, since the fold is scored on its testing file.
+        }
+
+        @Override
+        public void displayEpoch(int epoch, double score, boolean saved) {
+            this.checkCancelled();
+            lastEpochs[this.fold] = epoch;
+            if (this.fold == 0)
+                reporter.displayEpoch(epoch, score, saved);
+        }
+
+        /**
+         * Stop the fold's training if the run has been stopped.
+         *
+         * @throws CancellationException if the run has been stopped
+         */
+        private void checkCancelled() {
+            if (cancelled)
+                throw new CancellationException("Cross-validation stopped.");
+        }
+
+    }
+
+}
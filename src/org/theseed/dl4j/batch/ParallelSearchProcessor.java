@@ -0,0 +1,516 @@
+/**
+ *
+ */
+package org.theseed.dl4j.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.dl4j.train.ITrainReporter;
+import org.theseed.dl4j.train.SearchProcessor;
+import org.theseed.dl4j.train.TrainingProcessor;
+import org.theseed.io.LineReader;
+import org.theseed.io.ParmDescriptor;
+import org.theseed.io.ParmFile;
+import org.theseed.utils.ICommand;
+import org.theseed.utils.Parms;
+
+/**
+ * This command performs a hyperparameter search with the parameter combinations trained at the same time on a
+ * worker pool.
+ *
+ * The parameter combinations are enumerated from the parameter file by {@link Parms}, exactly as for an ordinary
+ * search, and a trial is made for each one.  Each trial gets its own copy of the model directory under "trials"
+ * in the model directory, with a parameter file containing only the trial's values, and is trained by a search
+ * processor on that copy.
+ *
+ * When a trial finishes, its saved model is scored on the testing set (see {@link TestScore}).  The testing set
+ * is the first rows of the training file, as in training; if the testing set size is itself a search dimension,
+ * the smallest size is used, so that every trial is scored on rows it did not train on.  This score, rather than
+ * the loss reported during training, decides the best trial, since losses computed with different loss functions
+ * or regularization cannot be compared.  If a trial beats all the trials finished before it, its model is copied
+ * to the model directory, so at the end the model directory holds the best model from any worker.
+ *
+ * The trial's log is appended to the model directory's trial log in a single locked write, so the entries from
+ * different workers are never interleaved.
+ *
+ * Each worker reports the start and end of its trials and every saved epoch as status messages.  Only the
+ * epochs from the first worker are passed to the reporter, so that it sees a single learning curve, as it would
+ * during an ordinary search.  At the end, the results report lists every trial in order of test-set score,
+ * followed by the best trial's own results report.  If the search is interrupted, the trials are told to stop at
+ * their next report, and the search waits for them to finish.
+ *
+ * The positional parameter is the model directory.  The command-line options are as follows.
+ *
+ * -t	type of model (CLASS or REGRESSION)
+ *
+ * --workers	number of trials to train at once (default is determined by the thread budget)
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ParallelSearchProcessor implements ICommand {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(ParallelSearchProcessor.class);
+    /** reporter for progress and results */
+    private ITrainReporter reporter;
+    /** list of trials */
+    private List<Trial> trials;
+    /** best trial so far, or NULL if no trial has saved a model */
+    private Trial best;
+    /** lock for updating the best model */
+    private Object bestLock;
+    /** lock for writing the trial log */
+    private Object logLock;
+    /** file of testing rows for scoring the trials */
+    private File testFile;
+    /** TRUE if the search has been stopped */
+    private volatile boolean cancelled;
+    /** index of the current worker thread, starting from 1 */
+    private static final ThreadLocal<Integer> WORKER = ThreadLocal.withInitial(() -> 0);
+    /** name of the directory holding the trial copies */
+    public static final String TRIAL_DIR = "trials";
+    /** name of the testing file in the trial directory */
+    public static final String TEST_FILE = "search.test.tbl";
+
+    // COMMAND-LINE OPTIONS
+
+    /** type of model */
+    @Option(name = "-t", aliases = { "--type" }, usage = "type of model")
+    private TrainingProcessor.Type modelType;
+
+    /** number of workers */
+    @Option(name = "--workers", metaVar = "4", usage = "number of trials to train at once")
+    private int workers;
+
+    /** model directory */
+    @Argument(index = 0, metaVar = "modelDir", usage = "model directory", required = true)
+    private File modelDir;
+
+    /**
+     * This object describes a single trial.
+     */
+    private class Trial {
+
+        /** trial number, starting from 1 */
+        private int num;
+        /** parameter names and values for this trial */
+        private String[][] choices;
+        /** work directory for this trial */
+        private File trialDir;
+        /** training score of the last saved model, or NaN if none was saved */
+        private volatile double score;
+        /** test-set score of the saved model, or NULL if it has not been scored */
+        private volatile TestScore testScore;
+        /** last epoch */
+        private volatile int epoch;
+        /** index of the worker that ran the trial */
+        private int worker;
+        /** results report, or NULL if there is none */
+        private volatile String results;
+
+        /**
+         * Create a trial.
+         *
+         * @param num		trial number
+         * @param choices	parameter names and values for this trial
+         */
+        public Trial(int num, String[][] choices) {
+            this.num = num;
+            this.choices = choices;
+            this.trialDir = new File(new File(modelDir, TRIAL_DIR), "trial" + num);
+            this.score = Double.NaN;
+            this.testScore = null;
+            this.epoch = 0;
+            this.worker = 0;
+            this.results = null;
+        }
+
+        /**
+         * @return a description of this trial's parameter values
+         */
+        public String describe() {
+            List<String> retVal = new ArrayList<String>(this.choices.length);
+            for (String[] choice : this.choices)
+                retVal.add(choice[0] + " " + choice[1]);
+            return StringUtils.join(retVal, "; ");
+        }
+
+    }
+
+    /**
+     * Construct a parallel search processor.
+     *
+     * @param reporter	reporter for progress and results
+     */
+    public ParallelSearchProcessor(ITrainReporter reporter) {
+        this.reporter = reporter;
+        this.modelType = TrainingProcessor.Type.CLASS;
+        this.workers = 0;
+        this.bestLock = new Object();
+        this.logLock = new Object();
+    }
+
+    @Override
+    public boolean parseCommand(String[] args) {
+        boolean retVal = false;
+        CmdLineParser parser = new CmdLineParser(this);
+        try {
+            parser.parseArgument(args);
+            if (! this.modelDir.isDirectory())
+                throw new CmdLineException(parser, "Model directory " + this.modelDir + " not found or invalid.");
+            if (this.workers <= 0)
+                this.workers = ThreadBudget.getDefaultWorkers();
+            retVal = true;
+        } catch (CmdLineException e) {
+            log.error(e.getMessage());
+        }
+        return retVal;
+    }
+
+    @Override
+    public void run() {
+        try {
+            ModelDirectory model = new ModelDirectory(this.modelDir);
+            List<Parms> combinations = Parms.listFromFile(model.getParmFile());
+            this.trials = this.createTrials(combinations);
+            this.testFile = this.createTestFile(model, combinations);
+            this.best = null;
+            this.cancelled = false;
+            int poolSize = Math.min(this.workers, this.trials.size());
+            this.runTrials(model, poolSize);
+            this.reporter.showResults(this.summarize(poolSize));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            this.reporter.showMessage("Search interrupted.");
+        }
+    }
+
+    /**
+     * @return the list of trials for the parameter combinations in a parameter file
+     *
+     * @param combinations	parameter combinations from the parameter file
+     */
+    private List<Trial> createTrials(List<Parms> combinations) {
+        List<Trial> retVal = new ArrayList<Trial>(combinations.size());
+        for (Parms combination : combinations) {
+            // Only the parameters that vary need to be set in the trial's copy of the parameter file.
+            Map<String, String> variables = combination.getVariables();
+            String[][] choices = new String[variables.size()][];
+            int i = 0;
+            for (Map.Entry<String, String> variable : variables.entrySet())
+                choices[i++] = new String[] { variable.getKey(), variable.getValue() };
+            retVal.add(new Trial(retVal.size() + 1, choices));
+        }
+        log.info("{} parameter combinations found in {}.", retVal.size(), this.modelDir);
+        return retVal;
+    }
+
+    /**
+     * Create the file of testing rows for scoring the trials.  It contains the first rows of the training file,
+     * up to the smallest testing set size of any combination.
+     *
+     * @param model			model directory
+     * @param combinations	parameter combinations from the parameter file
+     *
+     * @return the testing file
+     *
+     * @throws IOException
+     */
+    private File createTestFile(ModelDirectory model, List<Parms> combinations) throws IOException {
+        int testSize = Integer.MAX_VALUE;
+        for (Parms combination : combinations) {
+            String value = combination.getValue("--testSize");
+            if (StringUtils.isBlank(value))
+                throw new IOException("Parameter file " + model.getParmFile() + " has no testing set size.");
+            testSize = Math.min(testSize, Integer.parseInt(value.trim()));
+        }
+        File trialRoot = new File(this.modelDir, TRIAL_DIR);
+        if (! trialRoot.isDirectory() && ! trialRoot.mkdirs())
+            throw new IOException("Could not create trial directory " + trialRoot + ".");
+        File retVal = new File(trialRoot, TEST_FILE);
+        try (LineReader reader = new LineReader(model.getTrainingFile());
+                PrintWriter writer = new PrintWriter(retVal, "UTF-8")) {
+            for (int i = 0; i <= testSize && reader.hasNext(); i++)
+                writer.println(reader.next());
+        }
+        return retVal;
+    }
+
+    /**
+     * Run all the trials on the worker pool.
+     *
+     * @param model		model directory
+     * @param poolSize	number of workers
+     *
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private void runTrials(ModelDirectory model, int poolSize) throws InterruptedException, IOException {
+        AtomicInteger threadNum = new AtomicInteger(0);
+        ExecutorService pool = Executors.newFixedThreadPool(poolSize, r -> {
+            int num = threadNum.incrementAndGet();
+            Thread retVal = new Thread(() -> { WORKER.set(num); r.run(); }, "search-worker-" + num);
+            retVal.setDaemon(true);
+            return retVal;
+        });
+        ThreadBudget.acquire(poolSize);
+        this.reporter.showMessage("Searching " + this.trials.size() + " parameter combinations on " + poolSize
+                + " workers.");
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(this.trials.size());
+            for (Trial trial : this.trials)
+                futures.add(pool.submit(() -> this.runTrial(model, trial)));
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Search failed: " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } finally {
+            // Stop any trials still running, and wait for them so they do not update the model directory after
+            // we return.  The interrupt flag is cleared while we wait, since we may be here because of it.
+            this.cancelled = true;
+            pool.shutdownNow();
+            boolean interrupted = Thread.interrupted();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            ThreadBudget.release(poolSize);
+        }
+    }
+
+    /**
+     * Run a single trial.  A trial that fails is reported and skipped, so that it does not stop the search.
+     * Nothing is done if the search has been stopped.
+     *
+     * @param model		model directory
+     * @param trial		trial to run
+     */
+    private void runTrial(ModelDirectory model, Trial trial) {
+        trial.worker = WORKER.get();
+        TrialReporter trialReporter = new TrialReporter(trial);
+        if (! this.cancelled) try {
+            // Set up the trial directory.
+            model.copyTo(trial.trialDir, true);
+            ParmFile parms = new ParmFile(model.getParmFile());
+            for (String[] choice : trial.choices) {
+                ParmDescriptor desc = parms.get(choice[0]);
+                if (desc != null)
+                    desc.setValue(choice[1]);
+            }
+            parms.save(new File(trial.trialDir, "parms.prm"));
+            Files.deleteIfExists(new File(trial.trialDir, ModelDirectory.TRIAL_LOG).toPath());
+            // Train the model.
+            trialReporter.showMessage("starting " + trial.describe());
+            ICommand processor = new SearchProcessor(trialReporter);
+            String[] parmList = new String[] { "-t", this.modelType.toString(), trial.trialDir.toString() };
+            if (! processor.parseCommand(parmList))
+                throw new IllegalArgumentException("Invalid parameter combination.");
+            processor.run();
+            // Record the results.
+            File trialModel = new File(trial.trialDir, ModelDirectory.MODEL_FILE);
+            if (! this.cancelled && trialModel.exists())
+                trial.testScore = new TestScore(this.modelType, trial.trialDir, this.testFile);
+            this.appendLog(trial);
+            this.checkBest(trial);
+            if (trial.testScore != null)
+                trialReporter.showMessage(String.format("finished with test-set %s %g.",
+                        TestScore.getName(this.modelType), trial.testScore.getValue()));
+        } catch (CancellationException e) {
+            log.info("Trial {} stopped.", trial.num);
+        } catch (IOException | RuntimeException e) {
+            log.error("Error in trial " + trial.num + ".", e);
+            if (! this.cancelled)
+                trialReporter.showMessage("failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Append a trial's log to the model directory's trial log.  The whole log is written under a file lock,
+     * so that it is not interleaved with other trials, even from another process.  Nothing is written if the
+     * search has been stopped.
+     *
+     * @param trial		trial whose log is to be appended
+     *
+     * @throws IOException
+     */
+    private void appendLog(Trial trial) throws IOException {
+        File trialLog = new File(trial.trialDir, ModelDirectory.TRIAL_LOG);
+        if (trialLog.exists() && ! this.cancelled) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(trialLog.toPath()));
+            File mainLog = new File(this.modelDir, ModelDirectory.TRIAL_LOG);
+            synchronized (this.logLock) {
+                try (FileChannel channel = FileChannel.open(mainLog.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    FileLock lock = channel.lock();
+                    try {
+                        while (buffer.hasRemaining())
+                            channel.write(buffer);
+                    } finally {
+                        lock.release();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Check a trial's test-set score against the best so far.  If it is better, its model becomes the model
+     * directory's model, unless the search has been stopped.  The trial's own copy of the model is deleted
+     * either way.
+     *
+     * @param trial		trial to check
+     *
+     * @throws IOException
+     */
+    private void checkBest(Trial trial) throws IOException {
+        File trialModel = new File(trial.trialDir, ModelDirectory.MODEL_FILE);
+        synchronized (this.bestLock) {
+            if (! this.cancelled && trial.testScore != null && trialModel.exists()
+                    && trial.testScore.isBetterThan(this.best == null ? null : this.best.testScore)) {
+                File mainModel = new File(this.modelDir, ModelDirectory.MODEL_FILE);
+                File tempModel = new File(this.modelDir, ModelDirectory.MODEL_FILE + ".tmp");
+                Files.copy(trialModel.toPath(), tempModel.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tempModel.toPath(), mainModel.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                this.best = trial;
+                this.reporter.showMessage(String.format("Trial %d is the new best, with test-set %s %g.", trial.num,
+                        TestScore.getName(this.modelType), trial.testScore.getValue()));
+            }
+        }
+        Files.deleteIfExists(trialModel.toPath());
+    }
+
+    /**
+     * @return the results summary for all the trials
+     *
+     * @param poolSize	number of workers used
+     */
+    private String summarize(int poolSize) {
+        StringBuilder retVal = new StringBuilder(1000);
+        String nl = System.getProperty("line.separator");
+        retVal.append(String.format("Search of %d parameter combinations on %d workers.", this.trials.size(),
+                poolSize)).append(nl);
+        retVal.append(nl).append(String.format("%6s %6s %14s %14s %8s  %s", "Trial", "Worker",
+                "Test " + TestScore.getName(this.modelType), "Loss", "Epochs", "Parameters")).append(nl);
+        // Sort the trials by test-set score, best first.  Trials with no score go at the end.
+        List<Trial> sorted = new ArrayList<Trial>(this.trials);
+        sorted.sort(ParallelSearchProcessor::compareTrials);
+        for (Trial trial : sorted) {
+            double testValue = (trial.testScore == null ? Double.NaN : trial.testScore.getValue());
+            retVal.append(String.format("%6d %6d %14.6g %14.6g %8d  %s", trial.num, trial.worker, testValue,
+                    trial.score, trial.epoch, trial.describe())).append(nl);
+        }
+        if (this.best != null && this.best.results != null)
+            retVal.append(nl).append("Best trial ").append(this.best.num).append(nl).append(this.best.results)
+                    .append(nl);
+        return retVal.toString();
+    }
+
+    /**
+     * @return a negative number if the first trial has the better test-set score, a positive number if the second
+     * 		   does, and otherwise the comparison of the trial numbers
+     *
+     * @param t1	first trial to compare
+     * @param t2	second trial to compare
+     */
+    private static int compareTrials(Trial t1, Trial t2) {
+        int retVal = 0;
+        if (t1.testScore != null && t1.testScore.isBetterThan(t2.testScore))
+            retVal = -1;
+        else if (t2.testScore != null && t2.testScore.isBetterThan(t1.testScore))
+            retVal = 1;
+        if (retVal == 0)
+            retVal = Integer.compare(t1.num, t2.num);
+        return retVal;
+    }
+
+    /**
+     * This reporter collects the results of a single trial and passes its progress to the main reporter.
+     */
+    private class TrialReporter implements ITrainReporter {
+
+        /** trial being reported */
+        private Trial trial;
+        /** message prefix */
+        private String prefix;
+
+        /**
+         * Create a reporter for a trial.
+         *
+         * @param trial		trial to report
+         */
+        public TrialReporter(Trial trial) {
+            this.trial = trial;
+            this.prefix = String.format("Worker %d, trial %d of %d: ", trial.worker, trial.num, trials.size());
+        }
+
+        @Override
+        public void showMessage(String message) {
+            this.checkCancelled();
+            reporter.showMessage(this.prefix + message);
+        }
+
+        @Override
+        public void showResults(String paragraph) {
+            this.trial.results = paragraph;
+        }
+
+        @Override
+        public void displayEpoch(int epoch, double score, boolean saved) {
+            this.checkCancelled();
+            this.trial.epoch = epoch;
+            if (saved) {
+                this.trial.score = score;
+                this.showMessage(String.format("epoch %d saved with score %g.", epoch, score));
+            }
+            if (this.trial.worker == 1)
+                reporter.displayEpoch(epoch, score, saved);
+        }
+
+        /**
+         * Stop the trial's training if the search has been stopped.
+         *
+         * @throws CancellationException if the search has been stopped
+         */
+        private void checkCancelled() {
+            if (cancelled)
+                throw new CancellationException("Search stopped.");
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package org.theseed.dl4j.batch;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.theseed.dl4j.train.TrainingProcessor;
+import org.theseed.reports.ClassMetrics;
+import org.theseed.reports.ClassValidationConfusion;
+import org.theseed.reports.RegressionStats;
+import org.theseed.reports.RegressionValidationScatter;
+
+/**
+ * This object holds the score of a saved model on a file of testing rows.  For a classification model, the score
+ * is the accuracy, and higher is better.  For a regression model, it is the root mean squared error pooled over
+ * all the labels, and lower is better.
+ *
+ * Unlike the score displayed during training, which is the value of the loss function, this score does not
+ * depend on the loss function or the regularization, so it can be compared between models trained with
+ * different parameters.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TestScore {
+
+    // FIELDS
+    /** type of model scored */
+    private TrainingProcessor.Type type;
+    /** accuracy or root mean squared error */
+    private double value;
+    /** number of rows scored */
+    private long rows;
+
+    /**
+     * Score the saved model in a model directory against a file of testing rows.
+     *
+     * @param type			type of model
+     * @param modelDir		model directory containing the saved model
+     * @param testFile		file of testing rows, in the same format as the training file
+     *
+     * @throws IOException
+     */
+    public TestScore(TrainingProcessor.Type type, File modelDir, File testFile) throws IOException {
+        this.type = type;
+        TrainingProcessor processor = TrainingProcessor.create(type);
+        if (! processor.initializeForPredictions(modelDir))
+            throw new IOException("Model directory " + modelDir + " is not set up for predictions.");
+        if (type == TrainingProcessor.Type.REGRESSION) {
+            RegressionValidationScatter report = new RegressionValidationScatter();
+            processor.runPredictions(report, testFile);
+            RegressionStats total = new RegressionStats();
+            int nLabels = processor.getLabels().size();
+            for (int i = 0; i < nLabels; i++)
+                total.merge(report.getAllStats(i));
+            this.value = total.getRmse();
+            this.rows = report.getRowCount();
+        } else {
+            ClassValidationConfusion report = new ClassValidationConfusion();
+            processor.runPredictions(report, testFile);
+            ClassMetrics metrics = report.getMetrics(ClassValidationConfusion.ALL);
+            this.value = metrics.getAccuracy();
+            this.rows = metrics.getTotal();
+        }
+    }
+
+    /**
+     * @return the accuracy or root mean squared error
+     */
+    public double getValue() {
+        return this.value;
+    }
+
+    /**
+     * @return the number of rows scored
+     */
+    public long getRows() {
+        return this.rows;
+    }
+
+    /**
+     * @return the name of the score for a model type
+     *
+     * @param type		type of model
+     */
+    public static String getName(TrainingProcessor.Type type) {
+        return (type == TrainingProcessor.Type.REGRESSION ? "RMSE" : "Accuracy");
+    }
+
+    /**
+     * @return TRUE if this score is better than another, or the other is NULL or not a number
+     *
+     * @param other		other score to compare
+     */
+    public boolean isBetterThan(TestScore other) {
+        boolean retVal;
+        if (Double.isNaN(this.value))
+            retVal = false;
+        else if (other == null || Double.isNaN(other.value))
+            retVal = true;
+        else if (this.type == TrainingProcessor.Type.REGRESSION)
+            retVal = (this.value < other.value);
+        else
+            retVal = (this.value > other.value);
+        return retVal;
+    }
+
+}
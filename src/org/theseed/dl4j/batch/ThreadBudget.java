@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package org.theseed.dl4j.batch;
+
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class divides the machine's native compute threads among training workers.  The thread budget is the
+ * number of native BLAS threads ND4J was started with, or the OMP_NUM_THREADS environment variable, or failing
+ * those the number of cores.
+ *
+ * ND4J's native thread pool belongs to the whole process, not to a single Java thread, so a worker's share is
+ * enforced by shrinking the process-wide limit to the budget divided by the number of workers.  The workers
+ * together then use about as many native threads as a single training run would have.  Workers register with
+ * {@link #acquire(int)} and unregister with {@link #release(int)}, so that several pools can share the budget.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ThreadBudget {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(ThreadBudget.class);
+    /** original native thread budget, or 0 if it has not been computed */
+    private static int budget = 0;
+    /** number of workers currently sharing the budget */
+    private static int active = 0;
+    /** minimum number of native threads per worker when choosing the default worker count */
+    public static final int MIN_WORKER_THREADS = 4;
+
+    /**
+     * @return the number of cores
+     */
+    public static int getCores() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return the number of native threads available to all the workers together
+     */
+    public static synchronized int getBudget() {
+        if (budget <= 0) {
+            try {
+                budget = Nd4j.factory().blas().getMaxThreads();
+            } catch (RuntimeException | LinkageError e) {
+                log.warn("Could not read the native thread limit: {}", e.toString());
+            }
+            if (budget <= 0) {
+                String omp = System.getenv("OMP_NUM_THREADS");
+                if (omp != null) try {
+                    budget = Integer.parseInt(omp.trim());
+                } catch (NumberFormatException e) { }
+            }
+            if (budget <= 0 || budget > getCores())
+                budget = getCores();
+        }
+        return budget;
+    }
+
+    /**
+     * @return the default number of workers, so that each gets at least the minimum number of native threads
+     */
+    public static int getDefaultWorkers() {
+        return Math.max(1, getBudget() / MIN_WORKER_THREADS);
+    }
+
+    /**
+     * @return the number of native threads for each of a set of workers
+     *
+     * @param workers	number of workers sharing the budget
+     */
+    public static int getShare(int workers) {
+        return Math.max(1, getBudget() / Math.max(1, workers));
+    }
+
+    /**
+     * Register workers that will share the budget, and shrink the native thread pool to a worker's share.
+     *
+     * @param count		number of workers being added
+     */
+    public static synchronized void acquire(int count) {
+        active += count;
+        apply();
+    }
+
+    /**
+     * Unregister workers that are no longer running, and grow the native thread pool accordingly.
+     *
+     * @param count		number of workers being removed
+     */
+    public static synchronized void release(int count) {
+        active = Math.max(0, active - count);
+        apply();
+    }
+
+    /**
+     * Set the native thread pool to one active worker's share of the budget.
+     */
+    private static void apply() {
+        int workers = Math.max(1, active);
+        int threads = getShare(workers);
+        try {
+            Nd4j.factory().blas().setMaxThreads(threads);
+            log.info("Native thread limit set to {} for each of {} workers.", threads, workers);
+        } catch (RuntimeException | LinkageError e) {
+            log.warn("Could not set the native thread limit: {}", e.toString());
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+/**
+ *
+ */
+package org.theseed.dl4j.batch;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.theseed.dl4j.train.ITrainReporter;
+
+/**
+ * This object represents a training command waiting in a job queue.  It contains the model directory, the
+ * command, and the command parameters, which are saved with the queue, and the job's status and progress,
+ * which are updated by the worker running it.  The job is the progress reporter for its own command.  Once the
+ * job is cancelled, its status and epoch callbacks throw a CancellationException to stop the command.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TrainingJob implements ITrainReporter {
+
+    // FIELDS
+    /** job ID number */
+    private int id;
+    /** model directory */
+    private File modelDir;
+    /** command to run */
+    private BatchTrainer.Command command;
+    /** command parameters */
+    private String[] parms;
+    /** current status */
+    private volatile Status status;
+    /** most recent status message */
+    private volatile String message;
+    /** most recent results report */
+    private volatile String results;
+    /** most recent epoch */
+    private volatile int epoch;
+    /** most recent score */
+    private volatile double score;
+    /** TRUE if cancellation has been requested */
+    private volatile boolean cancelled;
+    /** thread running the job, or NULL if it is not running */
+    private volatile Thread worker;
+
+    /**
+     * Enumeration of job states.
+     */
+    public static enum Status {
+        QUEUED, RUNNING, COMPLETE, FAILED, CANCELLED;
+
+        /**
+         * @return TRUE if a job in this state is finished
+         */
+        public boolean isFinished() {
+            return (this != QUEUED && this != RUNNING);
+        }
+    }
+
+    /**
+     * Create a new job.
+     *
+     * @param id		job ID number
+     * @param modelDir	model directory
+     * @param command	command to run
+     * @param parms		command parameters
+     * @param status	initial status
+     */
+    public TrainingJob(int id, File modelDir, BatchTrainer.Command command, String[] parms, Status status) {
+        this.id = id;
+        this.modelDir = modelDir;
+        this.command = command;
+        this.parms = parms;
+        this.status = status;
+        this.message = "";
+        this.results = null;
+        this.epoch = 0;
+        this.score = Double.NaN;
+        this.cancelled = false;
+        this.worker = null;
+    }
+
+    /**
+     * @return a job read from a saved queue line
+     *
+     * @param line	tab-delimited line containing the ID, status, command, model directory, and parameters
+     */
+    public static TrainingJob fromLine(String line) {
+        String[] fields = StringUtils.splitPreserveAllTokens(line, '\t');
+        if (fields.length < 4)
+            throw new IllegalArgumentException("Invalid job queue line: " + line);
+        int id = Integer.parseInt(fields[0]);
+        Status status = Status.valueOf(fields[1]);
+        // A job that was running when the queue was saved was interrupted, so it must run again.
+        if (status == Status.RUNNING)
+            status = Status.QUEUED;
+        BatchTrainer.Command command = BatchTrainer.Command.valueOf(fields[2]);
+        File modelDir = new File(fields[3]);
+        String[] parms = Arrays.copyOfRange(fields, 4, fields.length);
+        return new TrainingJob(id, modelDir, command, parms, status);
+    }
+
+    /**
+     * @return the saved-queue line for this job
+     */
+    public String toLine() {
+        StringBuilder retVal = new StringBuilder(100);
+        retVal.append(this.id).append('\t').append(this.status).append('\t').append(this.command)
+                .append('\t').append(this.modelDir.getAbsolutePath());
+        for (String parm : this.parms)
+            retVal.append('\t').append(parm);
+        return retVal.toString();
+    }
+
+    /**
+     * Stop the job's command if the job has been cancelled.
+     */
+    private void checkCancelled() {
+        if (this.cancelled)
+            throw new CancellationException("Training job cancelled.");
+    }
+
+    @Override
+    public void showMessage(String message) {
+        this.checkCancelled();
+        this.message = message;
+    }
+
+    @Override
+    public void showResults(String paragraph) {
+        this.results = paragraph;
+    }
+
+    @Override
+    public void displayEpoch(int epoch, double score, boolean saved) {
+        this.checkCancelled();
+        this.epoch = epoch;
+        this.score = score;
+    }
+
+    /**
+     * @return the job ID number
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * @return the model directory
+     */
+    public File getModelDir() {
+        return this.modelDir;
+    }
+
+    /**
+     * @return the command to run
+     */
+    public BatchTrainer.Command getCommand() {
+        return this.command;
+    }
+
+    /**
+     * @return the command parameters
+     */
+    public String[] getParms() {
+        return this.parms;
+    }
+
+    /**
+     * @return the current status
+     */
+    public Status getStatus() {
+        return this.status;
+    }
+
+    /**
+     * Specify the current status.
+     *
+     * @param status	new status
+     */
+    protected void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /**
+     * @return the most recent status message
+     */
+    public String getMessage() {
+        return this.message;
+    }
+
+    /**
+     * Specify the status message.  Unlike {@link #showMessage}, this works even if the job has been cancelled.
+     *
+     * @param message	new status message
+     */
+    protected void setMessage(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return the most recent results report, or NULL if there is none
+     */
+    public String getResults() {
+        return this.results;
+    }
+
+    /**
+     * @return the most recent epoch
+     */
+    public int getEpoch() {
+        return this.epoch;
+    }
+
+    /**
+     * @return the most recent score
+     */
+    public double getScore() {
+        return this.score;
+    }
+
+    /**
+     * @return TRUE if cancellation has been requested
+     */
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Request cancellation of this job.  If it is running, its thread is interrupted.
+     */
+    protected void cancel() {
+        this.cancelled = true;
+        Thread thread = this.worker;
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /**
+     * Specify the thread running this job.
+     *
+     * @param worker	thread running the job, or NULL if it is no longer running
+     */
+    protected void setWorker(Thread worker) {
+        this.worker = worker;
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ *
+ */
+package org.theseed.dl4j.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleSupplier;
+
+/**
+ * This metric counts events.  The count only goes up.  Incrementing a counter never blocks, even when many
+ * threads are counting at once.  Alternatively, a counter can read its value from a function, for totals
+ * that are kept elsewhere, such as garbage collection counts and pause times.  A total read from a function
+ * need not be a whole number.  Such a counter cannot be incremented directly.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class Counter extends Metric {
+
+    // FIELDS
+    /** current count */
+    private LongAdder count;
+    /** function for reading the total, or NULL if the count is kept here */
+    private DoubleSupplier source;
+
+    /**
+     * Construct a new counter.
+     *
+     * @param name		metric family name
+     * @param help		description of the metric
+     */
+    public Counter(String name, String help) {
+        super(name, help);
+        this.count = new LongAdder();
+        this.source = null;
+    }
+
+    /**
+     * Construct a new counter that reads its value from a function.
+     *
+     * @param name		metric family name
+     * @param help		description of the metric
+     * @param source	function that returns the current total
+     */
+    public Counter(String name, String help, DoubleSupplier source) {
+        super(name, help);
+        this.count = null;
+        this.source = source;
+    }
+
+    /**
+     * Count one event.
+     */
+    public void inc() {
+        this.checkLocal();
+        this.count.increment();
+    }
+
+    /**
+     * Count multiple events.
+     *
+     * @param n		number of events to count
+     */
+    public void add(long n) {
+        this.checkLocal();
+        this.count.add(n);
+    }
+
+    /**
+     * Insure the count is kept here rather than read from a function.
+     */
+    private void checkLocal() {
+        if (this.count == null)
+            throw new UnsupportedOperationException("Counter " + this.getName() + " reads its value from a function.");
+    }
+
+    /**
+     * @return the current total
+     */
+    public double get() {
+        return (this.source != null ? this.source.getAsDouble() : this.count.sum());
+    }
+
+    @Override
+    public String getType() {
+        return "counter";
+    }
+
+    @Override
+    protected void writeSamples(StringBuilder buffer) {
+        writeSample(buffer, this.getName() + "_total", "", this.get());
+    }
+
+    @Override
+    protected void sample(BiConsumer<String, Double> consumer) {
+        consumer.accept(this.getName(), this.get());
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package org.theseed.dl4j.metrics;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+import java.util.function.DoubleSupplier;
+
+/**
+ * This metric is a value that can go up or down, such as the current score or the amount of memory in use.
+ * The value is either set directly or read from a function whenever the metric is sampled.
+ *
+ * A directly-set gauge can also have labeled series, so that several sources of the same kind of value, such as
+ * the jobs in a queue, can each report their own.  Each series is itself a gauge that shares the family name.
+ * The unlabeled value is only written if it has been set or there are no labeled series.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class Gauge extends Metric {
+
+    // FIELDS
+    /** current value, if it is set directly */
+    private volatile double value;
+    /** function for reading the value, or NULL if it is set directly */
+    private DoubleSupplier source;
+    /** label string for this series (including the braces), or an empty string for the unlabeled value */
+    private String labels;
+    /** labeled series, keyed by label string */
+    private ConcurrentSkipListMap<String, Gauge> series;
+
+    /**
+     * Construct a new gauge whose value is set directly.  The initial value is NaN.
+     *
+     * @param name		metric family name
+     * @param help		description of the metric
+     */
+    public Gauge(String name, String help) {
+        this(name, help, (DoubleSupplier) null);
+    }
+
+    /**
+     * Construct a new gauge that reads its value from a function.
+     *
+     * @param name		metric family name
+     * @param help		description of the metric
+     * @param source	function that returns the current value
+     */
+    public Gauge(String name, String help, DoubleSupplier source) {
+        super(name, help);
+        this.value = Double.NaN;
+        this.source = source;
+        this.labels = "";
+        this.series = new ConcurrentSkipListMap<String, Gauge>();
+    }
+
+    /**
+     * Construct a labeled series of a gauge.
+     *
+     * @param parent	gauge to which the series belongs
+     * @param labels	label string for the series (including the braces)
+     */
+    private Gauge(Gauge parent, String labels) {
+        this(parent.getName(), parent.getHelp(), (DoubleSupplier) null);
+        this.labels = labels;
+    }
+
+    /**
+     * @return the series of this gauge with the specified label value, creating it if necessary
+     *
+     * @param label		label name
+     * @param value		label value
+     */
+    public Gauge withLabel(String label, String value) {
+        String key = "{" + label + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+        return this.series.computeIfAbsent(key, x -> new Gauge(this, x));
+    }
+
+    /**
+     * Remove a labeled series from this gauge.
+     *
+     * @param child		series to remove
+     */
+    public void removeSeries(Gauge child) {
+        this.series.remove(child.labels, child);
+    }
+
+    /**
+     * Specify the current value.
+     *
+     * @param value		new value
+     */
+    public void set(double value) {
+        this.value = value;
+    }
+
+    /**
+     * @return the current value
+     */
+    public double get() {
+        return (this.source != null ? this.source.getAsDouble() : this.value);
+    }
+
+    @Override
+    public String getType() {
+        return "gauge";
+    }
+
+    @Override
+    protected void writeSamples(StringBuilder buffer) {
+        double current = this.get();
+        if (this.series.isEmpty() || ! Double.isNaN(current))
+            writeSample(buffer, this.getName(), this.labels, current);
+        for (Gauge child : this.series.values())
+            child.writeSamples(buffer);
+    }
+
+    @Override
+    protected void sample(BiConsumer<String, Double> consumer) {
+        double current = this.get();
+        if (this.series.isEmpty() || ! Double.isNaN(current))
+            consumer.accept(this.getName() + this.labels, current);
+        for (Gauge child : this.series.values())
+            child.sample(consumer);
+    }
+
+}
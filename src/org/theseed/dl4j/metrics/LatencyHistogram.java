@@ -0,0 +1,150 @@
+/**
+ *
+ */
+package org.theseed.dl4j.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * This metric is a histogram of durations, in seconds.  The bucket boundaries are fixed, running from a
+ * millisecond to about seventeen minutes in steps of 1, 2.5, and 5 times a power of 10.  Recording a duration
+ * never blocks, even when many threads are recording at once.
+ *
+ * In the OpenMetrics output the bucket counts are cumulative, as the format requires.  Over JMX, the
+ * histogram shows the count, the sum, and estimates of the median and 99th percentile.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class LatencyHistogram extends Metric {
+
+    // FIELDS
+    /** count of durations in each bucket; the last bucket is for durations above the highest bound */
+    private LongAdder[] buckets;
+    /** total of all the durations, in seconds */
+    private DoubleAdder sum;
+    /** upper bound of each bucket, in seconds */
+    private static final double[] BOUNDS = new double[] { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1,
+            0.25, 0.5, 1.0, 2.5, 5.0, 10.0, 25.0, 50.0, 100.0, 250.0, 500.0, 1000.0 };
+    /** labels for the bucket bounds */
+    private static final String[] BOUND_LABELS = buildLabels();
+
+    /**
+     * Construct a new latency histogram.
+     *
+     * @param name		metric family name; this should end in "_seconds"
+     * @param help		description of the metric
+     */
+    public LatencyHistogram(String name, String help) {
+        super(name, help);
+        this.buckets = new LongAdder[BOUNDS.length + 1];
+        for (int i = 0; i < this.buckets.length; i++)
+            this.buckets[i] = new LongAdder();
+        this.sum = new DoubleAdder();
+    }
+
+    /**
+     * @return the label strings for the bucket bounds
+     */
+    private static String[] buildLabels() {
+        String[] retVal = new String[BOUNDS.length + 1];
+        for (int i = 0; i < BOUNDS.length; i++)
+            retVal[i] = "{le=\"" + BOUNDS[i] + "\"}";
+        retVal[BOUNDS.length] = "{le=\"+Inf\"}";
+        return retVal;
+    }
+
+    /**
+     * Record a duration.
+     *
+     * @param seconds	duration to record, in seconds
+     */
+    public void observe(double seconds) {
+        int i = 0;
+        while (i < BOUNDS.length && seconds > BOUNDS[i]) i++;
+        this.buckets[i].increment();
+        this.sum.add(seconds);
+    }
+
+    /**
+     * Record a duration measured with {@link System#nanoTime()}.
+     *
+     * @param nanos		duration to record, in nanoseconds
+     */
+    public void observeNanos(long nanos) {
+        this.observe(nanos / 1e9);
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        long retVal = 0;
+        for (LongAdder bucket : this.buckets)
+            retVal += bucket.sum();
+        return retVal;
+    }
+
+    /**
+     * @return the total of the durations recorded, in seconds
+     */
+    public double getSum() {
+        return this.sum.sum();
+    }
+
+    /**
+     * Estimate a quantile of the durations.  The estimate is the upper bound of the bucket containing the
+     * quantile, so it is never too low.
+     *
+     * @return the estimated quantile, or NaN if no durations have been recorded
+     *
+     * @param q		quantile desired (from 0 to 1)
+     */
+    public double getQuantile(double q) {
+        double retVal = Double.NaN;
+        long[] counts = new long[this.buckets.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.buckets[i].sum();
+            total += counts[i];
+        }
+        if (total > 0) {
+            long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length && Double.isNaN(retVal); i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    retVal = (i < BOUNDS.length ? BOUNDS[i] : Double.POSITIVE_INFINITY);
+            }
+        }
+        return retVal;
+    }
+
+    @Override
+    public String getType() {
+        return "histogram";
+    }
+
+    @Override
+    protected void writeSamples(StringBuilder buffer) {
+        String bucketName = this.getName() + "_bucket";
+        long cumulative = 0;
+        for (int i = 0; i < this.buckets.length; i++) {
+            cumulative += this.buckets[i].sum();
+            writeSample(buffer, bucketName, BOUND_LABELS[i], cumulative);
+        }
+        writeSample(buffer, this.getName() + "_count", "", cumulative);
+        writeSample(buffer, this.getName() + "_sum", "", this.getSum());
+    }
+
+    @Override
+    protected void sample(BiConsumer<String, Double> consumer) {
+        consumer.accept(this.getName() + "_count", (double) this.getCount());
+        consumer.accept(this.getName() + "_sum", this.getSum());
+        consumer.accept(this.getName() + "_p50", this.getQuantile(0.5));
+        consumer.accept(this.getName() + "_p99", this.getQuantile(0.99));
+    }
+
+}
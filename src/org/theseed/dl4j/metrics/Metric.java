@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package org.theseed.dl4j.metrics;
+
+import java.util.function.BiConsumer;
+
+/**
+ * This is the base class for a metric in the metrics registry.  Each metric has a name, which is the metric
+ * family name in the OpenMetrics format, and a line of help text.  The subclasses know how to write
+ * themselves in the OpenMetrics text format and how to present themselves as JMX attributes.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public abstract class Metric {
+
+    // FIELDS
+    /** metric family name */
+    private String name;
+    /** description of the metric */
+    private String help;
+
+    /**
+     * Construct a new metric.
+     *
+     * @param name		metric family name
+     * @param help		description of the metric
+     */
+    protected Metric(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    /**
+     * @return the metric family name
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the description of the metric
+     */
+    public String getHelp() {
+        return this.help;
+    }
+
+    /**
+     * @return the OpenMetrics type of this metric
+     */
+    public abstract String getType();
+
+    /**
+     * Write the samples for this metric in OpenMetrics text format.  The TYPE and HELP lines are written
+     * by the caller.
+     *
+     * @param buffer	buffer to receive the sample lines
+     */
+    protected abstract void writeSamples(StringBuilder buffer);
+
+    /**
+     * Pass the current values of this metric to a consumer, one per JMX attribute.
+     *
+     * @param consumer	consumer to receive each attribute name and value
+     */
+    protected abstract void sample(BiConsumer<String, Double> consumer);
+
+    /**
+     * Write this metric in OpenMetrics text format.
+     *
+     * @param buffer	buffer to receive the text
+     */
+    public void writeOpenMetrics(StringBuilder buffer) {
+        buffer.append("# TYPE ").append(this.name).append(' ').append(this.getType()).append('\n');
+        buffer.append("# HELP ").append(this.name).append(' ').append(escape(this.help)).append('\n');
+        this.writeSamples(buffer);
+    }
+
+    /**
+     * Write a single sample line.
+     *
+     * @param buffer	buffer to receive the line
+     * @param name		sample name
+     * @param labels	label string (including the braces), or an empty string if there are no labels
+     * @param value		sample value
+     */
+    protected static void writeSample(StringBuilder buffer, String name, String labels, double value) {
+        buffer.append(name).append(labels).append(' ').append(format(value)).append('\n');
+    }
+
+    /**
+     * @return a number formatted for the OpenMetrics text format
+     *
+     * @param value		number to format
+     */
+    public static String format(double value) {
+        String retVal;
+        if (Double.isNaN(value))
+            retVal = "NaN";
+        else if (value == Double.POSITIVE_INFINITY)
+            retVal = "+Inf";
+        else if (value == Double.NEGATIVE_INFINITY)
+            retVal = "-Inf";
+        else if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            retVal = Long.toString((long) value);
+        else
+            retVal = Double.toString(value);
+        return retVal;
+    }
+
+    /**
+     * @return help text escaped for the OpenMetrics text format
+     *
+     * @param text		text to escape
+     */
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+}
@@ -0,0 +1,313 @@
+/**
+ *
+ */
+package org.theseed.dl4j.metrics;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.bytedeco.javacpp.Pointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object holds the metrics for the application.  Metrics are created on first request and shared by
+ * name afterward, so any part of the code can ask for a metric without coordinating with the others.
+ *
+ * The registry can be published in two ways.  It can be registered as a JMX MBean, with one read-only attribute
+ * per metric value, and it can be written in the OpenMetrics text format for the HTTP endpoint in
+ * {@link MetricsServer}.
+ *
+ * The default registry comes with gauges for the JVM heap, direct buffers, and the off-heap memory allocated
+ * by ND4J, and counters for garbage collection.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MetricsRegistry {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(MetricsRegistry.class);
+    /** metrics in this registry, sorted by name */
+    private ConcurrentSkipListMap<String, Metric> metrics;
+    /** name under which this registry is registered with JMX, or NULL if it is not registered */
+    private ObjectName jmxName;
+    /** default registry */
+    private static final MetricsRegistry DEFAULT = createDefault();
+    /** JMX name for the default registry */
+    public static final String JMX_NAME = "org.theseed.dl4j:type=Metrics";
+
+    /**
+     * Create an empty metrics registry.
+     */
+    public MetricsRegistry() {
+        this.metrics = new ConcurrentSkipListMap<String, Metric>();
+        this.jmxName = null;
+    }
+
+    /**
+     * @return the default registry, with the JVM and ND4J metrics installed
+     */
+    private static MetricsRegistry createDefault() {
+        MetricsRegistry retVal = new MetricsRegistry();
+        retVal.gauge("jvm_memory_heap_used_bytes", "Bytes of heap memory in use.",
+                () -> ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        retVal.gauge("jvm_buffer_direct_used_bytes", "Bytes of memory in use by direct buffers.",
+                () -> directBufferBytes());
+        retVal.counter("jvm_gc_collections", "Number of garbage collections.",
+                () -> gcTotal(GarbageCollectorMXBean::getCollectionCount));
+        retVal.counter("jvm_gc_pause_seconds", "Total time spent in garbage collection, in seconds.",
+                () -> gcTotal(GarbageCollectorMXBean::getCollectionTime) / 1000.0);
+        retVal.gauge("nd4j_offheap_allocated_bytes", "Bytes of off-heap memory allocated by ND4J.",
+                () -> nativeStat(Pointer::totalBytes));
+        retVal.gauge("nd4j_offheap_max_bytes", "Limit on off-heap memory for ND4J.",
+                () -> nativeStat(Pointer::maxBytes));
+        retVal.gauge("process_physical_memory_bytes", "Bytes of physical memory used by the process.",
+                () -> nativeStat(Pointer::physicalBytes));
+        return retVal;
+    }
+
+    /**
+     * @return the default registry
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return a statistic from the native memory tracker, or NaN if the native library is not available
+     *
+     * @param stat	function to get the statistic
+     */
+    private static double nativeStat(LongSupplier stat) {
+        double retVal;
+        try {
+            retVal = stat.getAsLong();
+        } catch (LinkageError e) {
+            retVal = Double.NaN;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of bytes in use by direct buffers
+     */
+    private static long directBufferBytes() {
+        long retVal = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct"))
+                retVal += pool.getMemoryUsed();
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the total of a statistic over all the garbage collectors
+     *
+     * @param stat	function to get the statistic from a collector
+     */
+    private static long gcTotal(Function<GarbageCollectorMXBean, Long> stat) {
+        long retVal = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long value = stat.apply(gc);
+            if (value > 0) retVal += value;
+        }
+        return retVal;
+    }
+
+    /**
+     * Find a metric, creating it if it does not exist.
+     *
+     * @param name		metric family name
+     * @param type		class of the metric
+     * @param creator	function to create the metric if it does not exist
+     *
+     * @return the metric with the specified name
+     *
+     * @throws IllegalArgumentException if a metric of a different class has the same name
+     */
+    private <T extends Metric> T find(String name, Class<T> type, Function<String, T> creator) {
+        Metric retVal = this.metrics.computeIfAbsent(name, creator);
+        if (! type.isInstance(retVal))
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " +
+                    retVal.getType() + ".");
+        return type.cast(retVal);
+    }
+
+    /**
+     * @return the counter with the specified name, creating it if necessary
+     *
+     * @param name		metric family name
+     * @param help		description of the metric
+     */
+    public Counter counter(String name, String help) {
+        return this.find(name, Counter.class, x -> new Counter(x, help));
+    }
+
+    /**
+     * @return the counter with the specified name, creating it from a function if necessary
+     *
+     * @param name		metric family name
+     * @param help		description of the metric
+     * @param source	function that returns the current total
+     */
+    public Counter counter(String name, String help, DoubleSupplier source) {
+        return this.find(name, Counter.class, x -> new Counter(x, help, source));
+    }
+
+    /**
+     * @return the directly-set gauge with the specified name, creating it if necessary
+     *
+     * @param name		metric family name
+     * @param help		description of the metric
+     */
+    public Gauge gauge(String name, String help) {
+        return this.find(name, Gauge.class, x -> new Gauge(x, help));
+    }
+
+    /**
+     * @return the gauge with the specified name, creating it from a function if necessary
+     *
+     * @param name		metric family name
+     * @param help		description of the metric
+     * @param source	function that returns the current value
+     */
+    public Gauge gauge(String name, String help, DoubleSupplier source) {
+        return this.find(name, Gauge.class, x -> new Gauge(x, help, source));
+    }
+
+    /**
+     * @return the latency histogram with the specified name, creating it if necessary
+     *
+     * @param name		metric family name; this should end in "_seconds"
+     * @param help		description of the metric
+     */
+    public LatencyHistogram histogram(String name, String help) {
+        return this.find(name, LatencyHistogram.class, x -> new LatencyHistogram(x, help));
+    }
+
+    /**
+     * @return all the metrics in this registry, in name order
+     */
+    public List<Metric> getMetrics() {
+        return new ArrayList<Metric>(this.metrics.values());
+    }
+
+    /**
+     * @return the text of all the metrics in OpenMetrics format
+     */
+    public String toOpenMetrics() {
+        StringBuilder retVal = new StringBuilder(4096);
+        for (Metric metric : this.metrics.values())
+            metric.writeOpenMetrics(retVal);
+        retVal.append("# EOF\n");
+        return retVal.toString();
+    }
+
+    /**
+     * @return a map of JMX attribute names to the current metric values
+     */
+    private Map<String, Double> snapshot() {
+        Map<String, Double> retVal = new LinkedHashMap<String, Double>();
+        for (Metric metric : this.metrics.values())
+            metric.sample(retVal::put);
+        return retVal;
+    }
+
+    /**
+     * Register this registry with the platform MBean server.  Nothing happens if it is already registered.
+     *
+     * @param name		JMX object name to use
+     *
+     * @throws IOException
+     */
+    public synchronized void registerJmx(String name) throws IOException {
+        if (this.jmxName == null) {
+            try {
+                ObjectName objName = new ObjectName(name);
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.registerMBean(new RegistryBean(), objName);
+                this.jmxName = objName;
+                log.info("Metrics registered with JMX as {}.", name);
+            } catch (JMException e) {
+                throw new IOException("Could not register metrics with JMX: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * This object presents the registry to JMX.  Each metric value is a read-only attribute.  The attribute
+     * list is computed on every request, so metrics added after registration show up automatically.
+     */
+    private class RegistryBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Double retVal = snapshot().get(attribute);
+            if (retVal == null)
+                throw new AttributeNotFoundException("No metric named " + attribute + ".");
+            return retVal;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metric " + attribute.getName() + " is read-only.");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Double> values = snapshot();
+            AttributeList retVal = new AttributeList();
+            for (String attribute : attributes) {
+                Double value = values.get(attribute);
+                if (value != null)
+                    retVal.add(new Attribute(attribute, value));
+            }
+            return retVal;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("Metrics have no operations.");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Double> values = snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (String name : values.keySet())
+                attributes[i++] = new MBeanAttributeInfo(name, "java.lang.Double", name, true, false, false);
+            return new MBeanInfo(MetricsRegistry.class.getName(), "Training and prediction metrics", attributes,
+                    null, null, null);
+        }
+
+    }
+
+}
@@ -0,0 +1,199 @@
+/**
+ *
+ */
+package org.theseed.dl4j.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.dl4j.predict.ProgressReport;
+import org.theseed.dl4j.train.ITrainReporter;
+
+/**
+ * This reporter records training metrics and passes every callback through to another reporter.  It counts
+ * epochs, messages, and result reports, times each epoch, and tracks the current epoch, the current score,
+ * and the score of the last saved model.
+ *
+ * The epoch time is the time between two consecutive epoch reports from the same thread.  If a training file
+ * is specified, its rows are counted by a background thread, so the training thread never waits for the count.
+ * Once the count is known, the examples-per-second gauge is the row count divided by the most recent epoch time.  This counts every row in the file, including the ones held
+ * out for testing, so it is a slight overestimate.
+ *
+ * Each training thread keeps its own timing, so the reporter can be shared by threads training different
+ * models at once.  None of the callbacks wait on a lock.
+ *
+ * When several reporters run at once, each one can be given a job name.  The counters and the epoch-time histogram
+ * are totals over all the jobs, but each job gets its own series of the gauges, labeled with its name, so the jobs
+ * do not overwrite each other's values.  A job's series should be released when the job ends.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MetricsReporter implements ITrainReporter {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(MetricsReporter.class);
+    /** reporter to receive the callbacks */
+    private ITrainReporter target;
+    /** number of epochs completed */
+    private Counter epochs;
+    /** number of status messages */
+    private Counter messages;
+    /** number of result reports */
+    private Counter results;
+    /** time per epoch */
+    private LatencyHistogram epochTimes;
+    /** most recent epoch number */
+    private Gauge currentEpoch;
+    /** most recent score */
+    private Gauge currentScore;
+    /** score of the most recently saved model */
+    private Gauge savedScore;
+    /** training examples per second in the most recent epoch */
+    private Gauge examplesPerSecond;
+    /** gauge families containing this reporter's series, or an empty list if it uses the unlabeled values */
+    private List<Gauge> families;
+    /** training file whose rows are the examples, or NULL if it is unknown */
+    private volatile File trainFile;
+    /** number of rows in the training file, or 0 if it has not been counted */
+    private volatile long trainRows;
+    /** time and number of the previous epoch reported by each thread */
+    private ThreadLocal<long[]> lastEpoch;
+
+    /**
+     * Create a metrics reporter.
+     *
+     * @param target		reporter to receive the callbacks
+     * @param registry		registry to hold the metrics
+     */
+    public MetricsReporter(ITrainReporter target, MetricsRegistry registry) {
+        this(target, registry, null);
+    }
+
+    /**
+     * Create a metrics reporter for one of several jobs running at once.
+     *
+     * @param target		reporter to receive the callbacks
+     * @param registry		registry to hold the metrics
+     * @param job			name of the job, used to label the gauges, or NULL to use the unlabeled gauges
+     */
+    public MetricsReporter(ITrainReporter target, MetricsRegistry registry, String job) {
+        this.target = target;
+        this.epochs = registry.counter("dl4j_training_epochs", "Number of training epochs completed.");
+        this.messages = registry.counter("dl4j_training_messages", "Number of training status messages.");
+        this.results = registry.counter("dl4j_training_results", "Number of training result reports.");
+        this.epochTimes = registry.histogram("dl4j_training_epoch_seconds", "Time taken by each training epoch.");
+        this.currentEpoch = registry.gauge("dl4j_training_epoch", "Most recent epoch number.");
+        this.currentScore = registry.gauge("dl4j_training_score", "Score of the most recent epoch.");
+        this.savedScore = registry.gauge("dl4j_training_saved_score", "Score of the most recently saved model.");
+        this.examplesPerSecond = registry.gauge("dl4j_training_examples_per_second",
+                "Training examples processed per second in the most recent epoch.");
+        this.families = new ArrayList<Gauge>(4);
+        if (job != null) {
+            this.currentEpoch = this.labeled(this.currentEpoch, job);
+            this.currentScore = this.labeled(this.currentScore, job);
+            this.savedScore = this.labeled(this.savedScore, job);
+            this.examplesPerSecond = this.labeled(this.examplesPerSecond, job);
+        }
+        this.trainFile = null;
+        this.trainRows = 0;
+        this.lastEpoch = ThreadLocal.withInitial(() -> new long[] { 0, Long.MAX_VALUE });
+    }
+
+    /**
+     * @return the series of a gauge for a job, remembering the gauge so the series can be released
+     *
+     * @param family	gauge containing the series
+     * @param job		name of the job
+     */
+    private Gauge labeled(Gauge family, String job) {
+        this.families.add(family);
+        return family.withLabel("job", job);
+    }
+
+    /**
+     * Remove this reporter's gauge series from the registry.  This should be called when a job ends, so that
+     * finished jobs do not accumulate in the metrics output.
+     */
+    public void release() {
+        Gauge[] series = new Gauge[] { this.currentEpoch, this.currentScore, this.savedScore, this.examplesPerSecond };
+        for (int i = 0; i < this.families.size(); i++)
+            this.families.get(i).removeSeries(series[i]);
+        this.families.clear();
+    }
+
+    /**
+     * Specify the training file for the examples-per-second gauge.  The rows are counted in the background.
+     *
+     * @param trainFile		training file for the models about to be trained, or NULL if it is unknown
+     */
+    public void setTrainingFile(File trainFile) {
+        synchronized (this) {
+            this.trainRows = 0;
+            this.trainFile = trainFile;
+        }
+        if (trainFile != null) {
+            Thread counter = new Thread(() -> this.countRows(trainFile), "training-row-counter");
+            counter.setDaemon(true);
+            counter.start();
+        }
+    }
+
+    /**
+     * Count the rows in a training file and save the count, unless the training file has changed in the
+     * meantime.
+     *
+     * @param file		training file to count
+     */
+    private void countRows(File file) {
+        try {
+            long rows = ProgressReport.countRows(file);
+            synchronized (this) {
+                if (file.equals(this.trainFile))
+                    this.trainRows = rows;
+            }
+        } catch (IOException e) {
+            log.warn("Could not count rows in {}: {}", file, e.getMessage());
+        }
+    }
+
+    @Override
+    public void showMessage(String message) {
+        this.messages.inc();
+        this.target.showMessage(message);
+    }
+
+    @Override
+    public void showResults(String paragraph) {
+        this.results.inc();
+        this.target.showResults(paragraph);
+    }
+
+    @Override
+    public void displayEpoch(int epoch, double score, boolean saved) {
+        long now = System.nanoTime();
+        long[] last = this.lastEpoch.get();
+        // If the epoch number has not gone up, this thread has started a new model, so there is no epoch time.
+        if (epoch > last[1]) {
+            long elapsed = now - last[0];
+            this.epochTimes.observeNanos(elapsed);
+            long rows = this.trainRows;
+            if (rows > 0 && elapsed > 0)
+                this.examplesPerSecond.set(rows * (epoch - last[1]) * 1e9 / elapsed);
+        }
+        last[0] = now;
+        last[1] = epoch;
+        this.epochs.inc();
+        this.currentEpoch.set(epoch);
+        this.currentScore.set(score);
+        if (saved)
+            this.savedScore.set(score);
+        this.target.displayEpoch(epoch, score, saved);
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package org.theseed.dl4j.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This object serves the contents of a metrics registry in OpenMetrics text format over HTTP, so that a
+ * metrics scraper can watch a training job.  The server only listens on the loopback address, and answers
+ * GET and HEAD requests for "/metrics".  Requests are handled on a single daemon thread.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MetricsServer implements AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(MetricsServer.class);
+    /** HTTP server */
+    private HttpServer server;
+    /** thread for handling requests */
+    private ExecutorService handler;
+    /** registry being served */
+    private MetricsRegistry registry;
+    /** content type for the OpenMetrics text format */
+    private static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    /** path for the metrics */
+    public static final String PATH = "/metrics";
+
+    /**
+     * Start serving a metrics registry.
+     *
+     * @param registry	registry to serve
+     * @param port		port number on which to listen, or 0 to pick a free one
+     *
+     * @throws IOException
+     */
+    public MetricsServer(MetricsRegistry registry, int port) throws IOException {
+        this.registry = registry;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext(PATH, new Handler());
+        this.handler = Executors.newSingleThreadExecutor(r -> {
+            Thread retVal = new Thread(r, "metrics-server");
+            retVal.setDaemon(true);
+            return retVal;
+        });
+        this.server.setExecutor(this.handler);
+        this.server.start();
+        log.info("Serving metrics at http://localhost:{}{}.", this.getPort(), PATH);
+    }
+
+    /**
+     * @return the port on which the server is listening
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * This object answers a metrics request.
+     */
+    private class Handler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String method = exchange.getRequestMethod();
+                if (! method.equals("GET") && ! method.equals("HEAD")) {
+                    exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                    exchange.sendResponseHeaders(405, -1);
+                } else {
+                    byte[] body = registry.toOpenMetrics().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    if (method.equals("HEAD"))
+                        exchange.sendResponseHeaders(200, -1);
+                    else {
+                        exchange.sendResponseHeaders(200, body.length);
+                        try (OutputStream out = exchange.getResponseBody()) {
+                            out.write(body);
+                        }
+                    }
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.handler.shutdownNow();
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ *
+ */
+package org.theseed.dl4j.predict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.theseed.dl4j.train.IPredictError;
+import org.theseed.reports.IValidationReport;
+
+/**
+ * This is a validation report that simply remembers everything it is sent, so that it can be replayed
+ * into a real report later.  It is used to hold the output of a prediction worker until the report is
+ * ready to receive it.
+ *
+ * A buffer can be given a cancellation check, in which case each batch that arrives after the run is
+ * cancelled throws a CancellationException, so the worker stops at the next batch boundary.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class BatchBuffer implements IValidationReport {
+
+    // FIELDS
+    /** model directory from the ID column setup */
+    private File modelDir;
+    /** ID column name from the ID column setup */
+    private String idCol;
+    /** metadata column list from the ID column setup */
+    private List<String> metaList;
+    /** training set ID list from the ID column setup */
+    private Collection<String> trainList;
+    /** TRUE if the ID column setup came before the start of the report */
+    private boolean idColFirst;
+    /** TRUE if the ID column setup was received */
+    private boolean idColSetup;
+    /** metadata column names from the report start */
+    private List<String> metaCols;
+    /** label names from the report start */
+    private List<String> labels;
+    /** list of batches received */
+    private List<Batch> batches;
+    /** cancellation check, or NULL if there is none */
+    private BooleanSupplier cancelCheck;
+
+    /**
+     * This object holds a single batch of output.
+     */
+    private static class Batch {
+
+        private List<String> metaData;
+        private INDArray expected;
+        private INDArray output;
+
+        public Batch(List<String> metaData, INDArray expected, INDArray output) {
+            this.metaData = metaData;
+            this.expected = expected;
+            this.output = output;
+        }
+
+    }
+
+    /**
+     * Create an empty batch buffer.
+     */
+    public BatchBuffer() {
+        this.batches = new ArrayList<Batch>();
+        this.idColSetup = false;
+        this.idColFirst = false;
+        this.labels = null;
+        this.cancelCheck = null;
+    }
+
+    /**
+     * Specify a check for cancellation of the run.
+     *
+     * @param cancelCheck	function that returns TRUE if the run has been cancelled
+     */
+    public void setCancelCheck(BooleanSupplier cancelCheck) {
+        this.cancelCheck = cancelCheck;
+    }
+
+    /**
+     * Abort the run if it has been cancelled.
+     */
+    protected void checkCancelled() {
+        if (this.cancelCheck != null && this.cancelCheck.getAsBoolean())
+            throw new CancellationException("Prediction run cancelled.");
+    }
+
+    @Override
+    public void startReport(List<String> metaCols, List<String> labels) {
+        this.metaCols = metaCols;
+        this.labels = labels;
+    }
+
+    @Override
+    public void reportOutput(List<String> metaData, INDArray expected, INDArray output) {
+        this.checkCancelled();
+        this.batches.add(new Batch(metaData, expected, output));
+    }
+
+    @Override
+    public void finishReport(IPredictError errors) {
+        // The errors cover only this buffer's chunk, so the caller accumulates its own for the whole file.
+    }
+
+    @Override
+    public void setupIdCol(File modelDir, String idCol, List<String> metaList, Collection<String> trainList)
+            throws IOException {
+        this.modelDir = modelDir;
+        this.idCol = idCol;
+        this.metaList = metaList;
+        this.trainList = trainList;
+        this.idColSetup = true;
+        this.idColFirst = (this.labels == null);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Start a real report using the setup information in this buffer.
+     *
+     * @param reporter	report to start
+     *
+     * @throws IOException
+     */
+    public void startTarget(IValidationReport reporter) throws IOException {
+        if (this.idColSetup && this.idColFirst)
+            reporter.setupIdCol(this.modelDir, this.idCol, this.metaList, this.trainList);
+        if (this.labels != null)
+            reporter.startReport(this.metaCols, this.labels);
+        if (this.idColSetup && ! this.idColFirst)
+            reporter.setupIdCol(this.modelDir, this.idCol, this.metaList, this.trainList);
+    }
+
+    /**
+     * Send the buffered batches to a real report.  The buffer is emptied so the batches can be freed.
+     *
+     * @param reporter	report to receive the batches
+     * @param errors	error accumulator for the whole run, to receive each batch as it is sent
+     */
+    public void replayBatches(IValidationReport reporter, IPredictError errors) {
+        for (Batch batch : this.batches) {
+            reporter.reportOutput(batch.metaData, batch.expected, batch.output);
+            errors.accumulate(batch.expected, batch.output);
+        }
+        this.batches.clear();
+    }
+
+}
@@ -0,0 +1,21 @@
+/**
+ *
+ */
+package org.theseed.dl4j.predict;
+
+/**
+ * This interface describes a report that knows whether the run it belongs to has been cancelled.  A report
+ * that wraps another answers by asking the report it wraps, so a prediction engine can check for cancellation
+ * from its worker threads without having to send the report a batch.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface ICancellable {
+
+    /**
+     * @return TRUE if the run has been cancelled
+     */
+    public boolean isCancelled();
+
+}
@@ -0,0 +1,30 @@
+/**
+ *
+ */
+package org.theseed.dl4j.predict;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.theseed.reports.IValidationReport;
+
+/**
+ * This interface describes an object that can apply a model to an input file and send the predictions
+ * to a validation report.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface IPredictor {
+
+    /**
+     * Compute the predictions for an input file and send them to a report.
+     *
+     * @param reporter		validation report to receive the predictions
+     * @param inFile		input file containing the rows to predict
+     *
+     * @throws IOException
+     */
+    public void runPredictions(IValidationReport reporter, File inFile) throws IOException;
+
+}
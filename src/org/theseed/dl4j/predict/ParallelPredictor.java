@@ -0,0 +1,430 @@
+/**
+ *
+ */
+package org.theseed.dl4j.predict;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.dl4j.batch.ThreadBudget;
+import org.theseed.dl4j.metrics.LatencyHistogram;
+import org.theseed.dl4j.metrics.MetricsRegistry;
+import org.theseed.dl4j.train.IPredictError;
+import org.theseed.dl4j.train.TrainingProcessor;
+import org.theseed.reports.IConcurrentValidationReport;
+import org.theseed.reports.IValidationReport;
+
+/**
+ * This object runs predictions on an input file using multiple threads.  The input file is read once, by the
+ * calling thread, and split into in-memory chunks of rows.  Each chunk is scored by a worker thread with its own
+ * copy of the model.  The processor can only read its input from a file, so each worker spools its chunk to a
+ * single scratch file of its own, which is reused for every chunk it scores.  The scratch files are placed on a
+ * memory-backed file system when one is available.  The results of each
+ * chunk are buffered and fed to the report in the original file order, so the report sees exactly the
+ * same sequence of batches as it would from a single-threaded run.  The prediction errors are accumulated
+ * over all the chunks, so the statistics passed to the end of the report cover the whole file.
+ *
+ * If the report can accept batches from several threads at once, the workers send their batches directly to
+ * the report instead, and the ordering is not preserved.
+ *
+ * If the report can tell us the run has been cancelled (see {@link ICancellable}), the workers check between
+ * batches and the reading thread checks between chunks, so a cancelled run stops promptly.
+ *
+ * To keep memory bounded, only a limited number of chunks can be in progress at any one time.  The workers are
+ * registered with the {@link ThreadBudget} for the length of the run, so that they share the native threads
+ * instead of each claiming all of them.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ParallelPredictor implements IPredictor {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(ParallelPredictor.class);
+    /** type of model */
+    private TrainingProcessor.Type modelType;
+    /** processor initialized for the model */
+    private TrainingProcessor processor;
+    /** number of worker threads */
+    private int nThreads;
+    /** number of data rows per chunk */
+    private int chunkSize;
+    /** default number of data rows per chunk */
+    public static final int DEFAULT_CHUNK_SIZE = 10000;
+    /** default number of worker threads */
+    public static final int DEFAULT_THREADS = ThreadBudget.getDefaultWorkers();
+    /** memory-backed directory for scratch files, if the system has one */
+    private static final File SHARED_MEMORY_DIR = new File("/dev/shm");
+    /** time taken to score each chunk */
+    private static final LatencyHistogram CHUNK_TIMES = MetricsRegistry.getDefault().histogram(
+            "dl4j_prediction_chunk_seconds", "Time taken to score one chunk of a parallel prediction run.");
+
+    /**
+     * Construct a parallel predictor for a model.
+     *
+     * @param modelType		type of model
+     * @param processor		processor already initialized for predictions on the model
+     * @param nThreads		number of worker threads to use
+     */
+    public ParallelPredictor(TrainingProcessor.Type modelType, TrainingProcessor processor, int nThreads) {
+        this.modelType = modelType;
+        this.processor = processor;
+        this.nThreads = (nThreads < 1 ? 1 : nThreads);
+        this.chunkSize = DEFAULT_CHUNK_SIZE;
+    }
+
+    /**
+     * Specify the number of data rows in each chunk.
+     *
+     * @param chunkSize 	the chunk size to set
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void runPredictions(IValidationReport reporter, File inFile) throws IOException {
+        if (this.nThreads == 1) {
+            // With only one thread, there is no point in splitting the file.
+            this.processor.runPredictions(reporter, inFile);
+        } else {
+            this.runParallel(reporter, inFile);
+        }
+    }
+
+    /**
+     * Split the input file into chunks and run them on the worker threads.
+     *
+     * @param reporter		validation report to receive the predictions
+     * @param inFile		input file containing the rows to predict
+     *
+     * @throws IOException
+     */
+    private void runParallel(IValidationReport reporter, File inFile) throws IOException {
+        // Each worker will need its own processor.  The main processor is given to the first one.
+        AtomicBoolean mainUsed = new AtomicBoolean(false);
+        ThreadLocal<TrainingProcessor> workerProcessors = new ThreadLocal<TrainingProcessor>();
+        ExecutorService workers = Executors.newFixedThreadPool(this.nThreads, new WorkerFactory());
+        // Each worker also has its own scratch file.  This queue tracks them so they can be deleted.
+        ThreadLocal<File> workerFiles = new ThreadLocal<File>();
+        Queue<File> scratchFiles = new ConcurrentLinkedQueue<File>();
+        // This queue holds the chunks in progress, in file order.
+        Deque<Future<BatchBuffer>> pending = new ArrayDeque<Future<BatchBuffer>>();
+        int maxPending = this.nThreads * 2;
+        // For a concurrent report, this gate insures it is started exactly once.
+        ReportGate gate = null;
+        if (reporter instanceof IConcurrentValidationReport)
+            gate = new ReportGate(reporter);
+        // This tells the workers whether the run has been cancelled.
+        BooleanSupplier cancelCheck = () -> false;
+        if (reporter instanceof ICancellable)
+            cancelCheck = ((ICancellable) reporter)::isCancelled;
+        // This accumulates the errors for the whole file.  Each worker's own accumulator only sees its chunk.
+        IPredictError errors = this.processor.initializePredictError(this.processor.getLabels());
+        // This will be set to the buffer of the last chunk finished.
+        BatchBuffer last = null;
+        int chunkCount = 0;
+        ThreadBudget.acquire(this.nThreads);
+        try (BufferedReader reader = Files.newBufferedReader(inFile.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            String line = reader.readLine();
+            while (line != null) {
+                if (cancelCheck.getAsBoolean())
+                    throw new CancellationException("Prediction run cancelled.");
+                // Read the next chunk.
+                List<String> chunk = new ArrayList<String>(this.chunkSize);
+                for (int i = 0; i < this.chunkSize && line != null; i++) {
+                    chunk.add(line);
+                    line = reader.readLine();
+                }
+                chunkCount++;
+                pending.addLast(workers.submit(new ChunkTask(header, chunk, mainUsed, workerProcessors, workerFiles,
+                        scratchFiles, gate, errors, cancelCheck)));
+                // If we have too many chunks in progress, wait for the oldest one.
+                while (pending.size() >= maxPending)
+                    last = this.deliver(pending.removeFirst(), reporter, last, gate, errors);
+            }
+            // Deliver the remaining chunks.
+            while (! pending.isEmpty())
+                last = this.deliver(pending.removeFirst(), reporter, last, gate, errors);
+            log.info("{} chunks processed from {}.", chunkCount, inFile);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Prediction run interrupted.");
+        } finally {
+            // If we are leaving early, the workers may still be using the main processor.  We wait for them
+            // so that the next run does not share it with them.
+            workers.shutdownNow();
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ThreadBudget.release(this.nThreads);
+            for (File scratchFile : scratchFiles)
+                scratchFile.delete();
+        }
+        if (last == null) {
+            // The file had no data rows, so we run it normally to get an empty report.
+            this.processor.runPredictions(reporter, inFile);
+        } else {
+            errors.finish();
+            reporter.finishReport(errors);
+        }
+    }
+
+    /**
+     * Wait for a chunk to finish and send its output to the report.
+     *
+     * @param future		future for the chunk's buffered output
+     * @param reporter		validation report to receive the predictions
+     * @param previous		buffer for the previous chunk, or NULL if this is the first
+     * @param gate			start gate for a concurrent report, or NULL if the report is sequential
+     * @param errors		error accumulator for the whole file
+     *
+     * @return the buffer for this chunk
+     *
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    private BatchBuffer deliver(Future<BatchBuffer> future, IValidationReport reporter, BatchBuffer previous,
+            ReportGate gate, IPredictError errors) throws InterruptedException, IOException {
+        BatchBuffer retVal;
+        try {
+            retVal = future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            else if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            else if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else
+                throw new IOException("Error in prediction worker: " + cause.getMessage(), cause);
+        }
+        if (gate != null) {
+            // The batches have already gone to the report.  We only need to insure it was started, in case
+            // the chunk was empty.
+            gate.open(retVal);
+        } else {
+            // The first chunk starts the report.
+            if (previous == null)
+                retVal.startTarget(reporter);
+            retVal.replayBatches(reporter, errors);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a new scratch file for a worker, on the memory-backed file system if there is one
+     *
+     * @throws IOException
+     */
+    private static File createScratchFile() throws IOException {
+        File retVal;
+        if (SHARED_MEMORY_DIR.isDirectory() && SHARED_MEMORY_DIR.canWrite())
+            retVal = File.createTempFile("predict", ".tbl", SHARED_MEMORY_DIR);
+        else
+            retVal = File.createTempFile("predict", ".tbl");
+        retVal.deleteOnExit();
+        return retVal;
+    }
+
+    /**
+     * This task scores a single chunk of rows into a batch buffer.
+     */
+    private class ChunkTask implements Callable<BatchBuffer> {
+
+        /** header line of the input file */
+        private String header;
+        /** data lines to score */
+        private List<String> chunk;
+        /** flag for claiming the main processor */
+        private AtomicBoolean mainUsed;
+        /** processors belonging to the workers */
+        private ThreadLocal<TrainingProcessor> workerProcessors;
+        /** scratch files belonging to the workers */
+        private ThreadLocal<File> workerFiles;
+        /** list of all the scratch files created */
+        private Queue<File> scratchFiles;
+        /** start gate for a concurrent report, or NULL if the report is sequential */
+        private ReportGate gate;
+        /** error accumulator for the whole file */
+        private IPredictError errors;
+        /** cancellation check for the run */
+        private BooleanSupplier cancelCheck;
+
+        public ChunkTask(String header, List<String> chunk, AtomicBoolean mainUsed,
+                ThreadLocal<TrainingProcessor> workerProcessors, ThreadLocal<File> workerFiles,
+                Queue<File> scratchFiles, ReportGate gate, IPredictError errors, BooleanSupplier cancelCheck) {
+            this.header = header;
+            this.chunk = chunk;
+            this.mainUsed = mainUsed;
+            this.workerProcessors = workerProcessors;
+            this.workerFiles = workerFiles;
+            this.scratchFiles = scratchFiles;
+            this.gate = gate;
+            this.errors = errors;
+            this.cancelCheck = cancelCheck;
+        }
+
+        @Override
+        public BatchBuffer call() throws Exception {
+            // A chunk still in the queue when the run is cancelled is not scored.
+            if (this.cancelCheck.getAsBoolean())
+                throw new CancellationException("Prediction run cancelled.");
+            TrainingProcessor worker = this.workerProcessors.get();
+            if (worker == null) {
+                // This is a new worker thread, so we need a processor for it.
+                if (this.mainUsed.compareAndSet(false, true))
+                    worker = processor;
+                else {
+                    worker = TrainingProcessor.create(modelType);
+                    boolean ok = worker.initializeForPredictions(processor.getModelDir());
+                    if (! ok)
+                        throw new IOException("Model directory is not set up for predictions.");
+                }
+                this.workerProcessors.set(worker);
+            }
+            File scratchFile = this.workerFiles.get();
+            if (scratchFile == null) {
+                scratchFile = createScratchFile();
+                this.scratchFiles.add(scratchFile);
+                this.workerFiles.set(scratchFile);
+            }
+            // Spool the chunk to the scratch file.  The lines are released as soon as they are written.
+            try (BufferedWriter writer = Files.newBufferedWriter(scratchFile.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(this.header);
+                writer.newLine();
+                for (String line : this.chunk) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+            }
+            this.chunk = null;
+            BatchBuffer retVal = (this.gate == null ? new BatchBuffer() : new DirectBuffer(this.gate, this.errors));
+            retVal.setCancelCheck(this.cancelCheck);
+            long start = System.nanoTime();
+            worker.runPredictions(retVal, scratchFile);
+            CHUNK_TIMES.observeNanos(System.nanoTime() - start);
+            return retVal;
+        }
+
+    }
+
+    /**
+     * This object starts a concurrent report using the setup information from whichever chunk gets there first.
+     * It is only consulted once per chunk, not once per batch.
+     */
+    private static class ReportGate {
+
+        /** report to start */
+        private IValidationReport reporter;
+        /** TRUE if the report has been started */
+        private volatile boolean started;
+
+        public ReportGate(IValidationReport reporter) {
+            this.reporter = reporter;
+            this.started = false;
+        }
+
+        /**
+         * Insure the report has been started.
+         *
+         * @param source	batch buffer containing the setup information
+         *
+         * @throws IOException
+         */
+        public synchronized void open(BatchBuffer source) throws IOException {
+            if (! this.started) {
+                source.startTarget(this.reporter);
+                this.started = true;
+            }
+        }
+
+    }
+
+    /**
+     * This batch buffer sends each batch directly to a concurrent report rather than saving it.
+     */
+    private static class DirectBuffer extends BatchBuffer {
+
+        /** start gate for the report */
+        private ReportGate gate;
+        /** TRUE if this buffer has passed through the gate */
+        private boolean opened;
+        /** error accumulator for the whole file, shared by all the workers */
+        private IPredictError errors;
+
+        public DirectBuffer(ReportGate gate, IPredictError errors) {
+            super();
+            this.gate = gate;
+            this.opened = false;
+            this.errors = errors;
+        }
+
+        @Override
+        public void reportOutput(List<String> metaData, INDArray expected, INDArray output) {
+            this.checkCancelled();
+            if (! this.opened) {
+                try {
+                    this.gate.open(this);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                this.opened = true;
+            }
+            this.gate.reporter.reportOutput(metaData, expected, output);
+            synchronized (this.errors) {
+                this.errors.accumulate(expected, output);
+            }
+        }
+
+    }
+
+    /**
+     * This factory creates the worker threads.  They are daemons, so an abandoned run does not keep the
+     * application alive.
+     */
+    private static class WorkerFactory implements ThreadFactory {
+
+        private static final AtomicInteger threadNum = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread retVal = new Thread(r, "predictor-" + threadNum.getAndIncrement());
+            retVal.setDaemon(true);
+            return retVal;
+        }
+
+    }
+
+}
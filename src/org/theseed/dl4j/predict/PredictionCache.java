@@ -0,0 +1,1134 @@
+/**
+ *
+ */
+package org.theseed.dl4j.predict;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.dl4j.train.IPredictError;
+import org.theseed.dl4j.train.TrainingProcessor;
+import org.theseed.reports.IConcurrentValidationReport;
+import org.theseed.reports.IResumableValidationReport;
+import org.theseed.reports.IValidationReport;
+import org.theseed.reports.TrainedSet;
+
+/**
+ * This object keeps the predictions for an input file in a cache file in the model directory.  If the
+ * model and the input file are unchanged since the cache file was written, the predictions are replayed
+ * from the cache instead of being recomputed.
+ *
+ * The cache is keyed by the modification time and length of the saved model, and by the length of the
+ * input file scored.  When the model is retrained, the saved model changes and the old cache entries are
+ * ignored and overwritten.  There is one cache file per input file.
+ *
+ * If the input file has only grown since the cache was written, and the part already scored still has the
+ * same checksum, the cache is used incrementally.  The checksum covers every byte of the scored part, so an edit
+ * anywhere in the old rows forces a full rescore.  The old results are restored, only the new rows at the end
+ * of the file are scored, and the new predictions are appended to the cache.
+ *
+ * If the report can save its state (see {@link IResumableValidationReport}), the state of the finished report
+ * is kept in a state file next to the cache file, stamped the same way.  The old results are then restored
+ * from the state file, and only the new rows pass through the report.  Otherwise, the cached predictions are
+ * replayed into the report.  The error accumulator is saved with the state if it is serializable, and rebuilt
+ * from the cached predictions if it is not.
+ *
+ * A full run only saves its cache if the input file did not change while it was being scored, since the
+ * predictions would otherwise cover rows past the end of the stamped part of the file.
+ *
+ * The cache file contains the report setup information followed by the batches, each with its metadata
+ * strings and its expected and output values.  The values are stored compactly:  a matrix of one-hot rows,
+ * such as the expected values of a classification model, is stored as one label index per row, and a matrix
+ * whose values are all single-precision (which is what the model produces) is stored as floats.  Only a matrix
+ * that needs it is stored as doubles.  After the batches comes a fixed-size stamp describing the model and the
+ * input file, and then a trailer marker.
+ *
+ * The error accumulator the report receives at the end always covers every row.  When predictions are replayed,
+ * a new accumulator is built from the replayed batches.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class PredictionCache implements IPredictor {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(PredictionCache.class);
+    /** predictor to use when the cache is stale */
+    private IPredictor base;
+    /** processor initialized for the model */
+    private TrainingProcessor processor;
+    /** model directory */
+    private File modelDir;
+    /** name of the saved model file in the model directory */
+    public static final String MODEL_FILE_NAME = "model.ser";
+    /** magic number at the start of a cache file */
+    private static final int MAGIC = 0x444c3443;
+    /** magic number at the end of a complete cache file */
+    private static final int TRAILER = 0x454e4421;
+    /** cache file format version */
+    private static final int VERSION = 4;
+    /** matrix encoding with one label index per row */
+    private static final byte ONE_HOT = 1;
+    /** matrix encoding with single-precision values */
+    private static final byte FLOATS = 2;
+    /** matrix encoding with double-precision values */
+    private static final byte DOUBLES = 3;
+    /** buffer size for cache file I/O */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Create a prediction cache for a model.
+     *
+     * @param base			predictor to use when the cache cannot be used
+     * @param processor		processor initialized for predictions on the model
+     */
+    public PredictionCache(IPredictor base, TrainingProcessor processor) {
+        this.base = base;
+        this.processor = processor;
+        this.modelDir = processor.getModelDir();
+    }
+
+    @Override
+    public void runPredictions(IValidationReport reporter, File inFile) throws IOException {
+        File modelFile = new File(this.modelDir, MODEL_FILE_NAME);
+        if (! modelFile.exists()) {
+            // Without a saved model file, we cannot tell whether the cache is valid.
+            this.base.runPredictions(reporter, inFile);
+        } else {
+            File cacheFile = this.getCacheFile(inFile);
+            IResumableValidationReport resumable = asResumable(reporter);
+            Stamp old = readStamp(cacheFile);
+            // The current stamp also checksums the part of the input file covered by the old one.
+            Stamp current = new Stamp(modelFile, inFile, (old == null ? 0 : old.inLength));
+            if (old != null && old.isSameFile(current)) {
+                log.info("Using cached predictions in {}.", cacheFile);
+                IPredictError errors = this.restore(reporter, resumable, cacheFile, old);
+                errors.finish();
+                reporter.finishReport(errors);
+            } else if (old != null && old.isPrefixOf(current, inFile)) {
+                log.info("Using {} cached predictions and scoring {} new bytes of {}.", old.rowCount,
+                        current.inLength - old.inLength, inFile);
+                this.runIncremental(reporter, resumable, inFile, cacheFile, old, current);
+            } else {
+                log.info("Computing predictions for {}.", inFile);
+                File tempFile = new File(cacheFile.getPath() + ".tmp");
+                IPredictError errors = this.processor.initializePredictError(this.processor.getLabels());
+                CacheWriter writer = this.openWriter(new FileOutputStream(tempFile), reporter, current, 0, errors,
+                        false);
+                try {
+                    this.base.runPredictions(writer, inFile);
+                    // The cache file must be closed before it can be moved into place.
+                    writer.close();
+                    if (! writer.isComplete())
+                        log.warn("Prediction cache for {} was not completed.", inFile);
+                    else if (! current.isCurrent(inFile))
+                        log.warn("{} changed while it was being scored, so its predictions were not cached.", inFile);
+                    else {
+                        Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        this.saveState(resumable, cacheFile, writer);
+                    }
+                } finally {
+                    writer.close();
+                    tempFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Restore the old results for the cached part of an input file, then score the new part and append it to
+     * the cache.
+     *
+     * @param reporter		report to receive the predictions
+     * @param resumable		the report, if it can save its state, else NULL
+     * @param inFile		input file being scored
+     * @param cacheFile		cache file for the input file
+     * @param old			stamp from the cache file
+     * @param current		stamp for the current input file
+     *
+     * @throws IOException
+     */
+    private void runIncremental(IValidationReport reporter, IResumableValidationReport resumable, File inFile,
+            File cacheFile, Stamp old, Stamp current) throws IOException {
+        // Restore the old results in the report.  The error accumulator continues with the new ones.
+        long bodyEnd = cacheFile.length() - Stamp.SIZE - 8;
+        IPredictError errors = this.restore(reporter, resumable, cacheFile, old);
+        // Copy the new rows to a temporary file.  We only take what was there when the stamp was computed.
+        File tailFile = File.createTempFile("predict", ".tbl");
+        try {
+            writeTail(inFile, tailFile, old.inLength, current.inLength);
+            // Remove the old stamp from the cache file.  If we fail after this point, the cache file is
+            // incomplete and will be rebuilt next time.
+            try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(bodyEnd);
+            }
+            CacheWriter writer = this.openWriter(new FileOutputStream(cacheFile, true), reporter, current,
+                    old.rowCount, errors, true);
+            try {
+                this.base.runPredictions(writer, tailFile);
+            } finally {
+                writer.close();
+            }
+            if (writer.isComplete())
+                this.saveState(resumable, cacheFile, writer);
+        } finally {
+            tailFile.delete();
+        }
+    }
+
+    /**
+     * @return a cache writer for a report, which accepts concurrent output if the report does
+     *
+     * @param outStream		output stream for the cache file
+     * @param target		report to receive the predictions
+     * @param stamp			stamp for the current model and input file
+     * @param rowCount		number of rows already in the cache file
+     * @param errors		error accumulator covering the rows already in the cache file
+     * @param appending		TRUE if we are appending to an existing cache file
+     *
+     * @throws IOException
+     */
+    private CacheWriter openWriter(OutputStream outStream, IValidationReport target, Stamp stamp, long rowCount,
+            IPredictError errors, boolean appending) throws IOException {
+        CacheWriter retVal;
+        if (target instanceof IConcurrentValidationReport)
+            retVal = new ConcurrentCacheWriter(outStream, target, stamp, rowCount, errors, appending);
+        else
+            retVal = new CacheWriter(outStream, target, stamp, rowCount, errors, appending);
+        return retVal;
+    }
+
+    /**
+     * Create an input file containing the header line of an input file and the rows in a specified byte range.
+     *
+     * @param inFile		input file to copy
+     * @param tailFile		output file to create
+     * @param start			byte offset of the first row to copy
+     * @param end			byte offset past the last row to copy
+     *
+     * @throws IOException
+     */
+    private static void writeTail(File inFile, File tailFile, long start, long end) throws IOException {
+        try (InputStream inStream = new BufferedInputStream(new FileInputStream(inFile), BUFFER_SIZE);
+                OutputStream outStream = new BufferedOutputStream(new FileOutputStream(tailFile), BUFFER_SIZE)) {
+            // Copy the header line.
+            long pos = 0;
+            int c = inStream.read();
+            while (c >= 0 && c != '\n') {
+                outStream.write(c);
+                c = inStream.read();
+                pos++;
+            }
+            outStream.write('\n');
+            pos++;
+            // Skip to the new rows.
+            while (pos < start) {
+                long skipped = inStream.skip(start - pos);
+                if (skipped <= 0)
+                    throw new IOException("Input file " + inFile + " is shorter than expected.");
+                pos += skipped;
+            }
+            // Copy the new rows.
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (pos < end) {
+                int n = inStream.read(buffer, 0, (int) Math.min(buffer.length, end - pos));
+                if (n < 0)
+                    throw new IOException("Input file " + inFile + " is shorter than expected.");
+                outStream.write(buffer, 0, n);
+                pos += n;
+            }
+        }
+    }
+
+    /**
+     * @return the cache file for an input file
+     *
+     * @param inFile	input file whose predictions are to be cached
+     *
+     * @throws IOException
+     */
+    private File getCacheFile(File inFile) throws IOException {
+        String path = inFile.getCanonicalPath();
+        String name = String.format("predict.%08x.cache", path.hashCode());
+        return new File(this.modelDir, name);
+    }
+
+    /**
+     * @return the state file that goes with a cache file
+     *
+     * @param cacheFile		cache file of interest
+     */
+    private static File getStateFile(File cacheFile) {
+        String name = cacheFile.getName().replaceFirst("\\.cache$", ".state");
+        return new File(cacheFile.getParentFile(), name);
+    }
+
+    /**
+     * @return the report as a resumable report, or NULL if it cannot save its state
+     *
+     * @param reporter		report to check
+     */
+    private static IResumableValidationReport asResumable(IValidationReport reporter) {
+        IResumableValidationReport retVal = null;
+        if (reporter instanceof IResumableValidationReport) {
+            retVal = (IResumableValidationReport) reporter;
+            if (retVal.getStateType() == null)
+                retVal = null;
+        }
+        return retVal;
+    }
+
+    /**
+     * Save the state of a finished report in the state file for a cache file.  Failure here is not fatal, since
+     * the predictions can still be replayed from the cache file.
+     *
+     * @param resumable		finished report, or NULL if it cannot save its state
+     * @param cacheFile		cache file just completed
+     * @param writer		cache writer that completed the cache file
+     */
+    private void saveState(IResumableValidationReport resumable, File cacheFile, CacheWriter writer) {
+        File stateFile = getStateFile(cacheFile);
+        // Any old state is out of date now.
+        stateFile.delete();
+        if (resumable != null) {
+            File tempFile = new File(stateFile.getPath() + ".tmp");
+            try {
+                try (DataOutputStream stateWriter = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(tempFile), BUFFER_SIZE))) {
+                    stateWriter.writeInt(MAGIC);
+                    stateWriter.writeInt(VERSION);
+                    writeString(stateWriter, resumable.getStateType());
+                    writer.stamp.write(stateWriter, writer.rowCount);
+                    byte[] errorState = writer.errorState;
+                    stateWriter.writeInt(errorState == null ? -1 : errorState.length);
+                    if (errorState != null)
+                        stateWriter.write(errorState);
+                    resumable.saveState(stateWriter);
+                }
+                Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                log.warn("Error saving report state to {}: {}", stateFile, e.getMessage());
+            } finally {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Restore the results for the cached part of an input file into a report.  If the report can be resumed
+     * from a saved state, that is used; otherwise, the cached predictions are replayed.  The report is started,
+     * but it is not finished.
+     *
+     * @param reporter		report to receive the results
+     * @param resumable		the report, if it can save its state, else NULL
+     * @param cacheFile		cache file for the input file
+     * @param stamp			stamp from the cache file
+     *
+     * @return an unfinished error accumulator covering all the cached predictions
+     *
+     * @throws IOException
+     */
+    private IPredictError restore(IValidationReport reporter, IResumableValidationReport resumable, File cacheFile,
+            Stamp stamp) throws IOException {
+        IPredictError retVal = null;
+        File stateFile = getStateFile(cacheFile);
+        if (resumable != null && stateFile.exists()) {
+            try {
+                retVal = this.resume(resumable, cacheFile, stateFile, stamp);
+            } catch (IOException e) {
+                log.warn("Error restoring report state from {}: {}", stateFile, e.getMessage());
+                stateFile.delete();
+            }
+        }
+        if (retVal == null)
+            retVal = this.replay(cacheFile, reporter);
+        return retVal;
+    }
+
+    /**
+     * Restore a report from a saved state.
+     *
+     * @param resumable		report to restore
+     * @param cacheFile		cache file for the input file
+     * @param stateFile		state file for the input file
+     * @param stamp			stamp from the cache file
+     *
+     * @return an unfinished error accumulator covering all the cached predictions, or NULL if the state file
+     * 		   does not match the cache file or the report
+     *
+     * @throws IOException
+     */
+    private IPredictError resume(IResumableValidationReport resumable, File cacheFile, File stateFile,
+            Stamp stamp) throws IOException {
+        IPredictError retVal = null;
+        try (DataInputStream stateReader = openCache(stateFile)) {
+            if (stateReader.readInt() == MAGIC && stateReader.readInt() == VERSION
+                    && resumable.getStateType().equals(readString(stateReader))
+                    && stamp.isSameRun(new Stamp(stateReader))) {
+                // Get the error accumulator before we touch the report, so an error does not leave it half-built.
+                int errorLen = stateReader.readInt();
+                if (errorLen >= 0) {
+                    byte[] errorState = new byte[errorLen];
+                    stateReader.readFully(errorState);
+                    retVal = restoreErrors(errorState);
+                }
+                if (retVal == null)
+                    retVal = this.rebuildErrors(cacheFile);
+                try (DataInputStream reader = openCache(cacheFile)) {
+                    reader.readInt();
+                    reader.readInt();
+                    this.readSetup(reader, resumable);
+                }
+                resumable.loadState(stateReader);
+                log.info("Restored {} rows of report state from {}.", stamp.rowCount, stateFile);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a serialized copy of an unfinished error accumulator, or NULL if it cannot be serialized
+     *
+     * @param errors	error accumulator to save
+     */
+    private static byte[] saveErrors(IPredictError errors) {
+        byte[] retVal = null;
+        if (errors instanceof Serializable) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (ObjectOutputStream writer = new ObjectOutputStream(buffer)) {
+                writer.writeObject(errors);
+            } catch (IOException e) {
+                log.warn("Error saving prediction error statistics: {}", e.getMessage());
+                buffer = null;
+            }
+            if (buffer != null)
+                retVal = buffer.toByteArray();
+        }
+        return retVal;
+    }
+
+    /**
+     * @return an error accumulator restored from its serialized copy, or NULL if it cannot be restored
+     *
+     * @param errorState	serialized error accumulator
+     */
+    private static IPredictError restoreErrors(byte[] errorState) {
+        IPredictError retVal = null;
+        try (ObjectInputStream reader = new ObjectInputStream(new ByteArrayInputStream(errorState))) {
+            retVal = (IPredictError) reader.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.warn("Error restoring prediction error statistics: {}", e.getMessage());
+        }
+        return retVal;
+    }
+
+    /**
+     * Build an error accumulator from the predictions in a cache file, without sending them to a report.
+     *
+     * @param cacheFile		cache file to read
+     *
+     * @return an unfinished error accumulator containing all the cached predictions
+     *
+     * @throws IOException
+     */
+    private IPredictError rebuildErrors(File cacheFile) throws IOException {
+        IPredictError retVal;
+        try (DataInputStream reader = openCache(cacheFile)) {
+            reader.readInt();
+            reader.readInt();
+            List<String> labels = this.readSetup(reader, null);
+            retVal = this.processor.initializePredictError(labels);
+            for (int n = reader.readInt(); n >= 0; n = reader.readInt()) {
+                for (int r = 0; r < n; r++)
+                    readString(reader);
+                INDArray expected = readMatrix(reader, n);
+                INDArray output = readMatrix(reader, n);
+                retVal.accumulate(expected, output);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the stamp from a complete cache file, or NULL if the file is missing or incomplete
+     *
+     * @param cacheFile		cache file to check
+     */
+    private static Stamp readStamp(File cacheFile) {
+        Stamp retVal = null;
+        long len = cacheFile.length();
+        if (len > Stamp.SIZE + 12) {
+            try (RandomAccessFile checker = new RandomAccessFile(cacheFile, "r")) {
+                checker.seek(len - Stamp.SIZE - 4);
+                Stamp stamp = new Stamp(checker);
+                if (checker.readInt() == TRAILER) {
+                    checker.seek(0);
+                    if (checker.readInt() == MAGIC && checker.readInt() == VERSION)
+                        retVal = stamp;
+                }
+            } catch (IOException e) {
+                log.warn("Error checking prediction cache {}: {}", cacheFile, e.getMessage());
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return an input stream for reading a cache file
+     *
+     * @param cacheFile		cache file to open
+     *
+     * @throws IOException
+     */
+    private static DataInputStream openCache(File cacheFile) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), BUFFER_SIZE));
+    }
+
+    /**
+     * Replay the predictions in a cache file into a report.  The report is started and sent all the batches,
+     * but it is not finished.
+     *
+     * @param cacheFile		cache file to read
+     * @param reporter		report to receive the predictions
+     *
+     * @return an unfinished error accumulator containing all the replayed predictions
+     *
+     * @throws IOException
+     */
+    private IPredictError replay(File cacheFile, IValidationReport reporter) throws IOException {
+        IPredictError retVal;
+        try (DataInputStream reader = openCache(cacheFile)) {
+            // Skip the header.
+            reader.readInt();
+            reader.readInt();
+            List<String> labels = this.readSetup(reader, reporter);
+            retVal = this.processor.initializePredictError(labels);
+            // Read the batches.
+            for (int n = reader.readInt(); n >= 0; n = reader.readInt()) {
+                List<String> metaData = new ArrayList<String>(n);
+                for (int r = 0; r < n; r++)
+                    metaData.add(readString(reader));
+                INDArray expected = readMatrix(reader, n);
+                INDArray output = readMatrix(reader, n);
+                reporter.reportOutput(metaData, expected, output);
+                retVal.accumulate(expected, output);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Read the setup information from a cache file and use it to start a report.
+     *
+     * @param reader		input stream for the cache file, positioned after the header
+     * @param reporter		report to start, or NULL if the setup is only being skipped
+     *
+     * @return the list of labels
+     *
+     * @throws IOException
+     */
+    private List<String> readSetup(DataInputStream reader, IValidationReport reporter) throws IOException {
+        boolean idColFirst = reader.readBoolean();
+        String idCol = readString(reader);
+        List<String> metaList = readList(reader);
+        List<String> trainList = readList(reader);
+        List<String> metaCols = readList(reader);
+        List<String> retVal = readList(reader);
+        if (reporter != null) {
+            if (idColFirst)
+                reporter.setupIdCol(this.modelDir, idCol, metaList, trainList);
+            reporter.startReport(metaCols, retVal);
+            if (! idColFirst)
+                reporter.setupIdCol(this.modelDir, idCol, metaList, trainList);
+        }
+        return retVal;
+    }
+
+    /**
+     * This object describes the model and the input file for a cache file.  It is stored at the end of the
+     * cache file with a fixed size, so it can be checked without reading the whole file, and replaced when
+     * new predictions are appended.
+     */
+    private static class Stamp {
+
+        /** modification time of the model file */
+        private long modelTime;
+        /** length of the model file */
+        private long modelLength;
+        /** fingerprint of the canonical path of the input file */
+        private long inPath;
+        /** modification time of the input file */
+        private long inTime;
+        /** number of bytes of the input file scored */
+        private long inLength;
+        /** number of rows of the input file scored */
+        private long rowCount;
+        /** CRC of the scored part of the input file */
+        private long checksum;
+        /** CRC of the part of the input file scored for an older stamp (not saved) */
+        private long prefixChecksum;
+        /** number of bytes in a stamp */
+        public static final int SIZE = 7 * 8;
+
+        /**
+         * Compute the stamp for a model and an input file.  The row count is left at 0.  The whole input file
+         * is read once to compute the checksum, and along the way the checksum of a prefix of it is saved for
+         * comparison with an older stamp.
+         *
+         * @param modelFile		saved model file
+         * @param inFile		input file
+         * @param prefixLength	length of the prefix to checksum separately
+         *
+         * @throws IOException
+         */
+        public Stamp(File modelFile, File inFile, long prefixLength) throws IOException {
+            this.modelTime = modelFile.lastModified();
+            this.modelLength = modelFile.length();
+            this.inPath = TrainedSet.fingerprint(inFile.getCanonicalPath());
+            this.inTime = inFile.lastModified();
+            this.inLength = inFile.length();
+            this.rowCount = 0;
+            this.computeChecksums(inFile, prefixLength);
+        }
+
+        /**
+         * Read a stamp from a cache file or a state file.
+         *
+         * @param reader	input file, positioned at the stamp
+         *
+         * @throws IOException
+         */
+        public Stamp(DataInput reader) throws IOException {
+            this.modelTime = reader.readLong();
+            this.modelLength = reader.readLong();
+            this.inPath = reader.readLong();
+            this.inTime = reader.readLong();
+            this.inLength = reader.readLong();
+            this.rowCount = reader.readLong();
+            this.checksum = reader.readLong();
+            this.prefixChecksum = 0;
+        }
+
+        /**
+         * Write this stamp to a cache file.
+         *
+         * @param writer	output stream for the cache file
+         * @param rowCount	number of rows scored
+         *
+         * @throws IOException
+         */
+        public void write(DataOutputStream writer, long rowCount) throws IOException {
+            writer.writeLong(this.modelTime);
+            writer.writeLong(this.modelLength);
+            writer.writeLong(this.inPath);
+            writer.writeLong(this.inTime);
+            writer.writeLong(this.inLength);
+            writer.writeLong(rowCount);
+            writer.writeLong(this.checksum);
+        }
+
+        /**
+         * @return TRUE if the other stamp has the same model and input path as this one
+         *
+         * @param other		other stamp to compare
+         */
+        private boolean isSameModel(Stamp other) {
+            return this.modelTime == other.modelTime && this.modelLength == other.modelLength
+                    && this.inPath == other.inPath;
+        }
+
+        /**
+         * @return TRUE if the other stamp describes exactly the same model and input file as this one
+         *
+         * @param other		other stamp to compare
+         */
+        public boolean isSameFile(Stamp other) {
+            return this.isSameModel(other) && this.inTime == other.inTime && this.inLength == other.inLength
+                    && this.checksum == other.checksum;
+        }
+
+        /**
+         * @return TRUE if the other stamp describes exactly the same model, input file, and rows scored as this one
+         *
+         * @param other		other stamp to compare
+         */
+        public boolean isSameRun(Stamp other) {
+            return this.isSameFile(other) && this.rowCount == other.rowCount;
+        }
+
+        /**
+         * @return TRUE if the input file still has the length and modification time recorded in this stamp
+         *
+         * @param inFile	input file described by this stamp
+         */
+        public boolean isCurrent(File inFile) {
+            return inFile.length() == this.inLength && inFile.lastModified() == this.inTime;
+        }
+
+        /**
+         * @return TRUE if the other stamp describes the same model and an input file that has had rows
+         * 		   appended to the file described by this one
+         *
+         * @param other		other stamp to compare, computed with this stamp's length as the prefix length
+         * @param inFile	input file described by the other stamp
+         *
+         * @throws IOException
+         */
+        public boolean isPrefixOf(Stamp other, File inFile) throws IOException {
+            boolean retVal = false;
+            if (this.isSameModel(other) && this.inLength > 0 && other.inLength > this.inLength
+                    && other.prefixChecksum == this.checksum) {
+                // The old part of the file must end on a line boundary.
+                try (RandomAccessFile reader = new RandomAccessFile(inFile, "r")) {
+                    reader.seek(this.inLength - 1);
+                    retVal = (reader.read() == '\n');
+                }
+            }
+            return retVal;
+        }
+
+        /**
+         * Compute the checksum of the input file and of a prefix of it.
+         *
+         * @param inFile		file to check
+         * @param prefixLength	number of bytes at the start of the file to checksum separately
+         *
+         * @throws IOException
+         */
+        private void computeChecksums(File inFile, long prefixLength) throws IOException {
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            this.prefixChecksum = crc.getValue();
+            try (InputStream reader = new FileInputStream(inFile)) {
+                long pos = 0;
+                while (pos < this.inLength) {
+                    // Stop each read at the prefix boundary, so we can save the checksum there.
+                    long limit = (pos < prefixLength ? prefixLength : this.inLength);
+                    int n = reader.read(buffer, 0, (int) Math.min(buffer.length, limit - pos));
+                    if (n < 0)
+                        throw new IOException("Input file " + inFile + " is shorter than expected.");
+                    crc.update(buffer, 0, n);
+                    pos += n;
+                    if (pos == prefixLength)
+                        this.prefixChecksum = crc.getValue();
+                }
+            }
+            this.checksum = crc.getValue();
+        }
+
+    }
+
+    /**
+     * This report writes everything it receives to a cache file and passes it on to the real report.
+     *
+     * When it is appending to an existing cache file, the real report has already been started from the
+     * cache, so the setup calls are neither passed on nor written.
+     *
+     * The writer keeps its own error accumulator, which may already contain the rows in the cache file.  It
+     * is this accumulator, rather than the one from the predictor, that is passed to the real report at the end.
+     *
+     * Only the write to the cache file is serialized, so if the real report accepts concurrent output (see
+     * {@link ConcurrentCacheWriter}), the batches are still passed on to it from all the threads at once.
+     */
+    private class CacheWriter implements IValidationReport, ICancellable {
+
+        /** output stream for the cache file */
+        private DataOutputStream writer;
+        /** report to receive the predictions */
+        private IValidationReport target;
+        /** stamp for the model and input file */
+        private Stamp stamp;
+        /** number of rows written */
+        private long rowCount;
+        /** error accumulator for all the rows in the cache file */
+        private IPredictError errors;
+        /** serialized copy of the unfinished error accumulator, or NULL if it could not be saved */
+        private byte[] errorState;
+        /** TRUE if we are appending to an existing cache file */
+        private boolean appending;
+        /** ID column setup parameters */
+        private String idCol;
+        private List<String> metaList;
+        private Collection<String> trainList;
+        /** TRUE if the ID column setup came before the start of the report */
+        private boolean idColFirst;
+        /** report start parameters */
+        private List<String> metaCols;
+        private List<String> labels;
+        /** TRUE if the setup information has been written */
+        private boolean setupWritten;
+        /** TRUE if the report finished */
+        private boolean complete;
+
+        /**
+         * Open a cache file for output.
+         *
+         * @param outStream		output stream for the cache file
+         * @param target		report to receive the predictions
+         * @param stamp			stamp for the current model and input file
+         * @param rowCount		number of rows already in the cache file
+         * @param errors		error accumulator covering the rows already in the cache file
+         * @param appending		TRUE if we are appending to an existing cache file
+         *
+         * @throws IOException
+         */
+        public CacheWriter(OutputStream outStream, IValidationReport target, Stamp stamp, long rowCount,
+                IPredictError errors, boolean appending) throws IOException {
+            this.target = target;
+            this.stamp = stamp;
+            this.rowCount = rowCount;
+            this.errors = errors;
+            this.appending = appending;
+            this.writer = new DataOutputStream(new BufferedOutputStream(outStream, BUFFER_SIZE));
+            if (! this.appending) {
+                this.writer.writeInt(MAGIC);
+                this.writer.writeInt(VERSION);
+            }
+            this.labels = null;
+            this.idColFirst = false;
+            this.setupWritten = this.appending;
+            this.complete = false;
+        }
+
+        @Override
+        public void startReport(List<String> metaCols, List<String> labels) {
+            if (! this.appending) {
+                this.metaCols = metaCols;
+                this.labels = labels;
+                this.target.startReport(metaCols, labels);
+            }
+        }
+
+        @Override
+        public void setupIdCol(File modelDir, String idCol, List<String> metaList, Collection<String> trainList)
+                throws IOException {
+            if (! this.appending) {
+                this.idCol = idCol;
+                this.metaList = metaList;
+                this.trainList = trainList;
+                this.idColFirst = (this.labels == null);
+                this.target.setupIdCol(modelDir, idCol, metaList, trainList);
+            }
+        }
+
+        @Override
+        public void reportOutput(List<String> metaData, INDArray expected, INDArray output) {
+            int n = metaData.size();
+            if (n > 0) try {
+                this.writeBatch(metaData, expected, output);
+            } catch (IOException e) {
+                throw new RuntimeException("Error writing prediction cache: " + e.getMessage(), e);
+            }
+            this.target.reportOutput(metaData, expected, output);
+        }
+
+        /**
+         * Append a batch to the cache file.
+         *
+         * @param metaData	metadata strings for the batch
+         * @param expected	expected values for the batch
+         * @param output	predicted values for the batch
+         *
+         * @throws IOException
+         */
+        private synchronized void writeBatch(List<String> metaData, INDArray expected, INDArray output)
+                throws IOException {
+            if (! this.setupWritten)
+                this.writeSetup();
+            this.writer.writeInt(metaData.size());
+            for (String meta : metaData)
+                writeString(this.writer, meta);
+            writeMatrix(this.writer, expected);
+            writeMatrix(this.writer, output);
+            this.errors.accumulate(expected, output);
+            this.rowCount += metaData.size();
+        }
+
+        /**
+         * Write the setup information to the cache file.
+         *
+         * @throws IOException
+         */
+        private void writeSetup() throws IOException {
+            this.writer.writeBoolean(this.idColFirst);
+            writeString(this.writer, this.idCol);
+            writeList(this.writer, this.metaList);
+            writeList(this.writer, this.trainList);
+            writeList(this.writer, this.metaCols);
+            writeList(this.writer, this.labels);
+            this.setupWritten = true;
+        }
+
+        @Override
+        public synchronized void finishReport(IPredictError errors) {
+            try {
+                if (! this.setupWritten)
+                    this.writeSetup();
+                this.writer.writeInt(-1);
+                this.stamp.write(this.writer, this.rowCount);
+                this.writer.writeInt(TRAILER);
+                this.complete = true;
+            } catch (IOException e) {
+                throw new RuntimeException("Error writing prediction cache: " + e.getMessage(), e);
+            }
+            this.errorState = saveErrors(this.errors);
+            this.errors.finish();
+            this.target.finishReport(this.errors);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return (this.target instanceof ICancellable && ((ICancellable) this.target).isCancelled());
+        }
+
+        /**
+         * @return TRUE if the report finished and the cache file is complete
+         */
+        public boolean isComplete() {
+            return this.complete;
+        }
+
+        @Override
+        public void close() {
+            if (this.writer != null) {
+                try {
+                    this.writer.close();
+                } catch (IOException e) {
+                    log.warn("Error closing prediction cache: {}", e.getMessage());
+                    this.complete = false;
+                }
+                this.writer = null;
+            }
+        }
+
+    }
+
+    /**
+     * This is the version of the cache writer used for concurrent reports.
+     */
+    private class ConcurrentCacheWriter extends CacheWriter implements IConcurrentValidationReport {
+
+        public ConcurrentCacheWriter(OutputStream outStream, IValidationReport target, Stamp stamp, long rowCount,
+                IPredictError errors, boolean appending) throws IOException {
+            super(outStream, target, stamp, rowCount, errors, appending);
+        }
+
+    }
+
+    /**
+     * Write a possibly-null string to a cache file.
+     *
+     * @param writer	output stream for the cache file
+     * @param string	string to write
+     *
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream writer, String string) throws IOException {
+        if (string == null)
+            writer.writeInt(-1);
+        else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writer.writeInt(bytes.length);
+            writer.write(bytes);
+        }
+    }
+
+    /**
+     * @return a possibly-null string read from a cache file
+     *
+     * @param reader	input stream for the cache file
+     *
+     * @throws IOException
+     */
+    private static String readString(DataInputStream reader) throws IOException {
+        String retVal = null;
+        int len = reader.readInt();
+        if (len >= 0) {
+            byte[] bytes = new byte[len];
+            reader.readFully(bytes);
+            retVal = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return retVal;
+    }
+
+    /**
+     * Write a possibly-null string collection to a cache file.
+     *
+     * @param writer	output stream for the cache file
+     * @param list		collection to write
+     *
+     * @throws IOException
+     */
+    private static void writeList(DataOutputStream writer, Collection<String> list) throws IOException {
+        if (list == null)
+            writer.writeInt(-1);
+        else {
+            writer.writeInt(list.size());
+            for (String string : list)
+                writeString(writer, string);
+        }
+    }
+
+    /**
+     * @return a possibly-null string list read from a cache file
+     *
+     * @param reader	input stream for the cache file
+     *
+     * @throws IOException
+     */
+    private static List<String> readList(DataInputStream reader) throws IOException {
+        List<String> retVal = null;
+        int len = reader.readInt();
+        if (len >= 0) {
+            retVal = new ArrayList<String>(len);
+            for (int i = 0; i < len; i++)
+                retVal.add(readString(reader));
+        }
+        return retVal;
+    }
+
+    /**
+     * Write a batch matrix to a cache file in the most compact encoding that holds its values exactly.
+     *
+     * @param writer	output stream for the cache file
+     * @param matrix	matrix to write
+     *
+     * @throws IOException
+     */
+    private static void writeMatrix(DataOutputStream writer, INDArray matrix) throws IOException {
+        double[][] values = matrix.toDoubleMatrix();
+        int width = (values.length == 0 ? 0 : values[0].length);
+        int[] hot = oneHotIndices(values);
+        if (hot != null) {
+            writer.writeByte(ONE_HOT);
+            writer.writeInt(width);
+            for (int idx : hot)
+                writer.writeInt(idx);
+        } else if (isSinglePrecision(values)) {
+            writer.writeByte(FLOATS);
+            writer.writeInt(width);
+            for (double[] row : values) {
+                for (double value : row)
+                    writer.writeFloat((float) value);
+            }
+        } else {
+            writer.writeByte(DOUBLES);
+            writer.writeInt(width);
+            for (double[] row : values) {
+                for (double value : row)
+                    writer.writeDouble(value);
+            }
+        }
+    }
+
+    /**
+     * @return the index of the 1 in each row of a matrix, or NULL if any row is not all zeroes and a single 1
+     *
+     * @param values	matrix values to check
+     */
+    private static int[] oneHotIndices(double[][] values) {
+        int[] retVal = new int[values.length];
+        for (int r = 0; r < values.length && retVal != null; r++) {
+            double[] row = values[r];
+            int idx = -1;
+            for (int j = 0; j < row.length && retVal != null; j++) {
+                if (row[j] == 1.0 && idx < 0)
+                    idx = j;
+                else if (row[j] != 0.0)
+                    retVal = null;
+            }
+            if (idx < 0)
+                retVal = null;
+            else if (retVal != null)
+                retVal[r] = idx;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if every value in a matrix can be stored as a float without loss
+     *
+     * @param values	matrix values to check
+     */
+    private static boolean isSinglePrecision(double[][] values) {
+        boolean retVal = true;
+        for (int r = 0; r < values.length && retVal; r++) {
+            for (double value : values[r]) {
+                if ((double) (float) value != value && ! Double.isNaN(value))
+                    retVal = false;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return a batch matrix read from a cache file
+     *
+     * @param reader	input stream for the cache file
+     * @param n			number of rows in the batch
+     *
+     * @throws IOException
+     */
+    private static INDArray readMatrix(DataInputStream reader, int n) throws IOException {
+        INDArray retVal;
+        byte encoding = reader.readByte();
+        int width = reader.readInt();
+        switch (encoding) {
+        case ONE_HOT :
+            float[][] hot = new float[n][width];
+            for (float[] row : hot)
+                row[reader.readInt()] = 1.0f;
+            retVal = Nd4j.create(hot);
+            break;
+        case FLOATS :
+            float[][] floats = new float[n][width];
+            for (float[] row : floats) {
+                for (int j = 0; j < width; j++)
+                    row[j] = reader.readFloat();
+            }
+            retVal = Nd4j.create(floats);
+            break;
+        case DOUBLES :
+            double[][] doubles = new double[n][width];
+            for (double[] row : doubles) {
+                for (int j = 0; j < width; j++)
+                    row[j] = reader.readDouble();
+            }
+            retVal = Nd4j.create(doubles);
+            break;
+        default :
+            throw new IOException("Invalid matrix encoding " + encoding + " in prediction cache.");
+        }
+        return retVal;
+    }
+
+}
@@ -0,0 +1,214 @@
+/**
+ *
+ */
+package org.theseed.dl4j.predict;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.theseed.dl4j.metrics.Counter;
+import org.theseed.dl4j.metrics.MetricsRegistry;
+import org.theseed.dl4j.train.IPredictError;
+import org.theseed.reports.IConcurrentValidationReport;
+import org.theseed.reports.IResumableValidationReport;
+import org.theseed.reports.IValidationReport;
+
+/**
+ * This report passes everything through to a real report while counting the rows scored, so that another
+ * thread can monitor the progress of a prediction run.  The run can also be cancelled from another thread.
+ * When it is, the next batch to arrive throws a CancellationException, so the run stops at a batch boundary.
+ *
+ * Use the "wrap" method to create one of these, so that a report able to accept batches from several threads
+ * at once keeps that ability.
+ *
+ * If the target report can save and restore its state, so can the progress report.  Rows covered by a restored
+ * state count as reported, but not as scored.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ProgressReport implements IResumableValidationReport, ICancellable {
+
+    // FIELDS
+    /** report to receive the predictions */
+    private IValidationReport target;
+    /** number of rows reported so far */
+    private AtomicLong rowCount;
+    /** TRUE if the run has been cancelled */
+    private volatile boolean cancelled;
+    /** number of rows expected in the run, or 0 if not known yet */
+    private volatile long expectedRows;
+    /** count of rows scored by all runs */
+    private static final Counter ROWS_SCORED = MetricsRegistry.getDefault().counter("dl4j_prediction_rows",
+            "Number of rows scored by prediction runs.");
+    /** buffer size for counting rows */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * This is the version of the progress report used for concurrent reports.
+     */
+    private static class Concurrent extends ProgressReport implements IConcurrentValidationReport {
+
+        public Concurrent(IValidationReport target) {
+            super(target);
+        }
+
+    }
+
+    /**
+     * Create a progress report for a target report.
+     *
+     * @param target	report to receive the predictions
+     */
+    protected ProgressReport(IValidationReport target) {
+        this.target = target;
+        this.rowCount = new AtomicLong(0);
+        this.cancelled = false;
+        this.expectedRows = 0;
+    }
+
+    /**
+     * @return a progress report that passes its output to the specified report
+     *
+     * @param target	report to receive the predictions
+     */
+    public static ProgressReport wrap(IValidationReport target) {
+        ProgressReport retVal;
+        if (target instanceof IConcurrentValidationReport)
+            retVal = new Concurrent(target);
+        else
+            retVal = new ProgressReport(target);
+        return retVal;
+    }
+
+    @Override
+    public void startReport(List<String> metaCols, List<String> labels) {
+        this.checkCancelled();
+        this.target.startReport(metaCols, labels);
+    }
+
+    @Override
+    public void setupIdCol(File modelDir, String idCol, List<String> metaList, Collection<String> trainList)
+            throws IOException {
+        this.target.setupIdCol(modelDir, idCol, metaList, trainList);
+    }
+
+    @Override
+    public void reportOutput(List<String> metaData, INDArray expected, INDArray output) {
+        this.checkCancelled();
+        this.target.reportOutput(metaData, expected, output);
+        this.rowCount.addAndGet(metaData.size());
+        ROWS_SCORED.add(metaData.size());
+    }
+
+    @Override
+    public void finishReport(IPredictError errors) {
+        this.checkCancelled();
+        this.target.finishReport(errors);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String getStateType() {
+        String retVal = null;
+        if (this.target instanceof IResumableValidationReport)
+            retVal = ((IResumableValidationReport) this.target).getStateType();
+        return retVal;
+    }
+
+    @Override
+    public void saveState(DataOutputStream writer) throws IOException {
+        ((IResumableValidationReport) this.target).saveState(writer);
+    }
+
+    @Override
+    public long loadState(DataInputStream reader) throws IOException {
+        this.checkCancelled();
+        long retVal = ((IResumableValidationReport) this.target).loadState(reader);
+        this.rowCount.addAndGet(retVal);
+        return retVal;
+    }
+
+    /**
+     * Abort the run if it has been cancelled.
+     */
+    private void checkCancelled() {
+        if (this.cancelled)
+            throw new CancellationException("Prediction run cancelled.");
+    }
+
+    /**
+     * Ask the run to stop at the next batch.
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * @return the number of rows reported so far
+     */
+    public long getRowCount() {
+        return this.rowCount.get();
+    }
+
+    /**
+     * @return the number of rows expected in the run, or 0 if not known yet
+     */
+    public long getExpectedRows() {
+        return this.expectedRows;
+    }
+
+    /**
+     * Specify the number of rows expected in the run.  This can be called from any thread.
+     *
+     * @param expectedRows	the number of rows expected
+     */
+    public void setExpectedRows(long expectedRows) {
+        this.expectedRows = expectedRows;
+    }
+
+    /**
+     * @return the number of data rows in a file, not counting the header
+     *
+     * @param inFile	file to count
+     *
+     * @throws IOException
+     */
+    public static long countRows(File inFile) throws IOException {
+        long retVal = 0;
+        byte last = '\n';
+        try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    last = buffer.get();
+                    if (last == '\n') retVal++;
+                }
+                buffer.clear();
+            }
+        }
+        // Count an unterminated last line and discount the header.
+        if (last != '\n') retVal++;
+        return Math.max(0, retVal - 1);
+    }
+
+}
@@ -5,10 +5,13 @@ package org.theseed.dl4j.win;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.theseed.dl4j.batch.ThreadBudget;
 import org.theseed.utils.ICommand;
 
 /**
- * This object maintains a thread to run a command in the background.
+ * This object maintains a thread to run a command in the background.  While the command runs, it holds a share
+ * of the native thread budget (see {@link ThreadBudget}), so that it and the job queue workers do not
+ * oversubscribe the cores.
  *
  * @author Bruce Parrello
  *
@@ -36,11 +39,14 @@ public class Background extends Thread {
 
     @Override
     public void run() {
+        ThreadBudget.acquire(1);
         try {
             // Run the command.
             processor.run();
         } catch (Exception e) {
             log.error("Error running command.", e);
+        } finally {
+            ThreadBudget.release(1);
         }
         // Denote the command is done.
         parent.reportCommandEnded();
@@ -12,21 +12,28 @@ import org.eclipse.swt.widgets.TableColumn;
 import org.eclipse.swt.widgets.TableItem;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Text;
+import org.theseed.dl4j.predict.IPredictor;
+import org.theseed.dl4j.predict.ParallelPredictor;
+import org.theseed.dl4j.predict.PredictionCache;
 import org.theseed.dl4j.train.ClassTrainingProcessor;
+import org.theseed.dl4j.train.TrainingProcessor;
+import org.theseed.reports.ClassMetrics;
 import org.theseed.reports.ClassValidationConfusion;
+import org.theseed.reports.SparseConfusion;
 import org.theseed.win.ShellUtils;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.widgets.Button;
@@ -55,6 +62,8 @@ public class ConfusionDisplay extends Dialog {
     private File trainFile;
     /** processor to run */
     private ClassTrainingProcessor processor;
+    /** prediction engine */
+    private IPredictor predictor;
     /** confusion matrix table controls */
     private Table[] tblMatrix;
     /** reporting object for computing matrices */
@@ -63,12 +72,54 @@ public class ConfusionDisplay extends Dialog {
     private int nLabels;
     /** labels in this model */
     private List<String> labels;
-    /** list of table columns */
-    private List<TableColumn> columns;
-    /** array of tab display composites */
+    /** array of tab display composites; each is NULL until its tab is first shown */
     private Composite[] tabHolders;
+    /** array of matrix tab items */
+    private TabItem[] matrixTabs;
+    /** TRUE for each matrix table whose rows and column widths reflect the current report */
+    private boolean[] tableCurrent;
+    /** index of the first label shown in the columns of each matrix table */
+    private int[] columnStart;
+    /** display of the range of label columns shown in each matrix table */
+    private Label[] lblColumnRange;
+    /** buttons to page the label columns of each matrix table left */
+    private Button[] btnPrevColumns;
+    /** buttons to page the label columns of each matrix table right */
+    private Button[] btnNextColumns;
+    /** number of label columns shown at one time in a matrix table */
+    private int pageWidth;
+    /** TRUE if the report has been computed */
+    private boolean computed;
+    /** display width of each label, or NULL if it has not been measured yet */
+    private int[] labelWidths;
+    /** task to refresh the visible table after a resize */
+    private Runnable resizeTask;
     /** main tab folder */
     private TabFolder tabFolder;
+    /** button to select the training file */
+    private Button btnSelectFile;
+    /** button to compute the matrices */
+    private Button btnCompute;
+    /** button to export predictions */
+    private Button btnExport;
+    /** prediction progress display */
+    private PredictionPanel predictionPanel;
+    /** selector for the data set summarized */
+    private Combo cmbSummaryType;
+    /** per-class metrics table */
+    private Table tblSummary;
+    /** display of the summary metrics */
+    private Label lblAverages;
+    /** metrics for the data set summarized, or NULL if they have not been computed */
+    private ClassMetrics summaryMetrics;
+    /** class indices in the order displayed in the summary table */
+    private Integer[] summaryOrder;
+    /** selector for the data set shown in the heat map */
+    private Combo cmbHeatmapType;
+    /** heat map display of the matrix */
+    private ConfusionHeatmap heatmap;
+    /** headings for the summary table */
+    private static final String[] SUMMARY_HEADINGS = new String[] { "Label", "Support", "Precision", "Recall", "F1" };
     /** color for heading rows and columns */
     private static final Color HEADER_COLOR = SWTResourceManager.getColor(192, 192, 192);
     /** color for total rows and columns */
@@ -79,6 +130,13 @@ public class ConfusionDisplay extends Dialog {
     private static final int TEST_MATRIX = 0;
     private static final int TRAIN_MATRIX = 1;
     private static final int ALL_MATRIX = 2;
+    private static final int SUMMARY_TAB = 3;
+    /** delay after the last resize event before the visible table is refreshed, in milliseconds */
+    private static final int RESIZE_DELAY = 200;
+    /** extra width added to each matrix column for the cell margins */
+    private static final int CELL_PADDING = 16;
+    /** maximum number of label columns shown at one time in a matrix table */
+    private static final int COLUMN_PAGE = 50;
 
     /**
      * Create the dialog.
@@ -90,13 +148,16 @@ public class ConfusionDisplay extends Dialog {
     public ConfusionDisplay(Shell parent, int style, ClassTrainingProcessor processor) {
         super(parent, style);
         this.processor = processor;
+        IPredictor engine = new ParallelPredictor(TrainingProcessor.Type.CLASS, processor, ParallelPredictor.DEFAULT_THREADS);
+        this.predictor = new PredictionCache(engine, processor);
         setText("Confusion Matrix for " + processor.getModelDir().getName());
         this.trainFile = new File(processor.getModelDir(), "training.tbl");
         this.reporter = new ClassValidationConfusion();
         // Get the labels.
         this.labels = processor.getLabels();
         this.nLabels = labels.size();
-
+        this.pageWidth = Math.min(nLabels, COLUMN_PAGE);
+        this.computed = false;
     }
 
     /**
@@ -134,7 +195,7 @@ public class ConfusionDisplay extends Dialog {
         shell.setImage(SWTResourceManager.getImage(ConfusionDisplay.class, "/org/theseed/images/fig-gear.ico"));
         ShellUtils.persistLocation(shell, this, 600, 450);
         shell.setText(getText());
-        shell.setLayout(new GridLayout(4, false));
+        shell.setLayout(new GridLayout(5, false));
         Label lblTrainingFile = new Label(shell, SWT.NONE);
         lblTrainingFile.setLayoutData(new GridData(SWT.RIGHT, SWT.CENTER, false, false, 1, 1));
         lblTrainingFile.setText("Training File");
@@ -145,7 +206,7 @@ public class ConfusionDisplay extends Dialog {
         gd_txtTrainingFile.widthHint = 150;
         txtTrainingFile.setLayoutData(gd_txtTrainingFile);
 
-        Button btnSelectFile = new Button(shell, SWT.NONE);
+        btnSelectFile = new Button(shell, SWT.NONE);
         btnSelectFile.setText("...");
         btnSelectFile.addSelectionListener(new SelectionAdapter() {
             @Override
@@ -154,7 +215,7 @@ public class ConfusionDisplay extends Dialog {
             }
         });
 
-        Button btnCompute = new Button(shell, SWT.NONE);
+        btnCompute = new Button(shell, SWT.NONE);
         btnCompute.addSelectionListener(new SelectionAdapter() {
             @Override
             public void widgetSelected(SelectionEvent e) {
@@ -164,131 +225,460 @@ public class ConfusionDisplay extends Dialog {
         btnCompute.setLayoutData(new GridData(SWT.RIGHT, SWT.CENTER, false, false, 1, 1));
         btnCompute.setText("Compute");
 
+        btnExport = new Button(shell, SWT.NONE);
+        btnExport.setText("Export...");
+        btnExport.setToolTipText("Save the predictions for the training file to a tab-delimited or binary file");
+        btnExport.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                exportPredictions();
+            }
+        });
+
         CLabel lblNewLabel = new CLabel(shell, SWT.NONE);
-        GridData gd_lblNewLabel = new GridData(SWT.CENTER, SWT.BOTTOM, false, false, 4, 1);
+        GridData gd_lblNewLabel = new GridData(SWT.CENTER, SWT.BOTTOM, false, false, 5, 1);
         gd_lblNewLabel.heightHint = 30;
         lblNewLabel.setLayoutData(gd_lblNewLabel);
         lblNewLabel.setText("Matrix shows actual value (columns) vs. predicted value (rows)");
 
         tabFolder = new TabFolder(shell, SWT.NONE);
-        tabFolder.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 4, 1));
-
-        TabItem tbtmTesting = new TabItem(tabFolder, SWT.NONE);
-        tbtmTesting.setText("Testing");
-
-        TabItem tbtmTraining = new TabItem(tabFolder, SWT.NONE);
-        tbtmTraining.setText("Training");
+        tabFolder.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 5, 1));
 
-        TabItem tbtmAll = new TabItem(tabFolder, SWT.NONE);
-        tbtmAll.setText("All");
+        predictionPanel = new PredictionPanel(shell, SWT.NONE);
+        predictionPanel.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 5, 1));
 
-        // Create the matrix tables.
-        this.columns = new ArrayList<TableColumn>(nLabels * 3 + 6);
-        this.tblMatrix = new Table[3];
-        this.tabHolders = new Composite[3];
+        // The matrix tables are created when their tabs are first shown.
+        this.matrixTabs = new TabItem[3];
+        String[] tabNames = new String[] { "Testing", "Training", "All" };
         for (int i = 0; i < 3; i++) {
-            this.tabHolders[i] = new Composite(tabFolder, SWT.NONE);
-            this.tabHolders[i].setLayout(HOLDER_LAYOUT);
-            this.tabHolders[i].setBackground(shell.getBackground());
-            new Label(this.tabHolders[i], SWT.NONE);
-            Label lblActual = new Label(this.tabHolders[i], SWT.NONE);
-            lblActual.setLayoutData(new GridData(SWT.CENTER, SWT.CENTER, false, false, 1, 1));
-            lblActual.setText("actual");
-            Label lblPredicted = new Label(this.tabHolders[i], SWT.VERTICAL);
-            lblPredicted.setLayoutData(new GridData(SWT.CENTER, SWT.CENTER, false, false, 1, 1));
-            lblPredicted.setText("p\nr\ne\nd\ni\nc\nt\ne\nd");
-            lblPredicted.pack();
-            this.tblMatrix[i] = new Table(this.tabHolders[i], SWT.BORDER | SWT.SINGLE | SWT.NO_SCROLL);
-            tblMatrix[i].setLayoutData(new GridData(SWT.TOP, SWT.LEFT, false, false, 1, 1));
-            this.tblMatrix[i].setHeaderBackground(HEADER_COLOR);
-            this.tblMatrix[i].setHeaderVisible(true);
-            this.tblMatrix[i].setLinesVisible(true);
-            // We have a header column, one data column per label, and a total column.
-            TableColumn column = new TableColumn(this.tblMatrix[i], SWT.LEFT | SWT.BORDER);
-            column.setText("");
-            this.columns.add(column);
-            for (int r = 0; r < nLabels; r++) {
-                column = new TableColumn(this.tblMatrix[i], SWT.RIGHT | SWT.BORDER);
-                column.setText(labels.get(r));
-                this.columns.add(column);
-            }
-            column = new TableColumn(this.tblMatrix[i], SWT.RIGHT | SWT.BORDER);
-            column.setText("TOTAL");
-            this.columns.add(column);
+            this.matrixTabs[i] = new TabItem(tabFolder, SWT.NONE);
+            this.matrixTabs[i].setText(tabNames[i]);
         }
-        tbtmTesting.setControl(this.tabHolders[TEST_MATRIX]);
-        tbtmTraining.setControl(this.tabHolders[TRAIN_MATRIX]);
-        tbtmAll.setControl(this.tabHolders[ALL_MATRIX]);
+        this.tblMatrix = new Table[3];
+        this.tabHolders = new Composite[3];
+        this.tableCurrent = new boolean[3];
+        this.columnStart = new int[3];
+        this.lblColumnRange = new Label[3];
+        this.btnPrevColumns = new Button[3];
+        this.btnNextColumns = new Button[3];
+
+        TabItem tbtmSummary = new TabItem(tabFolder, SWT.NONE);
+        tbtmSummary.setText("Summary");
+        tbtmSummary.setControl(createSummary(tabFolder));
+
+        TabItem tbtmHeatmap = new TabItem(tabFolder, SWT.NONE);
+        tbtmHeatmap.setText("Heat Map");
+        tbtmHeatmap.setControl(createHeatmap(tabFolder));
+
         // Here we have a couple of events designed to fix the tables when the
-        // container state changes.
+        // container state changes.  Resize events come in floods, so we only act
+        // on the last one.
         tabFolder.addSelectionListener(new SelectionAdapter() {
             @Override
             public void widgetSelected(SelectionEvent e) {
                 packCurrentTable();
             }
         });
+        this.resizeTask = () -> {
+            if (! shell.isDisposed())
+                packCurrentTable();
+        };
         shell.addListener(SWT.Resize,  new Listener () {
             public void handleEvent (Event e) {
-                packTables();
-                packCurrentTable();
+                shell.getDisplay().timerExec(RESIZE_DELAY, resizeTask);
             }
           });
-        packTables();
+        packCurrentTable();
     }
 
     /**
-     * Repack all the table columns.
+     * Create the table for a matrix tab.  The table is virtual:  rows are filled in only when they
+     * are scrolled into view.  SWT does not virtualize columns, so only a page of label columns is
+     * created, and buttons above the table move the page across the labels.
+     *
+     * @param type	0 = testing, 1 = training, 2 = both
      */
-    private void packTables() {
-        this.columns.stream().forEach(x -> x.pack());
-        this.tblMatrix[tabFolder.getSelectionIndex()].pack();
+    private void createMatrixTable(int type) {
+        Composite holder = new Composite(tabFolder, SWT.NONE);
+        holder.setLayout(HOLDER_LAYOUT);
+        holder.setBackground(shell.getBackground());
+        new Label(holder, SWT.NONE);
+        Composite pager = new Composite(holder, SWT.NONE);
+        pager.setLayoutData(new GridData(SWT.CENTER, SWT.CENTER, false, false, 1, 1));
+        pager.setLayout(new GridLayout(3, false));
+        pager.setBackground(shell.getBackground());
+        btnPrevColumns[type] = new Button(pager, SWT.NONE);
+        btnPrevColumns[type].setText("<");
+        btnPrevColumns[type].setToolTipText("Show the previous page of actual-value columns");
+        btnPrevColumns[type].addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                moveColumns(type, -1);
+            }
+        });
+        lblColumnRange[type] = new Label(pager, SWT.NONE);
+        lblColumnRange[type].setLayoutData(new GridData(SWT.CENTER, SWT.CENTER, false, false, 1, 1));
+        btnNextColumns[type] = new Button(pager, SWT.NONE);
+        btnNextColumns[type].setText(">");
+        btnNextColumns[type].setToolTipText("Show the next page of actual-value columns");
+        btnNextColumns[type].addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                moveColumns(type, 1);
+            }
+        });
+        Label lblPredicted = new Label(holder, SWT.VERTICAL);
+        lblPredicted.setLayoutData(new GridData(SWT.CENTER, SWT.CENTER, false, false, 1, 1));
+        lblPredicted.setText("p\nr\ne\nd\ni\nc\nt\ne\nd");
+        lblPredicted.pack();
+        Table table = new Table(holder, SWT.BORDER | SWT.SINGLE | SWT.VIRTUAL);
+        table.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 1, 1));
+        table.setHeaderBackground(HEADER_COLOR);
+        table.setHeaderVisible(true);
+        table.setLinesVisible(true);
+        // We have a header column, one data column per label on the page, and a total column.
+        TableColumn column = new TableColumn(table, SWT.LEFT | SWT.BORDER);
+        column.setText("");
+        for (int i = 0; i < this.pageWidth; i++)
+            new TableColumn(table, SWT.RIGHT | SWT.BORDER);
+        column = new TableColumn(table, SWT.RIGHT | SWT.BORDER);
+        column.setText("TOTAL");
+        table.addListener(SWT.SetData, new Listener() {
+            public void handleEvent(Event e) {
+                fillRow(type, (TableItem) e.item, e.index);
+            }
+        });
+        this.tblMatrix[type] = table;
+        this.tabHolders[type] = holder;
+        this.tableCurrent[type] = false;
+        this.columnStart[type] = 0;
+        this.showColumnPage(type);
+        this.matrixTabs[type].setControl(holder);
     }
 
     /**
-     * Make the predictions and fill in the three tables.
+     * Move the page of label columns shown in a matrix table.
+     *
+     * @param type		0 = testing, 1 = training, 2 = both
+     * @param offset	-1 to show the previous page, 1 to show the next page
      */
-    protected void runPredictions() {
-        try {
-            processor.runPredictions(reporter, this.trainFile);
-        } catch (IOException e) {
-            ShellUtils.showErrorBox(shell, "Prediction Computation Error", e.getMessage());
+    private void moveColumns(int type, int offset) {
+        int start = this.columnStart[type] + offset * this.pageWidth;
+        // The last page is positioned so that it is full.
+        start = Math.max(0, Math.min(nLabels - this.pageWidth, start));
+        if (start != this.columnStart[type]) {
+            this.columnStart[type] = start;
+            this.showColumnPage(type);
+            Table table = this.tblMatrix[type];
+            table.clearAll();
+            this.sizeColumns(type);
         }
-        // Refill all of the tables.
-        for (int type = 0; type < 3; type++) {
-            // Clear this table.
-            this.tblMatrix[type].removeAll();
-            // We will track the column totals in here.
-            int[] total = new int[nLabels+1];
-            Arrays.fill(total, 0);
-            // Add the data rows, one per label.
-            for (int o = 0; o < nLabels; o++) {
-                String[] cells = new String[nLabels + 2];
-                cells[0] = labels.get(o);
-                int rowTotal = 0;
-                for (int e = 0; e < nLabels; e++) {
-                    int count = this.reporter.getCount(type, o, e);
-                    cells[e+1] = Integer.toString(count);
-                    total[e] += count;
-                    rowTotal += count;
-                    total[nLabels] += count;
+    }
+
+    /**
+     * Update the column headings and the page controls of a matrix table for its current page of label columns.
+     *
+     * @param type		0 = testing, 1 = training, 2 = both
+     */
+    private void showColumnPage(int type) {
+        Table table = this.tblMatrix[type];
+        int start = this.columnStart[type];
+        for (int i = 0; i < this.pageWidth; i++)
+            table.getColumn(i + 1).setText(labels.get(start + i));
+        lblColumnRange[type].setText(String.format("actual (columns %d-%d of %d)", start + 1,
+                start + this.pageWidth, nLabels));
+        btnPrevColumns[type].setEnabled(start > 0);
+        btnNextColumns[type].setEnabled(start + this.pageWidth < nLabels);
+        lblColumnRange[type].getParent().layout();
+    }
+
+    /**
+     * Create the summary tab contents.
+     *
+     * @param parent	parent tab folder
+     *
+     * @return the control for the summary tab
+     */
+    private Composite createSummary(TabFolder parent) {
+        Composite retVal = new Composite(parent, SWT.NONE);
+        retVal.setLayout(new GridLayout(2, false));
+        Label lblType = new Label(retVal, SWT.NONE);
+        lblType.setText("Data Set");
+        cmbSummaryType = new Combo(retVal, SWT.READ_ONLY);
+        cmbSummaryType.setItems(new String[] { "Testing", "Training", "All" });
+        cmbSummaryType.select(TEST_MATRIX);
+        cmbSummaryType.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                // The metrics only exist once the report has finished.
+                if (computed)
+                    fillSummary();
+            }
+        });
+        lblAverages = new Label(retVal, SWT.WRAP);
+        lblAverages.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 2, 1));
+        tblSummary = new Table(retVal, SWT.BORDER | SWT.SINGLE | SWT.FULL_SELECTION);
+        tblSummary.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 2, 1));
+        tblSummary.setHeaderVisible(true);
+        tblSummary.setLinesVisible(true);
+        for (int i = 0; i < SUMMARY_HEADINGS.length; i++) {
+            TableColumn column = new TableColumn(tblSummary, (i == 0 ? SWT.LEFT : SWT.RIGHT));
+            column.setText(SUMMARY_HEADINGS[i]);
+            final int colIdx = i;
+            column.addSelectionListener(new SelectionAdapter() {
+                @Override
+                public void widgetSelected(SelectionEvent e) {
+                    sortSummary(colIdx);
                 }
-                TableItem item = new TableItem(this.tblMatrix[type], SWT.BORDER);
-                item.setBackground(0, HEADER_COLOR);
-                item.setBackground(nLabels+1, TOTAL_COLOR);
-                cells[nLabels+1] = Integer.toString(rowTotal);
-                item.setText(cells);
+            });
+            column.pack();
+        }
+        return retVal;
+    }
+
+    /**
+     * Create the heat map tab contents.
+     *
+     * @param parent	parent tab folder
+     *
+     * @return the control for the heat map tab
+     */
+    private Composite createHeatmap(TabFolder parent) {
+        Composite retVal = new Composite(parent, SWT.NONE);
+        retVal.setLayout(new GridLayout(3, false));
+        Label lblType = new Label(retVal, SWT.NONE);
+        lblType.setText("Data Set");
+        cmbHeatmapType = new Combo(retVal, SWT.READ_ONLY);
+        cmbHeatmapType.setItems(new String[] { "Testing", "Training", "All" });
+        cmbHeatmapType.select(TEST_MATRIX);
+        cmbHeatmapType.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                showHeatmap();
             }
-            // Add the total row.
-            TableItem item = new TableItem(this.tblMatrix[type], SWT.BORDER);
-            item.setBackground(TOTAL_COLOR);
+        });
+        Label lblHelp = new Label(retVal, SWT.NONE);
+        lblHelp.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1));
+        lblHelp.setText("Shading is the fraction of each predicted row.  Wheel or drag to zoom, double-click to reset.");
+        heatmap = new ConfusionHeatmap(retVal, SWT.BORDER);
+        heatmap.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 3, 1));
+        return retVal;
+    }
+
+    /**
+     * Display the selected matrix in the heat map.
+     */
+    private void showHeatmap() {
+        if (this.computed)
+            heatmap.setMatrix(this.reporter.getMatrix(cmbHeatmapType.getSelectionIndex()), labels);
+    }
+
+    /**
+     * Compute the metrics for the selected data set and display them in the summary tab.
+     */
+    private void fillSummary() {
+        int type = cmbSummaryType.getSelectionIndex();
+        this.summaryMetrics = this.reporter.getMetrics(type);
+        ClassMetrics metrics = this.summaryMetrics;
+        StringBuilder text = new StringBuilder(200);
+        text.append(String.format("Accuracy (micro-averaged precision, recall, and F1): %s%n",
+                formatRatio(metrics.getAccuracy())));
+        text.append(String.format("Macro-averaged precision %s, recall %s, F1 %s%n",
+                formatRatio(metrics.getMacroPrecision()), formatRatio(metrics.getMacroRecall()),
+                formatRatio(metrics.getMacroF1())));
+        text.append("Top-K accuracy:");
+        int maxK = Math.min(ClassValidationConfusion.MAX_K, nLabels);
+        for (int k = 1; k <= maxK; k++)
+            text.append(String.format("  top-%d %s", k, formatRatio(this.reporter.getTopKAccuracy(type, k))));
+        lblAverages.setText(text.toString());
+        // Start in label order.
+        this.summaryOrder = new Integer[nLabels];
+        for (int c = 0; c < nLabels; c++)
+            this.summaryOrder[c] = c;
+        tblSummary.setSortColumn(null);
+        showSummaryRows();
+        lblAverages.getParent().layout();
+    }
+
+    /**
+     * Sort the summary table by the specified column.  Sorting the same column again reverses the order.
+     *
+     * @param colIdx	index of the column to sort on
+     */
+    private void sortSummary(int colIdx) {
+        if (this.summaryMetrics != null) {
+            TableColumn column = tblSummary.getColumn(colIdx);
+            int direction = SWT.UP;
+            if (tblSummary.getSortColumn() == column && tblSummary.getSortDirection() == SWT.UP)
+                direction = SWT.DOWN;
+            ClassMetrics metrics = this.summaryMetrics;
+            Comparator<Integer> comparator;
+            switch (colIdx) {
+            case 0 :
+                comparator = Comparator.comparing(c -> labels.get(c));
+                break;
+            case 1 :
+                comparator = Comparator.comparingInt(c -> metrics.getSupport(c));
+                break;
+            case 2 :
+                comparator = Comparator.comparingDouble(c -> metrics.getPrecision(c));
+                break;
+            case 3 :
+                comparator = Comparator.comparingDouble(c -> metrics.getRecall(c));
+                break;
+            default :
+                comparator = Comparator.comparingDouble(c -> metrics.getF1(c));
+            }
+            if (direction == SWT.DOWN)
+                comparator = comparator.reversed();
+            Arrays.sort(this.summaryOrder, comparator);
+            tblSummary.setSortColumn(column);
+            tblSummary.setSortDirection(direction);
+            showSummaryRows();
+        }
+    }
+
+    /**
+     * Fill the summary table rows in the current order.
+     */
+    private void showSummaryRows() {
+        tblSummary.removeAll();
+        ClassMetrics metrics = this.summaryMetrics;
+        for (int c : this.summaryOrder) {
+            TableItem item = new TableItem(tblSummary, SWT.NONE);
+            item.setText(new String[] { labels.get(c), Integer.toString(metrics.getSupport(c)),
+                    formatRatio(metrics.getPrecision(c)), formatRatio(metrics.getRecall(c)),
+                    formatRatio(metrics.getF1(c)) });
+        }
+        for (TableColumn column : tblSummary.getColumns())
+            column.pack();
+    }
+
+    /**
+     * @return a display string for a ratio
+     *
+     * @param value		ratio to display
+     */
+    private static String formatRatio(double value) {
+        return (Double.isNaN(value) ? "n/a" : String.format("%.4f", value));
+    }
+
+    /**
+     * Start the predictions in the background.  When they finish, the three tables are filled in.
+     */
+    protected void runPredictions() {
+        this.enableButtons(false);
+        // The report is about to be rebuilt, so empty the tables until it is done.
+        this.computed = false;
+        Arrays.fill(this.tableCurrent, false);
+        packCurrentTable();
+        heatmap.setMatrix(null, labels);
+        predictionPanel.start(this.predictor, this.reporter, this.trainFile, ok -> {
+            this.enableButtons(true);
+            if (ok)
+                fillTables();
+        });
+    }
+
+    /**
+     * Export the predictions on the current training file.
+     */
+    protected void exportPredictions() {
+        this.enableButtons(false);
+        boolean started = predictionPanel.export(this.predictor, this.trainFile, ok -> this.enableButtons(true));
+        if (! started)
+            this.enableButtons(true);
+    }
+
+    /**
+     * Enable or disable the buttons that start a prediction run.
+     *
+     * @param enabled	TRUE to enable the buttons, FALSE to disable them
+     */
+    private void enableButtons(boolean enabled) {
+        btnCompute.setEnabled(enabled);
+        btnSelectFile.setEnabled(enabled);
+        btnExport.setEnabled(enabled);
+    }
+
+    /**
+     * Mark the three tables for refilling from the completed report, and refill the one being shown.
+     */
+    private void fillTables() {
+        this.computed = true;
+        Arrays.fill(this.tableCurrent, false);
+        fillSummary();
+        showHeatmap();
+        packCurrentTable();
+    }
+
+    /**
+     * Fill in a row of a matrix table.  This is called by the table when the row first comes into view.
+     *
+     * @param type		0 = testing, 1 = training, 2 = both
+     * @param item		table item for the row
+     * @param row		index of the row; the last row is the total row
+     */
+    private void fillRow(int type, TableItem item, int row) {
+        SparseConfusion matrix = this.reporter.getMatrix(type);
+        int start = this.columnStart[type];
+        int totalCol = this.pageWidth + 1;
+        String[] cells = new String[this.pageWidth + 2];
+        if (row < nLabels) {
+            cells[0] = labels.get(row);
+            for (int i = 0; i < this.pageWidth; i++)
+                cells[i+1] = Integer.toString(matrix.get(row, start + i));
+            cells[totalCol] = Integer.toString(matrix.getRowTotal(row));
             item.setBackground(0, HEADER_COLOR);
-            String[] cells = new String[nLabels + 2];
+            item.setBackground(totalCol, TOTAL_COLOR);
+        } else {
             cells[0] = "TOTAL";
-            for (int e = 0; e <= nLabels; e++)
-                cells[e+1] = Integer.toString(total[e]);
-            item.setText(cells);
+            for (int i = 0; i < this.pageWidth; i++)
+                cells[i+1] = Integer.toString(matrix.getColumnTotal(start + i));
+            cells[totalCol] = Integer.toString(matrix.getTotal());
+            item.setBackground(TOTAL_COLOR);
+            item.setBackground(0, HEADER_COLOR);
+        }
+        item.setText(cells);
+    }
+
+    /**
+     * Set the column widths for a matrix table's current page.  Packing the columns of a virtual table would
+     * force every row to be filled, so instead we measure the widest string each column can hold.  No count
+     * in a column can be wider than the column total, so that and the heading determine the width.
+     *
+     * @param type	0 = testing, 1 = training, 2 = both
+     */
+    private void sizeColumns(int type) {
+        Table table = this.tblMatrix[type];
+        GC gc = new GC(table);
+        try {
+            gc.setFont(table.getFont());
+            if (this.labelWidths == null) {
+                this.labelWidths = new int[nLabels];
+                for (int i = 0; i < nLabels; i++)
+                    this.labelWidths[i] = gc.textExtent(labels.get(i)).x;
+            }
+            int headWidth = gc.textExtent("TOTAL").x;
+            for (int w : this.labelWidths)
+                headWidth = Math.max(headWidth, w);
+            table.getColumn(0).setWidth(headWidth + CELL_PADDING);
+            SparseConfusion matrix = (this.computed ? this.reporter.getMatrix(type) : null);
+            int start = this.columnStart[type];
+            for (int i = 0; i < this.pageWidth; i++) {
+                int e = start + i;
+                int width = this.labelWidths[e];
+                if (matrix != null)
+                    width = Math.max(width, gc.textExtent(Integer.toString(matrix.getColumnTotal(e))).x);
+                table.getColumn(i + 1).setWidth(width + CELL_PADDING);
+            }
+            int width = gc.textExtent("TOTAL").x;
+            if (matrix != null)
+                width = Math.max(width, gc.textExtent(Integer.toString(matrix.getTotal())).x);
+            table.getColumn(this.pageWidth + 1).setWidth(width + CELL_PADDING);
+        } finally {
+            gc.dispose();
         }
-        packTables();
     }
 
     /**
@@ -305,12 +695,25 @@ public class ConfusionDisplay extends Dialog {
     }
 
     /**
-     * Repack the currently-displayed table to compensate for a change in display state.
+     * Bring the currently-displayed table up to date with the report.  The table is created if this is
+     * its first showing, and if the report has changed since it was last shown, its rows are cleared for
+     * refilling and its columns resized.
      */
     private void packCurrentTable() {
         int type = tabFolder.getSelectionIndex();
-        tblMatrix[type].pack();
-        log.info("Repacking table {}.", type);
+        if (type >= 0 && type < SUMMARY_TAB) {
+            if (this.tblMatrix[type] == null)
+                this.createMatrixTable(type);
+            if (! this.tableCurrent[type]) {
+                Table table = this.tblMatrix[type];
+                table.clearAll();
+                table.setItemCount(this.computed ? nLabels + 1 : 0);
+                this.sizeColumns(type);
+                this.tableCurrent[type] = true;
+                log.debug("Refreshed table {}.", type);
+            }
+            this.tabHolders[type].layout();
+        }
     }
 
 }
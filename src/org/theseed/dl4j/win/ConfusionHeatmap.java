@@ -0,0 +1,463 @@
+/**
+ *
+ */
+package org.theseed.dl4j.win;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.MouseAdapter;
+import org.eclipse.swt.events.MouseEvent;
+import org.eclipse.swt.events.MouseMoveListener;
+import org.eclipse.swt.events.MouseWheelListener;
+import org.eclipse.swt.events.PaintEvent;
+import org.eclipse.swt.events.PaintListener;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.widgets.Canvas;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.theseed.reports.SparseConfusion;
+
+/**
+ * This control displays a confusion matrix as a heat map.  Each cell is shaded according to its count as a
+ * fraction of its row total, so a well-predicted label shows a single dark cell on the diagonal no matter how
+ * many records it has.  Diagonal cells are shaded in blue and the off-diagonal cells in red, so the errors
+ * stand out.  As in the tables, rows are predicted labels and columns are actual labels.
+ *
+ * The image is rendered on a background thread by visiting only the non-zero cells of the matrix.  When a
+ * pixel covers several cells, it shows the darkest of them.  Each paint copies the most recent image to the
+ * screen, stretching it if the control has been resized since it was rendered.
+ *
+ * The mouse wheel zooms around the cursor, dragging a rectangle zooms to that region, and a double-click
+ * restores the full matrix.  Hovering over a cell shows its labels and counts.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ConfusionHeatmap extends Canvas {
+
+    // FIELDS
+    /** matrix to display, or NULL if there is none */
+    private SparseConfusion matrix;
+    /** labels for the rows and columns */
+    private List<String> labels;
+    /** number of labels */
+    private int nLabels;
+    /** visible region of the matrix */
+    private Region region;
+    /** most recent rendered image, or NULL if there is none */
+    private Image image;
+    /** view depicted by the current image */
+    private View imageView;
+    /** view most recently requested for rendering */
+    private volatile View requested;
+    /** background thread for rendering */
+    private ExecutorService renderer;
+    /** display for posting rendered images */
+    private Display display;
+    /** mouse position at the start of a drag, or NULL if no drag is in progress */
+    private Point dragStart;
+    /** current mouse position during a drag */
+    private Point dragEnd;
+    /** cell currently described by the tooltip, packed as row * nLabels + column, or -1 if none */
+    private long hoverCell;
+    /** zoom factor for one wheel click */
+    private static final double ZOOM_FACTOR = 0.8;
+    /** minimum size of a drag rectangle, in pixels, for it to count as a zoom */
+    private static final int MIN_DRAG = 4;
+    /** pixel value for an empty cell */
+    private static final int EMPTY = 0xFFFFFF;
+    /** intensities above this are diagonal cells */
+    private static final int DIAGONAL = 256;
+
+    /**
+     * This object describes a rectangular region of the matrix, in cell units.
+     */
+    private static class Region {
+
+        /** first visible column */
+        private double left;
+        /** first visible row */
+        private double top;
+        /** number of visible columns */
+        private double width;
+        /** number of visible rows */
+        private double height;
+
+        public Region(double left, double top, double width, double height) {
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+        }
+
+    }
+
+    /**
+     * This object describes a rendering request:  the matrix, the visible region, and the image size.
+     */
+    private static class View {
+
+        /** matrix to render */
+        private SparseConfusion matrix;
+        /** region to render */
+        private Region region;
+        /** image width in pixels */
+        private int width;
+        /** image height in pixels */
+        private int height;
+
+        public View(SparseConfusion matrix, Region region, int width, int height) {
+            this.matrix = matrix;
+            this.region = region;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * @return TRUE if this view depicts the same thing as another view
+         *
+         * @param other		other view to compare, or NULL
+         */
+        public boolean sameAs(View other) {
+            return (other != null && this.matrix == other.matrix && this.region == other.region
+                    && this.width == other.width && this.height == other.height);
+        }
+
+    }
+
+    /**
+     * Create a heat map control.
+     *
+     * @param parent	parent composite
+     * @param style		style of the control
+     */
+    public ConfusionHeatmap(Composite parent, int style) {
+        super(parent, style | SWT.DOUBLE_BUFFERED | SWT.NO_BACKGROUND);
+        this.matrix = null;
+        this.image = null;
+        this.imageView = null;
+        this.requested = null;
+        this.dragStart = null;
+        this.hoverCell = -1;
+        this.display = parent.getDisplay();
+        this.renderer = Executors.newSingleThreadExecutor(r -> {
+            Thread retVal = new Thread(r, "heatmap-render");
+            retVal.setDaemon(true);
+            return retVal;
+        });
+        this.addPaintListener(new Painter());
+        this.addMouseWheelListener(new WheelZoom());
+        this.addMouseMoveListener(new Tracker());
+        this.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseDown(MouseEvent e) {
+                if (e.button == 1 && matrix != null) {
+                    dragStart = new Point(e.x, e.y);
+                    dragEnd = dragStart;
+                }
+            }
+
+            @Override
+            public void mouseUp(MouseEvent e) {
+                if (dragStart != null) {
+                    zoomToDrag();
+                    dragStart = null;
+                    redraw();
+                }
+            }
+
+            @Override
+            public void mouseDoubleClick(MouseEvent e) {
+                if (matrix != null)
+                    setRegion(new Region(0, 0, nLabels, nLabels));
+            }
+        });
+        this.addDisposeListener(e -> {
+            this.disposeImage();
+            this.renderer.shutdownNow();
+        });
+    }
+
+    /**
+     * Specify the matrix to display.  The matrix must not be modified while it is displayed.
+     *
+     * @param matrix	confusion matrix to display, or NULL to display nothing
+     * @param labels	labels for the rows and columns
+     */
+    public void setMatrix(SparseConfusion matrix, List<String> labels) {
+        this.matrix = matrix;
+        this.labels = labels;
+        this.nLabels = labels.size();
+        this.hoverCell = -1;
+        this.setToolTipText(null);
+        this.setRegion(new Region(0, 0, this.nLabels, this.nLabels));
+    }
+
+    /**
+     * Change the visible region of the matrix.  The region is kept inside the matrix.
+     *
+     * @param newRegion		new region to display
+     */
+    private void setRegion(Region newRegion) {
+        double width = Math.min(this.nLabels, Math.max(1.0, newRegion.width));
+        double height = Math.min(this.nLabels, Math.max(1.0, newRegion.height));
+        double left = Math.max(0.0, Math.min(this.nLabels - width, newRegion.left));
+        double top = Math.max(0.0, Math.min(this.nLabels - height, newRegion.top));
+        this.region = new Region(left, top, width, height);
+        this.redraw();
+    }
+
+    /**
+     * @return the matrix column at a horizontal pixel position
+     *
+     * @param x		pixel position
+     */
+    private double columnAt(int x) {
+        Rectangle area = this.getClientArea();
+        return this.region.left + x * this.region.width / Math.max(1, area.width);
+    }
+
+    /**
+     * @return the matrix row at a vertical pixel position
+     *
+     * @param y		pixel position
+     */
+    private double rowAt(int y) {
+        Rectangle area = this.getClientArea();
+        return this.region.top + y * this.region.height / Math.max(1, area.height);
+    }
+
+    /**
+     * Zoom to the rectangle dragged out by the mouse.
+     */
+    private void zoomToDrag() {
+        int x0 = Math.min(this.dragStart.x, this.dragEnd.x);
+        int x1 = Math.max(this.dragStart.x, this.dragEnd.x);
+        int y0 = Math.min(this.dragStart.y, this.dragEnd.y);
+        int y1 = Math.max(this.dragStart.y, this.dragEnd.y);
+        if (x1 - x0 >= MIN_DRAG && y1 - y0 >= MIN_DRAG) {
+            double left = this.columnAt(x0);
+            double top = this.rowAt(y0);
+            this.setRegion(new Region(left, top, this.columnAt(x1) - left, this.rowAt(y1) - top));
+        }
+    }
+
+    /**
+     * This listener paints the heat map.
+     */
+    private class Painter implements PaintListener {
+
+        @Override
+        public void paintControl(PaintEvent e) {
+            GC gc = e.gc;
+            Rectangle area = getClientArea();
+            gc.setBackground(getDisplay().getSystemColor(SWT.COLOR_WHITE));
+            gc.fillRectangle(area);
+            if (matrix != null && area.width > 0 && area.height > 0) {
+                View view = new View(matrix, region, area.width, area.height);
+                if (! view.sameAs(imageView) && ! view.sameAs(requested)) {
+                    // The view has changed, so we need a new image.
+                    requested = view;
+                    renderer.execute(new Render(view));
+                }
+                if (image != null && imageView.matrix == matrix) {
+                    if (view.sameAs(imageView))
+                        gc.drawImage(image, 0, 0);
+                    else {
+                        // Stretch the old image to where its region falls in the new view.
+                        Region old = imageView.region;
+                        double xScale = area.width / region.width;
+                        double yScale = area.height / region.height;
+                        int left = (int) Math.round((old.left - region.left) * xScale);
+                        int top = (int) Math.round((old.top - region.top) * yScale);
+                        int width = (int) Math.round(old.width * xScale);
+                        int height = (int) Math.round(old.height * yScale);
+                        gc.drawImage(image, 0, 0, imageView.width, imageView.height, left, top, width, height);
+                    }
+                }
+                if (dragStart != null) {
+                    gc.setForeground(getDisplay().getSystemColor(SWT.COLOR_BLACK));
+                    gc.drawRectangle(Math.min(dragStart.x, dragEnd.x), Math.min(dragStart.y, dragEnd.y),
+                            Math.abs(dragEnd.x - dragStart.x), Math.abs(dragEnd.y - dragStart.y));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Render the heat map for a view.  Only the non-zero cells are visited, and each one fills the pixels it
+     * covers.  A cell smaller than a pixel still gets the pixel containing its upper left corner, so no
+     * non-zero cell disappears when zoomed out.
+     *
+     * @param view		view to render
+     *
+     * @return the image data for the view
+     */
+    private static ImageData render(View view) {
+        int width = view.width;
+        int height = view.height;
+        Region region = view.region;
+        SparseConfusion matrix = view.matrix;
+        // Each pixel gets the intensity of its darkest cell, plus DIAGONAL if that cell is on the diagonal.
+        int[] intensity = new int[width * height];
+        double xScale = width / region.width;
+        double yScale = height / region.height;
+        double right = region.left + region.width;
+        double bottom = region.top + region.height;
+        matrix.forEach((o, e, count) -> {
+            if (e + 1 > region.left && e < right && o + 1 > region.top && o < bottom) {
+                int x0 = Math.max(0, (int) Math.floor((e - region.left) * xScale));
+                int x1 = Math.min(width, Math.max(x0 + 1, (int) Math.floor((e + 1 - region.left) * xScale)));
+                int y0 = Math.max(0, (int) Math.floor((o - region.top) * yScale));
+                int y1 = Math.min(height, Math.max(y0 + 1, (int) Math.floor((o + 1 - region.top) * yScale)));
+                // Scale the row fraction so that small fractions are still visible.
+                double fraction = (double) count / matrix.getRowTotal(o);
+                int level = 1 + (int) (254 * Math.sqrt(fraction));
+                if (o == e) level += DIAGONAL;
+                for (int y = y0; y < y1; y++) {
+                    int rowStart = y * width;
+                    for (int x = x0; x < x1; x++) {
+                        int i = rowStart + x;
+                        if ((intensity[i] & 0xFF) < (level & 0xFF)) intensity[i] = level;
+                    }
+                }
+            }
+        });
+        // Convert the intensities to colors.
+        int[] pixels = intensity;
+        for (int i = 0; i < pixels.length; i++) {
+            int level = intensity[i];
+            if (level == 0)
+                pixels[i] = EMPTY;
+            else {
+                int fade = 255 - (level & 0xFF);
+                if (level >= DIAGONAL)
+                    pixels[i] = fade << 16 | fade << 8 | 0xFF;
+                else
+                    pixels[i] = 0xFF0000 | fade << 8 | fade;
+            }
+        }
+        ImageData retVal = new ImageData(width, height, 24, new PaletteData(0xFF0000, 0x00FF00, 0x0000FF));
+        for (int y = 0; y < height; y++)
+            retVal.setPixels(0, y, width, pixels, y * width);
+        return retVal;
+    }
+
+    /**
+     * This task renders an image in the background and posts it to the UI thread.
+     */
+    private class Render implements Runnable {
+
+        /** view to render */
+        private View view;
+
+        public Render(View view) {
+            this.view = view;
+        }
+
+        @Override
+        public void run() {
+            // Skip this request if a newer one has superseded it.
+            if (this.view == requested) {
+                ImageData data = render(this.view);
+                if (! display.isDisposed())
+                    display.asyncExec(() -> install(this.view, data));
+            }
+        }
+
+    }
+
+    /**
+     * Install a newly-rendered image.  This runs on the UI thread.
+     *
+     * @param view		view depicted by the image
+     * @param data		image data
+     */
+    private void install(View view, ImageData data) {
+        // Only install the image if it is still wanted.
+        if (! this.isDisposed() && view == this.requested) {
+            this.disposeImage();
+            this.image = new Image(this.getDisplay(), data);
+            this.imageView = view;
+            this.redraw();
+        }
+    }
+
+    /**
+     * This listener zooms the view around the mouse position.
+     */
+    private class WheelZoom implements MouseWheelListener {
+
+        @Override
+        public void mouseScrolled(MouseEvent e) {
+            if (matrix != null && e.count != 0) {
+                double factor = (e.count > 0 ? ZOOM_FACTOR : 1.0 / ZOOM_FACTOR);
+                double col = columnAt(e.x);
+                double row = rowAt(e.y);
+                setRegion(new Region(col - (col - region.left) * factor, row - (row - region.top) * factor,
+                        region.width * factor, region.height * factor));
+            }
+        }
+
+    }
+
+    /**
+     * This listener tracks the mouse, both to update the drag rectangle and to describe the cell under the
+     * cursor.
+     */
+    private class Tracker implements MouseMoveListener {
+
+        @Override
+        public void mouseMove(MouseEvent e) {
+            if (matrix != null) {
+                if (dragStart != null) {
+                    dragEnd = new Point(e.x, e.y);
+                    redraw();
+                }
+                int o = (int) rowAt(e.y);
+                int c = (int) columnAt(e.x);
+                long cell = (o >= 0 && o < nLabels && c >= 0 && c < nLabels ? (long) o * nLabels + c : -1);
+                if (cell != hoverCell) {
+                    hoverCell = cell;
+                    setToolTipText(cell < 0 ? null : describeCell(o, c));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * @return a description of a matrix cell
+     *
+     * @param o		row (predicted label) index
+     * @param e		column (actual label) index
+     */
+    private String describeCell(int o, int e) {
+        int count = this.matrix.get(o, e);
+        int rowTotal = this.matrix.getRowTotal(o);
+        String retVal = String.format("predicted %s, actual %s%n%,d of %,d predicted (%.1f%%), %,d of %,d actual",
+                this.labels.get(o), this.labels.get(e), count, rowTotal,
+                (rowTotal > 0 ? count * 100.0 / rowTotal : 0.0), count, this.matrix.getColumnTotal(e));
+        return retVal;
+    }
+
+    /**
+     * Release the current image.
+     */
+    private void disposeImage() {
+        if (this.image != null) {
+            this.image.dispose();
+            this.image = null;
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package org.theseed.dl4j.win;
+
+import org.eclipse.swt.events.PaintEvent;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swtchart.Chart;
+import org.eclipse.swtchart.IAxis;
+import org.eclipse.swtchart.ICustomPaintListener;
+import org.theseed.reports.DensityGrid;
+
+/**
+ * This object paints a density grid onto the plot area of a chart as a heat map.  Each grid cell becomes a
+ * pixel of an image, which is stretched to cover the grid's region on the chart axes.  Testing points are
+ * shaded in red and training points in blue, so cells containing both come out purple.  The shading is on
+ * a log scale, so that sparse cells are still visible next to very dense ones.
+ *
+ * The image is built once per grid and reused for every paint.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DensityPainter implements ICustomPaintListener {
+
+    // FIELDS
+    /** chart being painted */
+    private Chart chart;
+    /** density grid to display, or NULL if there is none */
+    private DensityGrid grid;
+    /** heat map image for the current grid, or NULL if it has not been built */
+    private Image image;
+    /** pixel value for an empty cell */
+    private static final int EMPTY = 0xFFFFFF;
+
+    /**
+     * Create a density painter for a chart.
+     *
+     * @param chart		chart on whose plot area the grid will be painted
+     */
+    public DensityPainter(Chart chart) {
+        this.chart = chart;
+        this.grid = null;
+        this.image = null;
+    }
+
+    /**
+     * Specify a new density grid to display.
+     *
+     * @param grid		new grid, or NULL to display nothing
+     */
+    public void setGrid(DensityGrid grid) {
+        this.grid = grid;
+        this.dispose();
+    }
+
+    /**
+     * @return TRUE if there is a grid to display
+     */
+    public boolean isActive() {
+        return (this.grid != null);
+    }
+
+    @Override
+    public void paintControl(PaintEvent e) {
+        if (this.grid != null) {
+            if (this.image == null)
+                this.image = new Image(this.chart.getDisplay(), this.buildImageData());
+            IAxis xAxis = this.chart.getAxisSet().getXAxis(0);
+            IAxis yAxis = this.chart.getAxisSet().getYAxis(0);
+            int left = xAxis.getPixelCoordinate(this.grid.getMinX());
+            int right = xAxis.getPixelCoordinate(this.grid.getMaxX());
+            int top = yAxis.getPixelCoordinate(this.grid.getMaxY());
+            int bottom = yAxis.getPixelCoordinate(this.grid.getMinY());
+            GC gc = e.gc;
+            gc.drawImage(this.image, 0, 0, this.grid.getWidth(), this.grid.getHeight(), left, top,
+                    right - left, bottom - top);
+        }
+    }
+
+    /**
+     * @return the image data for the heat map of the current grid
+     */
+    private ImageData buildImageData() {
+        int width = this.grid.getWidth();
+        int height = this.grid.getHeight();
+        ImageData retVal = new ImageData(width, height, 24, new PaletteData(0xFF0000, 0x00FF00, 0x0000FF));
+        retVal.transparentPixel = EMPTY;
+        double logMax = Math.log1p(this.grid.getMaxCount());
+        int[] pixels = new int[width];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int test = this.grid.getCount(DensityGrid.TEST, col, row);
+                int train = this.grid.getCount(DensityGrid.TRAIN, col, row);
+                if (test == 0 && train == 0)
+                    pixels[col] = EMPTY;
+                else {
+                    // Each layer removes the colors that are not its own.
+                    double t = Math.log1p(test) / logMax;
+                    double b = Math.log1p(train) / logMax;
+                    int red = (int) (255 * (1.0 - b));
+                    int green = (int) (255 * (1.0 - t) * (1.0 - b));
+                    int blue = (int) (255 * (1.0 - t));
+                    int pixel = (red << 16) | (green << 8) | blue;
+                    // Insure a non-empty cell is never mistaken for an empty one.
+                    pixels[col] = (pixel == EMPTY ? EMPTY - 1 : pixel);
+                }
+            }
+            // The grid's first row is at the bottom, but the image's is at the top.
+            retVal.setPixels(0, height - 1 - row, width, pixels, 0);
+        }
+        return retVal;
+    }
+
+    @Override
+    public boolean drawBehindSeries() {
+        return true;
+    }
+
+    /**
+     * Release the heat map image.
+     */
+    public void dispose() {
+        if (this.image != null) {
+            this.image.dispose();
+            this.image = null;
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/**
+ *
+ */
+package org.theseed.dl4j.win;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This is a bounded, lock-free queue of epoch reports.  Each entry is an epoch number, a score, and a flag
+ * indicating whether the model was saved at that epoch.  The entries are stored in primitive arrays, so
+ * adding one allocates nothing.  Any number of threads can add and remove entries at the same time.
+ *
+ * If the queue is full, a new entry is rejected rather than waiting for room, so a training thread is never
+ * held up by a slow display.  Rejected entries are counted.
+ *
+ * The algorithm is Dmitry Vyukov's bounded multi-producer, multi-consumer queue.  Each slot has a sequence
+ * number that tells a producer when the slot is free and a consumer when it is filled.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class EpochRing {
+
+    // FIELDS
+    /** sequence number for each slot */
+    private AtomicLongArray sequences;
+    /** epoch number for each slot */
+    private int[] epochs;
+    /** score for each slot */
+    private double[] scores;
+    /** saved-model flag for each slot */
+    private boolean[] saved;
+    /** mask for converting a position to a slot index */
+    private int mask;
+    /** position of the next slot to fill */
+    private AtomicLong tail;
+    /** position of the next slot to empty */
+    private AtomicLong head;
+    /** number of entries rejected because the queue was full */
+    private AtomicLong dropped;
+
+    /**
+     * This interface is used to process the entries removed from the queue.
+     */
+    public interface IEpochSink {
+
+        /**
+         * Process an epoch report.
+         *
+         * @param epoch		epoch number
+         * @param score		score for the epoch
+         * @param saved		TRUE if the model was saved at this epoch
+         */
+        public void accept(int epoch, double score, boolean saved);
+
+    }
+
+    /**
+     * Create an empty epoch queue.
+     *
+     * @param capacity	minimum number of entries the queue can hold; this is rounded up to a power of 2
+     */
+    public EpochRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            this.sequences.set(i, i);
+        this.epochs = new int[size];
+        this.scores = new double[size];
+        this.saved = new boolean[size];
+        this.tail = new AtomicLong(0);
+        this.head = new AtomicLong(0);
+        this.dropped = new AtomicLong(0);
+    }
+
+    /**
+     * Add an epoch report to the queue.
+     *
+     * @param epoch		epoch number
+     * @param score		score for the epoch
+     * @param saved		TRUE if the model was saved at this epoch
+     *
+     * @return TRUE if the report was added, FALSE if the queue was full
+     */
+    public boolean offer(int epoch, double score, boolean saved) {
+        boolean retVal = false;
+        boolean done = false;
+        while (! done) {
+            long pos = this.tail.get();
+            int idx = (int) (pos & this.mask);
+            long diff = this.sequences.get(idx) - pos;
+            if (diff == 0) {
+                // The slot is free.  Try to claim it.
+                if (this.tail.compareAndSet(pos, pos + 1)) {
+                    this.epochs[idx] = epoch;
+                    this.scores[idx] = score;
+                    this.saved[idx] = saved;
+                    // Publish the slot to the consumers.
+                    this.sequences.lazySet(idx, pos + 1);
+                    retVal = true;
+                    done = true;
+                }
+            } else if (diff < 0) {
+                // The slot has not been emptied yet, so the queue is full.
+                this.dropped.incrementAndGet();
+                done = true;
+            }
+            // Otherwise another producer got here first, and we try again.
+        }
+        return retVal;
+    }
+
+    /**
+     * Remove entries from the queue and pass them to a sink.
+     *
+     * @param sink		processor for the entries removed
+     * @param max		maximum number of entries to remove
+     *
+     * @return the number of entries removed
+     */
+    public int drain(IEpochSink sink, int max) {
+        int retVal = 0;
+        boolean empty = false;
+        while (retVal < max && ! empty) {
+            long pos = this.head.get();
+            int idx = (int) (pos & this.mask);
+            long diff = this.sequences.get(idx) - (pos + 1);
+            if (diff == 0) {
+                // The slot is filled.  Try to claim it.
+                if (this.head.compareAndSet(pos, pos + 1)) {
+                    int epoch = this.epochs[idx];
+                    double score = this.scores[idx];
+                    boolean savedFlag = this.saved[idx];
+                    // Release the slot to the producers for the next pass around the ring.
+                    this.sequences.lazySet(idx, pos + this.mask + 1);
+                    sink.accept(epoch, score, savedFlag);
+                    retVal++;
+                }
+            } else if (diff < 0)
+                empty = true;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of entries rejected because the queue was full
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * @return the maximum number of entries in the queue
+     */
+    public int capacity() {
+        return this.mask + 1;
+    }
+
+}
@@ -0,0 +1,271 @@
+/**
+ *
+ */
+package org.theseed.dl4j.win;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.SashForm;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.layout.FillLayout;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Dialog;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
+import org.eclipse.wb.swt.SWTResourceManager;
+import org.theseed.dl4j.batch.BatchTrainer;
+import org.theseed.dl4j.batch.JobQueue;
+import org.theseed.dl4j.batch.ModelDirectory;
+import org.theseed.dl4j.batch.TrainingJob;
+import org.theseed.dl4j.train.TrainingProcessor;
+import org.theseed.win.ShellUtils;
+
+/**
+ * This dialog displays the training job queue.  The current model can be added to the queue, and the jobs
+ * can be reordered and cancelled.  The display is refreshed periodically while the dialog is open.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class JobQueueDialog extends Dialog {
+
+    // FIELDS
+    /** main window shell */
+    protected Shell shell;
+    /** job queue being displayed */
+    private JobQueue queue;
+    /** current model directory, or NULL if there is none */
+    private ModelDirectory model;
+    /** type of model to train */
+    private TrainingProcessor.Type modelType;
+    /** table of jobs */
+    private Table tblJobs;
+    /** results of the selected job */
+    private Text txtResults;
+    /** task to refresh the display */
+    private Runnable refresher;
+    /** interval between display refreshes, in milliseconds */
+    private static final int REFRESH_INTERVAL = 500;
+    /** column headings */
+    private static final String[] HEADINGS = new String[] { "ID", "Model", "Command", "Status", "Epoch", "Score",
+            "Message" };
+
+    /**
+     * Create the dialog.
+     *
+     * @param parent		parent window
+     * @param style			window style
+     * @param queue			job queue to display
+     * @param model			current model directory, or NULL if there is none
+     * @param modelType		type of model to train
+     */
+    public JobQueueDialog(Shell parent, int style, JobQueue queue, ModelDirectory model, TrainingProcessor.Type modelType) {
+        super(parent, style);
+        setText("Training Job Queue");
+        this.queue = queue;
+        this.model = model;
+        this.modelType = modelType;
+    }
+
+    /**
+     * Open the dialog.
+     */
+    public void open() {
+        createContents();
+        shell.open();
+        shell.layout();
+        Display display = getParent().getDisplay();
+        refresher = new Refresher();
+        refresher.run();
+        while (!shell.isDisposed()) {
+            if (!display.readAndDispatch()) {
+                display.sleep();
+            }
+        }
+        display.timerExec(-1, refresher);
+    }
+
+    /**
+     * Create contents of the dialog.
+     */
+    private void createContents() {
+        shell = new Shell(getParent(), SWT.SHELL_TRIM);
+        ShellUtils.persistPosition(shell, this, 800, 500);
+        shell.setText(getText());
+        shell.setLayout(new GridLayout(1, false));
+
+        Composite buttons = new Composite(shell, SWT.NONE);
+        buttons.setLayoutData(new GridData(SWT.LEFT, SWT.CENTER, false, false, 1, 1));
+        buttons.setLayout(new FillLayout(SWT.HORIZONTAL));
+        Button btnQueueSearch = new Button(buttons, SWT.NONE);
+        btnQueueSearch.setText("Queue Search");
+        btnQueueSearch.setEnabled(model != null);
+        btnQueueSearch.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                addJob(BatchTrainer.Command.SEARCH);
+            }
+        });
+        Button btnQueueXValidate = new Button(buttons, SWT.NONE);
+        btnQueueXValidate.setText("Queue Cross Validate");
+        btnQueueXValidate.setEnabled(model != null);
+        btnQueueXValidate.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                addJob(BatchTrainer.Command.XVALIDATE);
+            }
+        });
+        Button btnUp = new Button(buttons, SWT.NONE);
+        btnUp.setText("Move Up");
+        btnUp.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                moveSelected(-1);
+            }
+        });
+        Button btnDown = new Button(buttons, SWT.NONE);
+        btnDown.setText("Move Down");
+        btnDown.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                moveSelected(1);
+            }
+        });
+        Button btnCancel = new Button(buttons, SWT.NONE);
+        btnCancel.setText("Cancel Job");
+        btnCancel.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                TrainingJob job = getSelected();
+                if (job != null) {
+                    queue.cancel(job.getId());
+                    refresh();
+                }
+            }
+        });
+        Button btnClear = new Button(buttons, SWT.NONE);
+        btnClear.setText("Clear Finished");
+        btnClear.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                queue.clearFinished();
+                refresh();
+            }
+        });
+        buttons.pack();
+
+        SashForm sashForm = new SashForm(shell, SWT.VERTICAL);
+        sashForm.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 1, 1));
+        tblJobs = new Table(sashForm, SWT.BORDER | SWT.FULL_SELECTION | SWT.SINGLE);
+        tblJobs.setHeaderVisible(true);
+        tblJobs.setLinesVisible(true);
+        for (String heading : HEADINGS) {
+            TableColumn column = new TableColumn(tblJobs, SWT.LEFT);
+            column.setText(heading);
+            column.setWidth(heading.equals("Message") ? 250 : 80);
+        }
+        tblJobs.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                showResults();
+            }
+        });
+        txtResults = new Text(sashForm, SWT.BORDER | SWT.H_SCROLL | SWT.V_SCROLL | SWT.MULTI);
+        txtResults.setFont(SWTResourceManager.getFont("Consolas", 9, SWT.NORMAL));
+        txtResults.setEditable(false);
+        sashForm.setWeights(new int[] {3, 2});
+    }
+
+    /**
+     * Add the current model to the queue.
+     *
+     * @param command	command to run on the model
+     */
+    protected void addJob(BatchTrainer.Command command) {
+        try {
+            queue.add(model, command, modelType);
+            refresh();
+        } catch (IOException e) {
+            ShellUtils.showErrorBox(shell, "Error Queuing Job", e.getMessage());
+        }
+    }
+
+    /**
+     * Move the selected job in the queue.
+     *
+     * @param offset	-1 to move it up, 1 to move it down
+     */
+    protected void moveSelected(int offset) {
+        TrainingJob job = getSelected();
+        if (job != null && queue.move(job.getId(), offset)) {
+            refresh();
+            tblJobs.setSelection(tblJobs.getSelectionIndex() + offset);
+        }
+    }
+
+    /**
+     * @return the selected job, or NULL if none is selected
+     */
+    protected TrainingJob getSelected() {
+        TrainingJob retVal = null;
+        TableItem[] selected = tblJobs.getSelection();
+        if (selected.length > 0)
+            retVal = (TrainingJob) selected[0].getData();
+        return retVal;
+    }
+
+    /**
+     * Display the results of the selected job.
+     */
+    protected void showResults() {
+        TrainingJob job = getSelected();
+        String results = (job == null ? null : job.getResults());
+        txtResults.setText(results == null ? "" : results);
+    }
+
+    /**
+     * Update the table from the queue.
+     */
+    protected void refresh() {
+        List<TrainingJob> jobs = queue.getJobs();
+        tblJobs.setRedraw(false);
+        tblJobs.setItemCount(jobs.size());
+        for (int i = 0; i < jobs.size(); i++) {
+            TrainingJob job = jobs.get(i);
+            TableItem item = tblJobs.getItem(i);
+            item.setData(job);
+            double score = job.getScore();
+            item.setText(new String[] { Integer.toString(job.getId()), job.getModelDir().getName(),
+                    job.getCommand().toString(), job.getStatus().toString(),
+                    (job.getEpoch() > 0 ? Integer.toString(job.getEpoch()) : ""),
+                    (Double.isNaN(score) ? "" : String.format("%8.6g", score)), job.getMessage() });
+        }
+        tblJobs.setRedraw(true);
+    }
+
+    /**
+     * This timer task refreshes the table and reschedules itself.
+     */
+    private class Refresher implements Runnable {
+
+        @Override
+        public void run() {
+            if (! shell.isDisposed()) {
+                refresh();
+                shell.getDisplay().timerExec(REFRESH_INTERVAL, this);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,374 @@
+/**
+ *
+ */
+package org.theseed.dl4j.win;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.ProgressBar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.dl4j.predict.IPredictor;
+import org.theseed.dl4j.predict.ProgressReport;
+import org.theseed.reports.IValidationReport;
+import org.theseed.reports.PredictionExportReport;
+import org.theseed.win.ShellUtils;
+
+/**
+ * This panel runs predictions in a background thread and displays their progress.  It contains a progress bar,
+ * a status line showing the rows scored and the rows per second, and a button to cancel the run.
+ *
+ * The display is refreshed from a timer on the UI thread rather than from the prediction thread, so the
+ * report batches never have to wait for the UI.  The rows in the input file are counted by a separate thread
+ * while the predictions run, so the progress bar appears once the count is known and the run is not held up
+ * waiting for it.  When the run ends, the completion handler is called on the
+ * UI thread with TRUE if the report is complete and FALSE if the run failed or was cancelled.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class PredictionPanel extends Composite {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(PredictionPanel.class);
+    /** progress bar */
+    private ProgressBar barProgress;
+    /** status display */
+    private Label lblStatus;
+    /** cancel button */
+    private Button btnCancel;
+    /** progress report for the current run, or NULL if no run is active */
+    private ProgressReport progress;
+    /** start time of the current run */
+    private long startTime;
+    /** interval between display updates, in milliseconds */
+    private static final int REFRESH_INTERVAL = 250;
+    /** maximum value of the progress bar */
+    private static final int BAR_MAX = 1000;
+
+    /**
+     * Create the prediction panel.
+     *
+     * @param parent	parent composite
+     * @param style		style of the panel
+     */
+    public PredictionPanel(Composite parent, int style) {
+        super(parent, style);
+        setLayout(new GridLayout(3, false));
+
+        barProgress = new ProgressBar(this, SWT.SMOOTH);
+        GridData gd_barProgress = new GridData(SWT.LEFT, SWT.CENTER, false, false, 1, 1);
+        gd_barProgress.widthHint = 200;
+        barProgress.setLayoutData(gd_barProgress);
+        barProgress.setMinimum(0);
+        barProgress.setMaximum(BAR_MAX);
+
+        lblStatus = new Label(this, SWT.NONE);
+        lblStatus.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1));
+
+        btnCancel = new Button(this, SWT.NONE);
+        btnCancel.setText("Cancel");
+        btnCancel.setEnabled(false);
+        btnCancel.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                cancel();
+            }
+        });
+        // If the window closes during a run, stop the run.
+        this.addDisposeListener(e -> cancel());
+        this.progress = null;
+    }
+
+    /**
+     * Start a prediction run in the background.
+     *
+     * @param predictor		prediction engine
+     * @param reporter		report to receive the predictions
+     * @param inFile		input file to score
+     * @param onEnd			handler to call on the UI thread when the run ends; it receives TRUE if the
+     * 						run completed successfully
+     *
+     * @return TRUE if the run started, FALSE if a run is already in progress
+     */
+    public boolean start(IPredictor predictor, IValidationReport reporter, File inFile, Consumer<Boolean> onEnd) {
+        return this.start(predictor, reporter, inFile, onEnd, null);
+    }
+
+    /**
+     * Start a prediction run in the background, with a cleanup handler that runs on the worker thread when the
+     * run ends.  The cleanup handler is called even if the panel has been disposed, so it is the place to
+     * release resources owned by the report.
+     *
+     * @param predictor		prediction engine
+     * @param reporter		report to receive the predictions
+     * @param inFile		input file to score
+     * @param onEnd			handler to call on the UI thread when the run ends; it receives TRUE if the
+     * 						run completed successfully
+     * @param cleanup		handler to call on the worker thread when the run ends, or NULL if there is none;
+     * 						it receives TRUE if the run completed successfully
+     *
+     * @return TRUE if the run started, FALSE if a run is already in progress
+     */
+    private boolean start(IPredictor predictor, IValidationReport reporter, File inFile, Consumer<Boolean> onEnd,
+            Consumer<Boolean> cleanup) {
+        boolean retVal = false;
+        if (this.progress == null) {
+            this.progress = ProgressReport.wrap(reporter);
+            this.startTime = System.currentTimeMillis();
+            barProgress.setSelection(0);
+            lblStatus.setText("Starting predictions on " + inFile.getName() + ".");
+            btnCancel.setEnabled(true);
+            Worker worker = new Worker(predictor, this.progress, inFile, onEnd, cleanup);
+            worker.start();
+            getDisplay().timerExec(REFRESH_INTERVAL, new Refresh(this.progress));
+            retVal = true;
+        }
+        return retVal;
+    }
+
+    /**
+     * Ask the user for an output file and export the predictions for an input file to it in the background.
+     * A ".bin" file is written in binary format, anything else as tab-delimited text.  The output file is
+     * closed when the run ends, even if the window has been closed, and is deleted if the run did not complete.
+     *
+     * @param predictor		prediction engine
+     * @param inFile		input file to score
+     * @param onEnd			handler to call on the UI thread when the run ends; it receives TRUE if the
+     * 						export completed successfully, and is not called if the user cancels the
+     * 						file selection
+     *
+     * @return TRUE if the export started
+     */
+    public boolean export(IPredictor predictor, File inFile, Consumer<Boolean> onEnd) {
+        boolean retVal = false;
+        if (this.progress == null) {
+            FileDialog fileChooser = new FileDialog(getShell(), SWT.SAVE);
+            fileChooser.setText("Export Predictions");
+            fileChooser.setFilterExtensions(new String[] { "*.tbl;*.tsv", "*.bin", "*.*" });
+            fileChooser.setFilterNames(new String[] { "Tab-delimited files", "Binary files", "All files" });
+            fileChooser.setFilterPath(inFile.getParent());
+            fileChooser.setOverwrite(true);
+            String outName = fileChooser.open();
+            if (outName != null) {
+                File outFile = new File(outName);
+                PredictionExportReport exporter = new PredictionExportReport(outFile,
+                        PredictionExportReport.Format.forFile(outFile));
+                retVal = this.start(predictor, exporter, inFile, ok -> {
+                    if (ok)
+                        lblStatus.setText("Predictions exported to " + outFile.getName() + ".");
+                    onEnd.accept(ok);
+                }, ok -> {
+                    exporter.close();
+                    if (! ok)
+                        outFile.delete();
+                });
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if a prediction run is in progress
+     */
+    public boolean isRunning() {
+        return (this.progress != null);
+    }
+
+    /**
+     * Ask the current run to stop.
+     */
+    public void cancel() {
+        if (this.progress != null) {
+            this.progress.cancel();
+            if (! btnCancel.isDisposed())
+                btnCancel.setEnabled(false);
+        }
+    }
+
+    /**
+     * Update the progress bar and the status line.
+     *
+     * @param rows		number of rows scored
+     * @param total		number of rows expected, or 0 if not known yet
+     */
+    private void showProgress(long rows, long total) {
+        double seconds = (System.currentTimeMillis() - this.startTime) / 1000.0;
+        long rate = (seconds > 0 ? Math.round(rows / seconds) : 0);
+        String status = String.format("%,d rows scored, %,d rows/second.", rows, rate);
+        if (total > 0) {
+            barProgress.setSelection((int) Math.min(BAR_MAX, rows * BAR_MAX / total));
+            status = String.format("%,d of %,d rows scored, %,d rows/second.", rows, total, rate);
+        }
+        lblStatus.setText(status);
+    }
+
+    /**
+     * This timer task refreshes the display while a run is in progress.
+     */
+    private class Refresh implements Runnable {
+
+        /** progress report for the run being monitored */
+        private ProgressReport monitored;
+
+        public Refresh(ProgressReport monitored) {
+            this.monitored = monitored;
+        }
+
+        @Override
+        public void run() {
+            // Only reschedule if the panel still exists and our run is still the active one.
+            if (! isDisposed() && progress == this.monitored) {
+                showProgress(this.monitored.getRowCount(), this.monitored.getExpectedRows());
+                getDisplay().timerExec(REFRESH_INTERVAL, this);
+            }
+        }
+
+    }
+
+    /**
+     * This task runs on the UI thread to report the end of a run.
+     */
+    private class Finish implements Runnable {
+
+        /** error message, or NULL if there was no error */
+        private String error;
+        /** TRUE if the run was cancelled */
+        private boolean cancelled;
+        /** handler to call */
+        private Consumer<Boolean> onEnd;
+
+        public Finish(String error, boolean cancelled, Consumer<Boolean> onEnd) {
+            this.error = error;
+            this.cancelled = cancelled;
+            this.onEnd = onEnd;
+        }
+
+        @Override
+        public void run() {
+            if (! isDisposed()) {
+                long rows = progress.getRowCount();
+                long total = progress.getExpectedRows();
+                progress = null;
+                btnCancel.setEnabled(false);
+                boolean ok = false;
+                if (this.cancelled)
+                    lblStatus.setText("Predictions cancelled.");
+                else if (this.error != null) {
+                    lblStatus.setText("Predictions failed.");
+                    ShellUtils.showErrorBox(getShell(), "Prediction Error", this.error);
+                } else {
+                    showProgress(rows, total);
+                    barProgress.setSelection(BAR_MAX);
+                    ok = true;
+                }
+                this.onEnd.accept(ok);
+            }
+        }
+
+    }
+
+    /**
+     * This thread runs the predictions.
+     */
+    private class Worker extends Thread {
+
+        /** prediction engine */
+        private IPredictor predictor;
+        /** progress report to receive the predictions */
+        private ProgressReport reporter;
+        /** input file to score */
+        private File inFile;
+        /** handler to call when the run ends */
+        private Consumer<Boolean> onEnd;
+        /** handler to call on this thread when the run ends, or NULL if there is none */
+        private Consumer<Boolean> cleanup;
+        /** display for posting the result */
+        private Display display;
+
+        public Worker(IPredictor predictor, ProgressReport reporter, File inFile, Consumer<Boolean> onEnd,
+                Consumer<Boolean> cleanup) {
+            super("prediction-runner");
+            this.predictor = predictor;
+            this.reporter = reporter;
+            this.inFile = inFile;
+            this.onEnd = onEnd;
+            this.cleanup = cleanup;
+            this.display = getDisplay();
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            String error = null;
+            boolean cancelled = false;
+            boolean ok = false;
+            Thread counter = new RowCounter(this.reporter, this.inFile);
+            counter.start();
+            try {
+                this.predictor.runPredictions(this.reporter, this.inFile);
+                ok = ! this.reporter.isCancelled();
+            } catch (CancellationException e) {
+                cancelled = true;
+            } catch (IOException | RuntimeException e) {
+                log.error("Error running predictions.", e);
+                error = e.getMessage();
+                if (error == null) error = e.toString();
+            } finally {
+                // The count is no longer needed.  Interrupting the thread closes its file.
+                counter.interrupt();
+                if (this.cleanup != null)
+                    this.cleanup.accept(ok);
+            }
+            if (! this.display.isDisposed())
+                this.display.asyncExec(new Finish(error, cancelled || this.reporter.isCancelled(), this.onEnd));
+        }
+
+    }
+
+    /**
+     * This thread counts the rows in the input file while the predictions run, and stores the count in the
+     * run's progress report.
+     */
+    private static class RowCounter extends Thread {
+
+        /** progress report for the run */
+        private ProgressReport reporter;
+        /** input file to count */
+        private File inFile;
+
+        public RowCounter(ProgressReport reporter, File inFile) {
+            super("prediction-row-counter");
+            this.reporter = reporter;
+            this.inFile = inFile;
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.reporter.setExpectedRows(ProgressReport.countRows(this.inFile));
+            } catch (IOException e) {
+                // The run can proceed without a count.  If we were interrupted, the run is already over.
+                if (! this.isInterrupted())
+                    log.warn("Could not count the rows in {}: {}", this.inFile, e.toString());
+            }
+        }
+
+    }
+
+}
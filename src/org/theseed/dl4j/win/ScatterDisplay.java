@@ -4,23 +4,30 @@
 package org.theseed.dl4j.win;
 
 import org.eclipse.swtchart.Chart;
-import org.eclipse.swtchart.ILineSeries;
+import org.eclipse.swtchart.IAxis;
+import org.eclipse.swtchart.IBarSeries;
 import org.eclipse.swtchart.ISeries;
-import org.eclipse.swtchart.LineStyle;
-import org.eclipse.swtchart.model.CartesianSeriesModel;
+import org.eclipse.swtchart.Range;
 import org.eclipse.swt.widgets.Dialog;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
+import org.theseed.dl4j.predict.IPredictor;
+import org.theseed.dl4j.predict.ParallelPredictor;
+import org.theseed.dl4j.predict.PredictionCache;
 import org.theseed.dl4j.train.RegressionTrainingProcessor;
+import org.theseed.dl4j.train.TrainingProcessor;
+import org.theseed.reports.DensityGrid;
+import org.theseed.reports.RegressionStats;
 import org.theseed.reports.RegressionValidationScatter;
+import org.theseed.reports.ResidualSketch;
 import org.theseed.win.ShellUtils;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.List;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Combo;
@@ -28,6 +35,11 @@ import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.wb.swt.SWTResourceManager;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.TabFolder;
+import org.eclipse.swt.widgets.TabItem;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.swt.widgets.Text;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
@@ -37,6 +49,10 @@ import org.eclipse.swt.events.SelectionEvent;
  * entire training set.  If a "trained.tbl" file is available, the training set items will be shown in
  * blue and the testing set items in red.
  *
+ * The points are rasterized in the background, and the graph can be zoomed with the mouse wheel and panned
+ * by dragging.  When there are too many points to draw individually, the graph is displayed in density mode,
+ * as a heat map of the number of points in each small region of the plot.
+ *
  * @author Bruce Parrello
  *
  */
@@ -55,10 +71,45 @@ public class ScatterDisplay extends Dialog {
     private Text txtTrainingFile;
     /** model processor */
     private RegressionTrainingProcessor processor;
+    /** prediction engine */
+    private IPredictor predictor;
     /** current training file */
     private File trainFile;
     /** button to plot the graph */
     private Button btnReplot;
+    /** button to select the training file */
+    private Button btnSelectTrainFile;
+    /** button to export predictions */
+    private Button btnExport;
+    /** prediction progress display */
+    private PredictionPanel predictionPanel;
+    /** check box for density mode */
+    private Button btnDensity;
+    /** heat map painter for density mode */
+    private DensityPainter densityPainter;
+    /** point painter for normal mode */
+    private ScatterPainter scatterPainter;
+    /** residual histogram */
+    private Chart chartResiduals;
+    /** table of prediction metrics */
+    private Table tblMetrics;
+    /** column headings for the metrics table */
+    private static final String[] METRIC_HEADINGS = new String[] { "Metric", "Testing", "Training", "All" };
+    /** row headings for the metrics table */
+    private static final String[] METRIC_NAMES = new String[] { "count", "mean expected", "mean output",
+            "variance expected", "variance output", "RMSE", "MAE", "Pearson r", "R\u00b2" };
+    /** quantiles of the absolute residuals shown in the metrics table */
+    private static final double[] RESIDUAL_QUANTILES = new double[] { 0.50, 0.90, 0.99 };
+    /** number of bins in the residual histogram */
+    private static final int RESIDUAL_BINS = 40;
+    /** quantile of the absolute residuals used as the upper limit of the histogram */
+    private static final double HISTOGRAM_LIMIT = 0.99;
+    /** number of points above which density mode is selected automatically */
+    private static final int DENSITY_THRESHOLD = 200000;
+    /** number of pixels per density grid cell */
+    private static final int CELL_PIXELS = 2;
+    /** fraction of the data range to add as a margin in density mode */
+    private static final double MARGIN = 0.05;
 
     /**
      * Create the dialog.
@@ -74,6 +125,8 @@ public class ScatterDisplay extends Dialog {
         // Create the reporter.
         this.reporter = new RegressionValidationScatter();
         this.processor = processor;
+        IPredictor engine = new ParallelPredictor(TrainingProcessor.Type.REGRESSION, processor, ParallelPredictor.DEFAULT_THREADS);
+        this.predictor = new PredictionCache(engine, processor);
         // Save the training file.
         this.trainFile = new File(processor.getModelDir(), "training.tbl");
     }
@@ -101,7 +154,7 @@ public class ScatterDisplay extends Dialog {
         shell.setImage(SWTResourceManager.getImage(ScatterDisplay.class, "/org/theseed/images/fig-gear.ico"));
         ShellUtils.persistPosition(shell, this, 850, 500);
         shell.setText(getText());
-        shell.setLayout(new GridLayout(5, false));
+        shell.setLayout(new GridLayout(7, false));
 
         Label lblLabelColumn = new Label(shell, SWT.NONE);
         lblLabelColumn.setLayoutData(new GridData(SWT.RIGHT, SWT.CENTER, false, false, 1, 1));
@@ -131,7 +184,7 @@ public class ScatterDisplay extends Dialog {
         txtTrainingFile.setLayoutData(gd_txtTrainingFile);
         txtTrainingFile.setText("training.tbl");
 
-        Button btnSelectTrainFile = new Button(composite_1, SWT.NONE);
+        btnSelectTrainFile = new Button(composite_1, SWT.NONE);
         btnSelectTrainFile.addSelectionListener(new SelectionAdapter() {
             @Override
             public void widgetSelected(SelectionEvent e) {
@@ -143,6 +196,10 @@ public class ScatterDisplay extends Dialog {
         btnSelectTrainFile.setLayoutData(gd_btnSelectTrainFile);
         btnSelectTrainFile.setText("...");
 
+        btnDensity = new Button(shell, SWT.CHECK);
+        btnDensity.setText("Density");
+        btnDensity.setToolTipText("Display point density instead of individual points");
+
         btnReplot = new Button(shell, SWT.NONE);
         GridData gd_btnReplot = new GridData(SWT.LEFT, SWT.CENTER, false, false, 1, 1);
         gd_btnReplot.widthHint = 100;
@@ -155,15 +212,48 @@ public class ScatterDisplay extends Dialog {
             }
         });
 
+        btnExport = new Button(shell, SWT.NONE);
+        btnExport.setText("Export...");
+        btnExport.setToolTipText("Save the predictions for the training file to a tab-delimited or binary file");
+        btnExport.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                exportPredictions();
+            }
+        });
+
         Composite composite = new Composite(shell, SWT.NONE);
-        composite.setLayoutData(new GridData(SWT.FILL, SWT.FILL, false, true, 5, 1));
-        composite.setLayout(new GridLayout(1, false));
+        composite.setLayoutData(new GridData(SWT.FILL, SWT.FILL, false, true, 7, 1));
+        composite.setLayout(new GridLayout(2, false));
 
-        chartMain = new Chart(composite, SWT.NONE);
-        chartMain.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 1, 1));
+        TabFolder tabFolder = new TabFolder(composite, SWT.NONE);
+        tabFolder.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 1, 1));
+
+        TabItem tbtmScatter = new TabItem(tabFolder, SWT.NONE);
+        tbtmScatter.setText("Scatter");
+        chartMain = new Chart(tabFolder, SWT.NONE);
+        tbtmScatter.setControl(chartMain);
+
+        TabItem tbtmResiduals = new TabItem(tabFolder, SWT.NONE);
+        tbtmResiduals.setText("Residuals");
+        chartResiduals = new Chart(tabFolder, SWT.NONE);
+        tbtmResiduals.setControl(chartResiduals);
+
+        tblMetrics = new Table(composite, SWT.BORDER | SWT.SINGLE);
+        tblMetrics.setLayoutData(new GridData(SWT.RIGHT, SWT.TOP, false, false, 1, 1));
+        tblMetrics.setHeaderVisible(true);
+        tblMetrics.setLinesVisible(true);
+        for (String heading : METRIC_HEADINGS) {
+            TableColumn column = new TableColumn(tblMetrics, SWT.RIGHT);
+            column.setText(heading);
+            column.pack();
+        }
         new Label(composite, SWT.NONE);
         new Label(composite, SWT.NONE);
 
+        predictionPanel = new PredictionPanel(shell, SWT.NONE);
+        predictionPanel.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 7, 1));
+
         // Initialize the graph.
         initGraph();
         // Try to run the predictions.
@@ -185,15 +275,40 @@ public class ScatterDisplay extends Dialog {
     }
 
     /**
-     * Run the predictions on the current training set.
+     * Start the predictions on the current training set.  They run in the background, and the graph
+     * can be plotted when they finish.
      */
     private void runPredictions() {
-        try {
-            processor.runPredictions(this.reporter, this.trainFile);
-            btnReplot.setEnabled(true);
-        } catch (IOException e) {
-            btnReplot.setEnabled(false);
-            ShellUtils.showErrorBox(shell, "Prediction Error", e.getMessage());
+        btnReplot.setEnabled(false);
+        btnSelectTrainFile.setEnabled(false);
+        btnExport.setEnabled(false);
+        predictionPanel.start(this.predictor, this.reporter, this.trainFile, ok -> {
+            btnSelectTrainFile.setEnabled(true);
+            btnExport.setEnabled(true);
+            btnReplot.setEnabled(ok);
+            // Too many points to draw individually calls for density mode.
+            if (ok)
+                btnDensity.setSelection(this.reporter.getRowCount() > DENSITY_THRESHOLD);
+        });
+    }
+
+    /**
+     * Export the predictions on the current training set to a file.
+     */
+    private void exportPredictions() {
+        boolean replot = btnReplot.getEnabled();
+        btnReplot.setEnabled(false);
+        btnSelectTrainFile.setEnabled(false);
+        btnExport.setEnabled(false);
+        boolean started = predictionPanel.export(this.predictor, this.trainFile, ok -> {
+            btnReplot.setEnabled(replot);
+            btnSelectTrainFile.setEnabled(true);
+            btnExport.setEnabled(true);
+        });
+        if (! started) {
+            btnReplot.setEnabled(replot);
+            btnSelectTrainFile.setEnabled(true);
+            btnExport.setEnabled(true);
         }
     }
 
@@ -201,34 +316,200 @@ public class ScatterDisplay extends Dialog {
      * Initialize the graph to an empty state.
      */
     private void initGraph() {
-        chartMain.getTitle().setText("Expected vs. Output");
+        chartMain.getTitle().setText("Expected vs. Output (training in blue, testing in red)");
         chartMain.getAxisSet().getXAxis(0).getTitle().setText("Expected");
         chartMain.getAxisSet().getYAxis(0).getTitle().setText("Output");
+        chartResiduals.getTitle().setText("Absolute Residuals (training in blue, testing in red)");
+        chartResiduals.getAxisSet().getXAxis(0).getTitle().setText("|Output - Expected|");
+        chartResiduals.getAxisSet().getYAxis(0).getTitle().setText("Count");
+        chartResiduals.getLegend().setVisible(false);
+        densityPainter = new DensityPainter(chartMain);
+        chartMain.getPlotArea().addCustomPaintListener(densityPainter);
+        scatterPainter = new ScatterPainter(chartMain);
+        chartMain.getPlotArea().addCustomPaintListener(scatterPainter);
+        chartMain.getLegend().setVisible(false);
+        chartMain.addDisposeListener(e -> {
+            densityPainter.dispose();
+            scatterPainter.shutdown();
+        });
     }
 
     /**
      * Plot the graph using the selected label.
      */
     private void plotGraph() {
-        @SuppressWarnings("unchecked")
-        ILineSeries<String> trainingSeries = (ILineSeries<String>) chartMain.getSeriesSet()
-                .createSeries(ISeries.SeriesType.LINE, "training");
-        trainingSeries.setLineStyle(LineStyle.NONE);
-        trainingSeries.setSymbolType(ILineSeries.PlotSymbolType.CIRCLE);
-        trainingSeries.setSymbolColor(new Color(0, 0, 255));
-        trainingSeries.setSymbolSize(3);
-        CartesianSeriesModel<String> trainingModel = this.reporter.new Model(cmbLabel.getSelectionIndex(), true);
-        trainingSeries.setDataModel(trainingModel);
-        @SuppressWarnings("unchecked")
-        ILineSeries<String> testingSeries = (ILineSeries<String>) chartMain.getSeriesSet()
-                .createSeries(ISeries.SeriesType.LINE, "testing");
-        testingSeries.setLineStyle(LineStyle.NONE);
-        testingSeries.setSymbolType(ILineSeries.PlotSymbolType.CIRCLE);
-        testingSeries.setSymbolColor(new Color(255, 0, 0));
-        testingSeries.setSymbolSize(3);
-        CartesianSeriesModel<String> testingModel = this.reporter.new Model(cmbLabel.getSelectionIndex(), false);
-        testingSeries.setDataModel(testingModel);
-        chartMain.getAxisSet().adjustRange();
+        if (btnDensity.getSelection())
+            plotDensity();
+        else
+            plotPoints();
+        showMetrics();
+        plotResiduals();
+    }
+
+    /**
+     * Plot the histogram of absolute residuals for the selected label.
+     */
+    private void plotResiduals() {
+        int labelIdx = cmbLabel.getSelectionIndex();
+        ResidualSketch all = this.reporter.getAllResiduals(labelIdx);
+        // Values above the limit are lumped into the last bin, so outliers do not squash the histogram.
+        double upper = all.getQuantile(HISTOGRAM_LIMIT);
+        if (Double.isNaN(upper) || upper <= 0) upper = all.getMax();
+        if (upper <= 0) upper = 1.0;
+        String[] categories = new String[RESIDUAL_BINS];
+        double width = upper / RESIDUAL_BINS;
+        for (int i = 0; i < RESIDUAL_BINS - 1; i++)
+            categories[i] = String.format("%.3g", width * (i + 1));
+        categories[RESIDUAL_BINS - 1] = String.format("> %.3g", width * (RESIDUAL_BINS - 1));
+        IAxis xAxis = chartResiduals.getAxisSet().getXAxis(0);
+        xAxis.enableCategory(true);
+        xAxis.setCategorySeries(categories);
+        addHistogram("testing", this.reporter.getResiduals(labelIdx, RegressionValidationScatter.TEST), upper,
+                new Color(255, 0, 0));
+        addHistogram("training", this.reporter.getResiduals(labelIdx, RegressionValidationScatter.TRAIN), upper,
+                new Color(0, 0, 255));
+        chartResiduals.getAxisSet().adjustRange();
+        chartResiduals.redraw();
+    }
+
+    /**
+     * Add or replace a bar series in the residual histogram.
+     *
+     * @param id		ID of the series
+     * @param sketch	residual sketch containing the data
+     * @param upper		upper limit of the histogram
+     * @param color		color for the bars
+     */
+    private void addHistogram(String id, ResidualSketch sketch, double upper, Color color) {
+        long[] counts = sketch.getHistogram(upper, RESIDUAL_BINS);
+        double[] ySeries = new double[RESIDUAL_BINS];
+        for (int i = 0; i < RESIDUAL_BINS; i++)
+            ySeries[i] = counts[i];
+        IBarSeries<?> series = (IBarSeries<?>) chartResiduals.getSeriesSet().createSeries(ISeries.SeriesType.BAR, id);
+        series.setYSeries(ySeries);
+        series.setBarColor(color);
+        series.enableStack(true);
+    }
+
+    /**
+     * Fill the metrics table for the selected label.
+     */
+    private void showMetrics() {
+        int labelIdx = cmbLabel.getSelectionIndex();
+        RegressionStats[] statSets = new RegressionStats[] {
+                this.reporter.getStats(labelIdx, RegressionValidationScatter.TEST),
+                this.reporter.getStats(labelIdx, RegressionValidationScatter.TRAIN),
+                this.reporter.getAllStats(labelIdx) };
+        tblMetrics.removeAll();
+        for (int i = 0; i < METRIC_NAMES.length; i++) {
+            String[] cells = new String[METRIC_HEADINGS.length];
+            cells[0] = METRIC_NAMES[i];
+            for (int k = 0; k < statSets.length; k++)
+                cells[k+1] = formatMetric(statSets[k], i);
+            TableItem item = new TableItem(tblMetrics, SWT.NONE);
+            item.setText(cells);
+        }
+        ResidualSketch[] sketches = new ResidualSketch[] {
+                this.reporter.getResiduals(labelIdx, RegressionValidationScatter.TEST),
+                this.reporter.getResiduals(labelIdx, RegressionValidationScatter.TRAIN),
+                this.reporter.getAllResiduals(labelIdx) };
+        for (double q : RESIDUAL_QUANTILES) {
+            String[] cells = new String[METRIC_HEADINGS.length];
+            cells[0] = String.format("|residual| p%d", Math.round(q * 100));
+            for (int k = 0; k < sketches.length; k++) {
+                double value = sketches[k].getQuantile(q);
+                cells[k+1] = (Double.isNaN(value) ? "" : String.format("%.4g", value));
+            }
+            TableItem item = new TableItem(tblMetrics, SWT.NONE);
+            item.setText(cells);
+        }
+        for (TableColumn column : tblMetrics.getColumns())
+            column.pack();
+        tblMetrics.getParent().layout();
+    }
+
+    /**
+     * @return the display string for a metric
+     *
+     * @param stats		statistics object containing the metric
+     * @param i			index of the metric in METRIC_NAMES
+     */
+    private static String formatMetric(RegressionStats stats, int i) {
+        String retVal;
+        if (i == 0)
+            retVal = String.format("%,d", stats.getCount());
+        else {
+            double value;
+            switch (i) {
+            case 1 :
+                value = stats.getMeanExpected();
+                break;
+            case 2 :
+                value = stats.getMeanOutput();
+                break;
+            case 3 :
+                value = stats.getVarianceExpected();
+                break;
+            case 4 :
+                value = stats.getVarianceOutput();
+                break;
+            case 5 :
+                value = stats.getRmse();
+                break;
+            case 6 :
+                value = stats.getMae();
+                break;
+            case 7 :
+                value = stats.getPearson();
+                break;
+            default :
+                value = stats.getRSquared();
+            }
+            retVal = (Double.isNaN(value) ? "" : String.format("%.4g", value));
+        }
+        return retVal;
+    }
+
+    /**
+     * Plot the selected label as a heat map of point density.
+     */
+    private void plotDensity() {
+        int labelIdx = cmbLabel.getSelectionIndex();
+        scatterPainter.clear();
+        // Compute the region to display.
+        Range xRange = padRange(this.reporter.getMinExpect(labelIdx), this.reporter.getMaxExpect(labelIdx));
+        Range yRange = padRange(this.reporter.getMinOutput(labelIdx), this.reporter.getMaxOutput(labelIdx));
+        chartMain.getAxisSet().getXAxis(0).setRange(xRange);
+        chartMain.getAxisSet().getYAxis(0).setRange(yRange);
+        // Bin the points to the resolution of the plot area.
+        Point plotSize = chartMain.getPlotArea().getSize();
+        DensityGrid grid = this.reporter.computeDensity(labelIdx, plotSize.x / CELL_PIXELS,
+                plotSize.y / CELL_PIXELS, xRange.lower, xRange.upper, yRange.lower, yRange.upper);
+        densityPainter.setGrid(grid);
         chartMain.redraw();
     }
+
+    /**
+     * @return a display range for the specified data bounds, with a margin on each side
+     *
+     * @param min	minimum data value
+     * @param max	maximum data value
+     */
+    private static Range padRange(double min, double max) {
+        double margin = (max > min ? (max - min) * MARGIN : 1.0);
+        return new Range(min - margin, max + margin);
+    }
+
+    /**
+     * Plot the selected label with each point drawn individually.
+     */
+    private void plotPoints() {
+        int labelIdx = cmbLabel.getSelectionIndex();
+        densityPainter.setGrid(null);
+        Range xRange = padRange(this.reporter.getMinExpect(labelIdx), this.reporter.getMaxExpect(labelIdx));
+        Range yRange = padRange(this.reporter.getMinOutput(labelIdx), this.reporter.getMaxOutput(labelIdx));
+        scatterPainter.setData(this.reporter.getExpectColumn(labelIdx), this.reporter.getOutputColumn(labelIdx),
+                this.reporter.getTrainedRows(), this.reporter.getRowCount(), xRange, yRange);
+    }
+
 }
@@ -0,0 +1,443 @@
+/**
+ *
+ */
+package org.theseed.dl4j.win;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.swt.events.MouseAdapter;
+import org.eclipse.swt.events.MouseEvent;
+import org.eclipse.swt.events.MouseMoveListener;
+import org.eclipse.swt.events.MouseWheelListener;
+import org.eclipse.swt.events.PaintEvent;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swtchart.Chart;
+import org.eclipse.swtchart.IAxis;
+import org.eclipse.swtchart.ICustomPaintListener;
+import org.eclipse.swtchart.Range;
+
+/**
+ * This object draws a large scatter graph onto the plot area of a chart.  The points come from primitive
+ * coordinate arrays, and are rasterized into an image on a background thread.  Each paint simply copies the
+ * most recent image to the screen.  A new image is only rendered when the visible region or the size of the
+ * plot area changes.  Until it is ready, the old image is stretched to approximate the new view.
+ *
+ * The painter also handles zooming with the mouse wheel, panning by dragging, and a double-click to restore
+ * the full view.
+ *
+ * Training points are drawn in blue and testing points in red, with the testing points on top.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ScatterPainter implements ICustomPaintListener {
+
+    // FIELDS
+    /** chart being painted */
+    private Chart chart;
+    /** x-coordinates of the points */
+    private double[] xValues;
+    /** y-coordinates of the points */
+    private double[] yValues;
+    /** indices of the training points */
+    private BitSet trained;
+    /** number of points */
+    private int count;
+    /** x-axis range of the full view */
+    private Range homeX;
+    /** y-axis range of the full view */
+    private Range homeY;
+    /** most recent rendered image, or NULL if there is none */
+    private Image image;
+    /** view depicted by the current image */
+    private Viewport imageView;
+    /** view most recently requested for rendering */
+    private volatile Viewport requested;
+    /** background thread for rendering */
+    private ExecutorService renderer;
+    /** last mouse position during a drag, or NULL if no drag is in progress */
+    private Point dragStart;
+    /** zoom factor for one wheel click */
+    private static final double ZOOM_FACTOR = 0.8;
+    /** pixel value for the background */
+    private static final int EMPTY = 0xFFFFFF;
+    /** pixel value for a training point */
+    private static final int TRAIN_PIXEL = 0x0000FF;
+    /** pixel value for a testing point */
+    private static final int TEST_PIXEL = 0xFF0000;
+    /** radius of a point, in pixels */
+    private static final int RADIUS = 1;
+
+    /**
+     * This object describes a view of the data:  the visible data region and the size of the image.
+     */
+    private static class Viewport {
+
+        /** minimum visible x-value */
+        private double xLower;
+        /** maximum visible x-value */
+        private double xUpper;
+        /** minimum visible y-value */
+        private double yLower;
+        /** maximum visible y-value */
+        private double yUpper;
+        /** image width in pixels */
+        private int width;
+        /** image height in pixels */
+        private int height;
+
+        public Viewport(Range xRange, Range yRange, int width, int height) {
+            this.xLower = xRange.lower;
+            this.xUpper = xRange.upper;
+            this.yLower = yRange.lower;
+            this.yUpper = yRange.upper;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            boolean retVal = false;
+            if (obj instanceof Viewport) {
+                Viewport other = (Viewport) obj;
+                retVal = (this.xLower == other.xLower && this.xUpper == other.xUpper
+                        && this.yLower == other.yLower && this.yUpper == other.yUpper
+                        && this.width == other.width && this.height == other.height);
+            }
+            return retVal;
+        }
+
+        @Override
+        public int hashCode() {
+            return Double.hashCode(this.xLower) ^ Double.hashCode(this.xUpper) * 31
+                    ^ Double.hashCode(this.yLower) * 961 ^ Double.hashCode(this.yUpper) * 29791
+                    ^ this.width << 16 ^ this.height;
+        }
+
+    }
+
+    /**
+     * Create a scatter painter for a chart.
+     *
+     * @param chart		chart on whose plot area the points will be drawn
+     */
+    public ScatterPainter(Chart chart) {
+        this.chart = chart;
+        this.count = 0;
+        this.homeX = null;
+        this.homeY = null;
+        this.image = null;
+        this.imageView = null;
+        this.requested = null;
+        this.dragStart = null;
+        this.renderer = Executors.newSingleThreadExecutor(r -> {
+            Thread retVal = new Thread(r, "scatter-render");
+            retVal.setDaemon(true);
+            return retVal;
+        });
+        Control plotArea = chart.getPlotArea().getControl();
+        plotArea.addMouseWheelListener(new WheelZoom());
+        plotArea.addMouseMoveListener(new DragPan());
+        plotArea.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseDown(MouseEvent e) {
+                if (e.button == 1 && isActive())
+                    dragStart = new Point(e.x, e.y);
+            }
+
+            @Override
+            public void mouseUp(MouseEvent e) {
+                dragStart = null;
+            }
+
+            @Override
+            public void mouseDoubleClick(MouseEvent e) {
+                if (isActive())
+                    setRanges(new Range(homeX), new Range(homeY));
+            }
+        });
+    }
+
+    /**
+     * Specify the points to draw.  The arrays are not copied, so they must not be modified while they are
+     * being displayed.
+     *
+     * @param xValues	x-coordinates of the points
+     * @param yValues	y-coordinates of the points
+     * @param trained	indices of the training points
+     * @param count		number of points
+     * @param xRange	x-axis range of the full view
+     * @param yRange	y-axis range of the full view
+     */
+    public void setData(double[] xValues, double[] yValues, BitSet trained, int count, Range xRange,
+            Range yRange) {
+        this.xValues = xValues;
+        this.yValues = yValues;
+        this.trained = trained;
+        this.count = count;
+        this.homeX = new Range(xRange);
+        this.homeY = new Range(yRange);
+        this.resetImage();
+        this.setRanges(xRange, yRange);
+    }
+
+    /**
+     * Stop displaying points.
+     */
+    public void clear() {
+        this.xValues = null;
+        this.yValues = null;
+        this.trained = null;
+        this.count = 0;
+        this.homeX = null;
+        this.homeY = null;
+        this.resetImage();
+    }
+
+    /**
+     * @return TRUE if there are points to display
+     */
+    public boolean isActive() {
+        return (this.xValues != null);
+    }
+
+    /**
+     * Discard the current image and any pending request.
+     */
+    private void resetImage() {
+        this.dispose();
+        this.imageView = null;
+        this.requested = null;
+    }
+
+    /**
+     * Change the visible region of the chart.
+     *
+     * @param xRange	new x-axis range
+     * @param yRange	new y-axis range
+     */
+    private void setRanges(Range xRange, Range yRange) {
+        this.chart.getAxisSet().getXAxis(0).setRange(xRange);
+        this.chart.getAxisSet().getYAxis(0).setRange(yRange);
+        this.chart.redraw();
+    }
+
+    @Override
+    public void paintControl(PaintEvent e) {
+        if (this.isActive()) {
+            IAxis xAxis = this.chart.getAxisSet().getXAxis(0);
+            IAxis yAxis = this.chart.getAxisSet().getYAxis(0);
+            Point size = this.chart.getPlotArea().getSize();
+            Viewport view = new Viewport(xAxis.getRange(), yAxis.getRange(), size.x, size.y);
+            if (! view.equals(this.imageView) && ! view.equals(this.requested)) {
+                // The view has changed, so we need a new image.
+                this.requested = view;
+                this.renderer.execute(new Render(view));
+            }
+            if (this.image != null) {
+                Viewport old = this.imageView;
+                if (view.equals(old))
+                    e.gc.drawImage(this.image, 0, 0);
+                else {
+                    // Stretch the old image to where its region falls in the new view.
+                    int left = xAxis.getPixelCoordinate(old.xLower);
+                    int right = xAxis.getPixelCoordinate(old.xUpper);
+                    int top = yAxis.getPixelCoordinate(old.yUpper);
+                    int bottom = yAxis.getPixelCoordinate(old.yLower);
+                    e.gc.drawImage(this.image, 0, 0, old.width, old.height, left, top, right - left,
+                            bottom - top);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean drawBehindSeries() {
+        return true;
+    }
+
+    /**
+     * Rasterize the points for a view.
+     *
+     * @param view		view to render
+     * @param xValues	x-coordinates of the points
+     * @param yValues	y-coordinates of the points
+     * @param trained	indices of the training points
+     * @param count		number of points
+     *
+     * @return the image data for the view
+     */
+    private static ImageData rasterize(Viewport view, double[] xValues, double[] yValues, BitSet trained,
+            int count) {
+        int width = Math.max(1, view.width);
+        int height = Math.max(1, view.height);
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, EMPTY);
+        double xScale = (width - 1) / (view.xUpper - view.xLower);
+        double yScale = (height - 1) / (view.yUpper - view.yLower);
+        // Draw the training points first, so the testing points are on top.
+        for (int pass = 0; pass < 2; pass++) {
+            boolean training = (pass == 0);
+            int pixel = (training ? TRAIN_PIXEL : TEST_PIXEL);
+            for (int i = 0; i < count; i++) {
+                if (trained.get(i) == training) {
+                    int px = (int) Math.round((xValues[i] - view.xLower) * xScale);
+                    int py = (int) Math.round((view.yUpper - yValues[i]) * yScale);
+                    if (px >= -RADIUS && px < width + RADIUS && py >= -RADIUS && py < height + RADIUS) {
+                        int x0 = Math.max(0, px - RADIUS);
+                        int x1 = Math.min(width - 1, px + RADIUS);
+                        int y0 = Math.max(0, py - RADIUS);
+                        int y1 = Math.min(height - 1, py + RADIUS);
+                        for (int y = y0; y <= y1; y++) {
+                            int rowStart = y * width;
+                            for (int x = x0; x <= x1; x++)
+                                pixels[rowStart + x] = pixel;
+                        }
+                    }
+                }
+            }
+        }
+        ImageData retVal = new ImageData(width, height, 24, new PaletteData(0xFF0000, 0x00FF00, 0x0000FF));
+        retVal.transparentPixel = EMPTY;
+        for (int y = 0; y < height; y++)
+            retVal.setPixels(0, y, width, pixels, y * width);
+        return retVal;
+    }
+
+    /**
+     * This task renders an image in the background and posts it to the UI thread.
+     */
+    private class Render implements Runnable {
+
+        /** view to render */
+        private Viewport view;
+        /** x-coordinates of the points */
+        private double[] xCol;
+        /** y-coordinates of the points */
+        private double[] yCol;
+        /** indices of the training points */
+        private BitSet trainSet;
+        /** number of points */
+        private int n;
+
+        /**
+         * Capture the data for rendering.  This is done on the UI thread, so the renderer has a consistent
+         * snapshot.
+         *
+         * @param view	view to render
+         */
+        public Render(Viewport view) {
+            this.view = view;
+            this.xCol = xValues;
+            this.yCol = yValues;
+            this.trainSet = trained;
+            this.n = count;
+        }
+
+        @Override
+        public void run() {
+            // Skip this request if a newer one has superseded it.
+            if (this.view == requested) {
+                ImageData data = rasterize(this.view, this.xCol, this.yCol, this.trainSet, this.n);
+                Display display = chart.getDisplay();
+                if (! display.isDisposed())
+                    display.asyncExec(() -> install(this.view, data));
+            }
+        }
+
+    }
+
+    /**
+     * Install a newly-rendered image.  This runs on the UI thread.
+     *
+     * @param view		view depicted by the image
+     * @param data		image data
+     */
+    private void install(Viewport view, ImageData data) {
+        // Only install the image if it is still wanted.
+        if (! this.chart.isDisposed() && view == this.requested) {
+            this.dispose();
+            this.image = new Image(this.chart.getDisplay(), data);
+            this.imageView = view;
+            this.chart.getPlotArea().getControl().redraw();
+        }
+    }
+
+    /**
+     * This listener zooms the view around the mouse position.
+     */
+    private class WheelZoom implements MouseWheelListener {
+
+        @Override
+        public void mouseScrolled(MouseEvent e) {
+            if (isActive() && e.count != 0) {
+                double factor = (e.count > 0 ? ZOOM_FACTOR : 1.0 / ZOOM_FACTOR);
+                IAxis xAxis = chart.getAxisSet().getXAxis(0);
+                IAxis yAxis = chart.getAxisSet().getYAxis(0);
+                setRanges(zoom(xAxis.getRange(), xAxis.getDataCoordinate(e.x), factor),
+                        zoom(yAxis.getRange(), yAxis.getDataCoordinate(e.y), factor));
+            }
+        }
+
+        /**
+         * @return a range scaled around a center point
+         *
+         * @param range		range to scale
+         * @param center	data value that should stay fixed
+         * @param factor	scale factor for the range width
+         */
+        private Range zoom(Range range, double center, double factor) {
+            return new Range(center - (center - range.lower) * factor, center + (range.upper - center) * factor);
+        }
+
+    }
+
+    /**
+     * This listener pans the view while the mouse is dragged.
+     */
+    private class DragPan implements MouseMoveListener {
+
+        @Override
+        public void mouseMove(MouseEvent e) {
+            if (dragStart != null && isActive()) {
+                IAxis xAxis = chart.getAxisSet().getXAxis(0);
+                IAxis yAxis = chart.getAxisSet().getYAxis(0);
+                double dx = xAxis.getDataCoordinate(dragStart.x) - xAxis.getDataCoordinate(e.x);
+                double dy = yAxis.getDataCoordinate(dragStart.y) - yAxis.getDataCoordinate(e.y);
+                Range xRange = xAxis.getRange();
+                Range yRange = yAxis.getRange();
+                dragStart = new Point(e.x, e.y);
+                setRanges(new Range(xRange.lower + dx, xRange.upper + dx), new Range(yRange.lower + dy,
+                        yRange.upper + dy));
+            }
+        }
+
+    }
+
+    /**
+     * Release the current image.
+     */
+    public void dispose() {
+        if (this.image != null) {
+            this.image.dispose();
+            this.image = null;
+        }
+    }
+
+    /**
+     * Release the image and stop the rendering thread.
+     */
+    public void shutdown() {
+        this.dispose();
+        this.renderer.shutdownNow();
+    }
+
+}
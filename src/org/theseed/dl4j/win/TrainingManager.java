@@ -7,15 +7,19 @@ import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.theseed.dl4j.batch.BatchTrainer;
+import org.theseed.dl4j.batch.JobQueue;
+import org.theseed.dl4j.batch.ModelDirectory;
+import org.theseed.dl4j.batch.ThreadBudget;
+import org.theseed.dl4j.metrics.MetricsRegistry;
+import org.theseed.dl4j.metrics.MetricsReporter;
+import org.theseed.dl4j.metrics.MetricsServer;
 import org.theseed.dl4j.train.ClassTrainingProcessor;
-import org.theseed.dl4j.train.CrossValidateProcessor;
 import org.theseed.dl4j.train.ITrainReporter;
 import org.theseed.dl4j.train.RegressionTrainingProcessor;
-import org.theseed.dl4j.train.SearchProcessor;
 import org.theseed.dl4j.train.TrainingProcessor;
-import org.theseed.io.LineReader;
+import org.theseed.reports.ScoreHistory;
 import org.theseed.utils.ICommand;
-import org.theseed.utils.Parms;
 import org.theseed.win.ShellUtils;
 
 import ch.qos.logback.classic.Level;
@@ -27,13 +31,9 @@ import org.eclipse.swt.widgets.Label;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.prefs.Preferences;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Text;
@@ -48,6 +48,12 @@ import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.layout.RowLayout;
 import org.eclipse.swt.layout.FillLayout;
 import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.custom.SashForm;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swtchart.Chart;
+import org.eclipse.swtchart.ILineSeries;
+import org.eclipse.swtchart.ISeries;
+import org.eclipse.swtchart.LineStyle;
 
 /**
  * This is the application for training a dl4j.run model.  It provides a GUI interface and displays the run status conveniently
@@ -74,6 +80,8 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
     private File parmFile;
     /** current model directory */
     private File modelDir;
+    /** description of the current model directory */
+    private ModelDirectory model;
     /** type of model */
     private TrainingProcessor.Type modelType;
     /** radio button for class models */
@@ -94,6 +102,10 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
     private Thread backgrounder;
     /** button to launch cross-validation */
     private Button btnXValidate;
+    /** check box for training the cross-validation folds in parallel */
+    private Button btnParallelFolds;
+    /** check box for training the search combinations in parallel */
+    private Button btnParallelSearch;
     /** current epoch */
     private Text txtEpoch;
     /** best epoch */
@@ -106,12 +118,46 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
     private Button btnEditParms;
     /** button to display scatter graph or confusion matrix */
     private Button btnGraph;
+    /** learning curve chart */
+    private Chart chartCurve;
+    /** score history for the learning curve */
+    private ScoreHistory history;
     /** upper limit for progress bar */
     private static final double LOG10_UPPER = 1;
     /** lower limit for progress bar */
     private static final double LOG10_LOWER = -10;
     /** minimum displayable score */
     private static final double MIN_SCORE = Math.pow(10.0, LOG10_LOWER);
+    /** queue of epoch reports waiting to be displayed */
+    private EpochRing epochQueue;
+    /** latest status message waiting to be displayed, or NULL if there is none */
+    private AtomicReference<String> pendingMessage;
+    /** latest results report waiting to be displayed, or NULL if there is none */
+    private AtomicReference<String> pendingResults;
+    /** display updater */
+    private Pump pump;
+    /** reporter that records training metrics before passing reports to this window */
+    private MetricsReporter metricsReporter;
+    /** metrics HTTP server, or NULL if metrics are not being served */
+    private MetricsServer metricsServer;
+    /** queue of training jobs */
+    private JobQueue jobQueue;
+    /** number of job queue workers */
+    private int workers;
+    /** capacity of the epoch queue */
+    private static final int EPOCH_QUEUE_SIZE = 1 << 16;
+    /** interval between display updates while reports are arriving, in milliseconds (about 30 per second) */
+    private static final int FRAME_INTERVAL = 33;
+    /** interval between display updates while no reports are arriving, in milliseconds */
+    private static final int IDLE_INTERVAL = 200;
+    /** color for the learning curve */
+    private static final Color CURVE_COLOR = SWTResourceManager.getColor(0, 0, 255);
+    /** color for the saved-epoch markers */
+    private static final Color SAVED_COLOR = SWTResourceManager.getColor(255, 0, 0);
+    /** pattern for splitting a report into lines */
+    private static final Pattern LINE_END = Pattern.compile("\\r?\\n");
+    /** name of the job queue file in the user's home directory */
+    private static final String JOB_QUEUE_FILE = ".dl4j.jobs.tbl";
 
     /**
      * Initialize the training manager.
@@ -122,23 +168,73 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
         // Read in the persistent properties.
         trainingProperties = Preferences.userNodeForPackage(TrainingManager.class);
         modelDir = null;
+        model = null;
         modelType = TrainingProcessor.Type.CLASS;
         backgrounder = null;
+        epochQueue = new EpochRing(EPOCH_QUEUE_SIZE);
+        history = new ScoreHistory();
+        pendingMessage = new AtomicReference<String>();
+        pendingResults = new AtomicReference<String>();
+        MetricsRegistry registry = MetricsRegistry.getDefault();
+        metricsReporter = new MetricsReporter(this, registry);
+        metricsServer = null;
+        jobQueue = new JobQueue(new File(System.getProperty("user.home"), JOB_QUEUE_FILE));
+        workers = ThreadBudget.getDefaultWorkers();
+        try {
+            registry.registerJmx(MetricsRegistry.JMX_NAME);
+        } catch (IOException e) {
+            log.warn(e.getMessage());
+        }
+    }
+
+    /**
+     * Start serving metrics over HTTP.
+     *
+     * @param port	port on which to serve the metrics
+     *
+     * @throws IOException
+     */
+    public void serveMetrics(int port) throws IOException {
+        metricsServer = new MetricsServer(MetricsRegistry.getDefault(), port);
+    }
+
+    /**
+     * Specify the number of job queue workers.
+     *
+     * @param workers	number of workers to run queued jobs
+     */
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
     }
 
     /**
      * Launch the application.
      *
-     * @param args	command-line options
+     * @param args	command-line options: "-v" for verbose logging, "--metrics" followed by a port number
+     * 				to serve metrics over HTTP, and "--workers" followed by the number of job queue workers
      */
     public static void main(String[] args) {
         try {
-            // Configure logging.
+            // Parse the options.
             Level logLevel = Level.ERROR;
-            if (args.length >= 1 && args[0].contentEquals("-v")) logLevel = Level.INFO;
+            int metricsPort = -1;
+            int workers = 0;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].contentEquals("-v"))
+                    logLevel = Level.INFO;
+                else if (args[i].contentEquals("--metrics") && i + 1 < args.length)
+                    metricsPort = Integer.parseInt(args[++i]);
+                else if (args[i].contentEquals("--workers") && i + 1 < args.length)
+                    workers = Integer.parseInt(args[++i]);
+            }
+            // Configure logging.
             LoggerContext logging = (LoggerContext) LoggerFactory.getILoggerFactory();
             logging.getLogger(Logger.ROOT_LOGGER_NAME).setLevel(logLevel);
             try (TrainingManager window = new TrainingManager()) {
+                if (metricsPort >= 0)
+                    window.serveMetrics(metricsPort);
+                if (workers > 0)
+                    window.setWorkers(workers);
                 window.open();
             }
         } catch (Exception e) {
@@ -148,6 +244,9 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
 
     @Override
     public void close() {
+        jobQueue.stop();
+        if (metricsServer != null)
+            metricsServer.close();
     }
 
     /**
@@ -158,6 +257,9 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
         createContents();
         shlTrainingManager.open();
         shlTrainingManager.layout();
+        pump = new Pump();
+        display.timerExec(IDLE_INTERVAL, pump);
+        jobQueue.start(workers);
         while (!shlTrainingManager.isDisposed()) {
             if (!display.readAndDispatch()) {
                 display.sleep();
@@ -334,6 +436,22 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
             }
         });
         btnGraph.setText("Confusion Matrix");
+        Button btnJobQueue = new Button(groupCommands, SWT.NONE);
+        btnJobQueue.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                JobQueueDialog queueDialog = new JobQueueDialog(shlTrainingManager, SWT.DEFAULT, jobQueue, model, modelType);
+                queueDialog.open();
+            }
+        });
+        btnJobQueue.setText("Job Queue");
+        btnParallelFolds = new Button(groupCommands, SWT.CHECK);
+        btnParallelFolds.setText("Parallel Folds");
+        btnParallelFolds.setToolTipText("Train the cross-validation folds at the same time, and report each "
+                + "fold's test-set accuracy or RMSE.");
+        btnParallelSearch = new Button(groupCommands, SWT.CHECK);
+        btnParallelSearch.setText("Parallel Search");
+        btnParallelSearch.setToolTipText("Train the search parameter combinations at the same time.");
         groupCommands.pack();
 
         btnAbort = new Button(fixedRegion, SWT.NONE);
@@ -378,9 +496,19 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
         gl_composite.marginBottom = 5;
         composite.setLayout(gl_composite);
 
-        txtResults = new Text(composite, SWT.BORDER | SWT.READ_ONLY | SWT.H_SCROLL | SWT.V_SCROLL | SWT.CANCEL);
-        txtResults.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 1, 1));
+        SashForm sashResults = new SashForm(composite, SWT.VERTICAL);
+        sashResults.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true, 1, 1));
+
+        chartCurve = new Chart(sashResults, SWT.NONE);
+        chartCurve.getTitle().setText("Learning Curve");
+        chartCurve.getAxisSet().getXAxis(0).getTitle().setText("Epoch");
+        chartCurve.getAxisSet().getYAxis(0).getTitle().setText("Score");
+        chartCurve.getAxisSet().getYAxis(0).enableLogScale(true);
+        chartCurve.getLegend().setVisible(false);
+
+        txtResults = new Text(sashResults, SWT.BORDER | SWT.READ_ONLY | SWT.H_SCROLL | SWT.V_SCROLL | SWT.CANCEL);
         txtResults.setFont(SWTResourceManager.getFont("Consolas", 9, SWT.NORMAL));
+        sashResults.setWeights(new int[] { 3, 2 });
 
         // Compute the current model directory.  Note all the display controls have to
         // be in place before we do this.  If an error occurs trying to analyze
@@ -406,50 +534,34 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
      * Run a search processor.
      */
     protected void runSearch() {
-        ICommand processor = new SearchProcessor(this);
-        String[] parms = new String[] { "-t", modelType.toString(), modelDir.toString() };
-        executeCommand(processor, "SEARCH", parms);
+        metricsReporter.setTrainingFile(model.getTrainingFile());
+        BatchTrainer.Command command = (btnParallelSearch.getSelection() ? BatchTrainer.Command.PSEARCH :
+                BatchTrainer.Command.SEARCH);
+        ICommand processor = command.create(metricsReporter);
+        try {
+            executeCommand(processor, "SEARCH", command.getParms(model, modelType));
+        } catch (IOException e) {
+            showError("Error Reading Parm File", e.getMessage());
+        }
     }
 
     /**
      * Run a cross-validation processor.
      */
     private void runXValidate() {
-        ICommand processor = new CrossValidateProcessor(this);
+        metricsReporter.setTrainingFile(model.getTrainingFile());
+        BatchTrainer.Command command = (btnParallelFolds.getSelection() ? BatchTrainer.Command.PXVALIDATE :
+                BatchTrainer.Command.XVALIDATE);
+        ICommand processor = command.create(metricsReporter);
         try {
-            String idCol = getIdCol();
-            List<String> parmList = new ArrayList<String>(10);
-            parmList.add("-t");
-            parmList.add(modelType.toString());
-            if (idCol != null) {
-                parmList.add("--id");
-                parmList.add(idCol);
-            }
-            parmList.add(modelDir.toString());
-            String[] parms = new String[parmList.size()];
-            parms = parmList.toArray(parms);
-            executeCommand(processor, "Cross-Validate", parms);
+            executeCommand(processor, "Cross-Validate", command.getParms(model, modelType));
         } catch (IOException e) {
             showError("Error Reading Parm File", e.getMessage());
         }
     }
 
     /**
-     * @return the ID column for the current model, or NULL if there is none
-     *
-     * @throws IOException
-     */
-    private String getIdCol() throws IOException {
-        String retVal = null;
-        Parms parms = new Parms(parmFile);
-        String[] cols = StringUtils.split(parms.getValue("--metaCols"), ',');
-        if (cols.length >= 1)
-            retVal = cols[0];
-        return retVal;
-    }
-
-    /**
-     * Execute a command.
+     * Execute a command.  The model directory is reserved in the job queue while the command runs.
      *
      * @param processor		processor on which to execute command
      * @param parms			parameters to pass
@@ -458,11 +570,15 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
         boolean ok = processor.parseCommand(parms);
         if (! ok)
             showError("Command Error", "Invalid parameter combination.");
+        else if (! jobQueue.reserve(modelDir))
+            showError("Command Error", "The job queue has an unfinished job for this model directory.");
         else {
             // Insure the user doesn't start anything else.
             enableButtons(false);
             // Tell the user what we're up to.
             txtStatus.setText("Running " + name + " command.");
+            history.clear();
+            showCurve();
             // Start the thread.
             backgrounder = new Background(this, processor);
             backgrounder.start();
@@ -526,65 +642,26 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
      * @throws IOException
      */
     protected void analyzeModelDirectory(String newDir) throws IOException {
-        modelDir = new File(newDir);
+        model = new ModelDirectory(new File(newDir));
+        modelDir = model.getDirectory();
         txtModelDirectory.setText(modelDir.getName());
         // Now we need to determine what type of model this is.
-        File labelFile = new File(modelDir, "labels.txt");
-        Set<String> labels = LineReader.readSet(labelFile);
-        File trainFile = new File(modelDir, "training.tbl");
-        try (LineReader reader = new LineReader(trainFile)) {
-            String header = reader.next();
-            // If all of the labels are in this header line, it is a regression model.
-            List<String> headers = Arrays.asList(StringUtils.split(header, '\t'));
-            int count = 0;
-            for (String head : headers) {
-                if (labels.contains(head)) count++;
-            }
-            if (count == labels.size()) {
-                // Here we have a regression model.
-                modelType = TrainingProcessor.Type.REGRESSION;
-                btnRegression.setSelection(true);
-                btnClassifier.setSelection(false);
-            } else {
-                modelType = TrainingProcessor.Type.CLASS;
-                btnRegression.setSelection(false);
-                btnClassifier.setSelection(true);
-            }
-            configureType();
-            // Check for a parms.prm file.
-            parmFile = new File(modelDir, "parms.prm");
-            if (! parmFile.exists()) {
-                // Here we must create one.
-                TrainingProcessor processor = TrainingProcessor.create(modelType);
-                // Set the defaults.
-                processor.setAllDefaults();
-                // Count the training set.
-                int size = 0;
-                while (reader.hasNext()) {
-                    reader.next();
-                    size++;
-                }
-                // Compute the testing set size.
-                int testSize = size / 10;
-                if (testSize < 1) testSize = 1;
-                processor.setTestSize(testSize);
-                // Pull up the meta-column dialog.  We need to delete the label columns from the header list first.
-                List<String> availableHeaders;
-                if (modelType != TrainingProcessor.Type.REGRESSION)
-                    availableHeaders = headers;
-                else
-                    availableHeaders = headers.stream().filter(x -> ! labels.contains(x)).collect(Collectors.toList());
-                MetaDialog metaColFinder = new MetaDialog(shlTrainingManager, SWT.CLOSE | SWT.TITLE | SWT.APPLICATION_MODAL,
-                        availableHeaders, modelType);
-                String[] metaCols = metaColFinder.open();
-                processor.setMetaCols(metaCols);
-                if (metaCols.length > 0)
-                    processor.setIdCol(metaCols[0]);
-                processor.writeParms(parmFile);
-            }
-            // If we made it here without any errors, we can enable the buttons.
-            enableButtons(true);
+        modelType = model.getType();
+        boolean regression = (modelType == TrainingProcessor.Type.REGRESSION);
+        btnRegression.setSelection(regression);
+        btnClassifier.setSelection(! regression);
+        configureType();
+        // Check for a parms.prm file.
+        parmFile = model.getParmFile();
+        if (! model.hasParms()) {
+            // Here we must create one.  Pull up the meta-column dialog to find the meta-columns.
+            MetaDialog metaColFinder = new MetaDialog(shlTrainingManager, SWT.CLOSE | SWT.TITLE | SWT.APPLICATION_MODAL,
+                    model.getMetaCandidates(), modelType);
+            String[] metaCols = metaColFinder.open();
+            model.createParms(metaCols);
         }
+        // If we made it here without any errors, we can enable the buttons.
+        enableButtons(true);
     }
 
     /**
@@ -602,19 +679,23 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
         btnAbort.setEnabled(! enabled);
     }
 
+    // The reporting callbacks come from the training thread.  They only store the report, and the display
+    // is updated from the pump on the UI thread, so training never waits on the UI and a flood of reports
+    // cannot flood the event queue.
+
     @Override
     public void showMessage(String message) {
-        display.asyncExec(new Message(message));
+        pendingMessage.set(message);
     }
 
     @Override
     public void showResults(String paragraph) {
-        display.asyncExec(new Report(paragraph));
+        pendingResults.set(paragraph);
     }
 
     @Override
     public void displayEpoch(int epoch, double score, boolean saved) {
-        display.asyncExec(new Progress(epoch, score, saved));
+        epochQueue.offer(epoch, score, saved);
     }
 
     /**
@@ -622,76 +703,122 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
      */
     public void reportCommandEnded() {
         backgrounder = null;
+        jobQueue.release();
         display.asyncExec(new Enable());
     }
 
     /**
-     * Runnable to store a report.
+     * This timer task updates the display from the reports stored by the training thread.  Only the most
+     * recent report of each kind is shown.  It reschedules itself at a frame rate while reports are arriving
+     * and more slowly when they are not.
      */
-    private class Report implements Runnable {
-
-        private String report;
-        private Pattern LINE_END = Pattern.compile("\\r?\\n");
+    private class Pump implements Runnable, EpochRing.IEpochSink {
 
-        public Report(String report) {
-            this.report = report;
-        }
+        /** latest epoch drained */
+        private int epoch;
+        /** score for the latest epoch drained */
+        private double score;
+        /** latest epoch drained at which the model was saved, or -1 if there is none */
+        private int savedEpoch;
 
         @Override
         public void run() {
-            String[] lines = LINE_END.split(this.report);
-            txtResults.setText(StringUtils.join(lines, System.getProperty("line.separator")));
+            if (! shlTrainingManager.isDisposed()) {
+                boolean busy = this.update();
+                display.timerExec(busy ? FRAME_INTERVAL : IDLE_INTERVAL, this);
+            }
         }
 
-    }
-
-    /**
-     * Runnable to set the progress controls.
-     */
-    private class Progress implements Runnable {
-
-        private int epoch;
-        private double score;
-        private boolean saved;
-
-        public Progress(int epoch, double score, boolean saved) {
-            this.epoch = epoch;
-            this.score = score;
-            this.saved = saved;
+        /**
+         * Display the reports that have arrived since the last update.
+         *
+         * @return TRUE if there were any
+         */
+        public boolean update() {
+            boolean retVal = false;
+            this.savedEpoch = -1;
+            if (epochQueue.drain(this, EPOCH_QUEUE_SIZE) > 0) {
+                showProgress(this.epoch, this.score, this.savedEpoch);
+                showCurve();
+                retVal = true;
+            }
+            String message = pendingMessage.getAndSet(null);
+            if (message != null) {
+                txtStatus.setText(message);
+                retVal = true;
+            }
+            String results = pendingResults.getAndSet(null);
+            if (results != null) {
+                showReport(results);
+                retVal = true;
+            }
+            return retVal;
         }
 
         @Override
-        public void run() {
-            String eString = Integer.toString(this.epoch);
-            txtEpoch.setText(eString);
-            txtScore.setText(String.format("%10.6g", this.score));
-            if (this.saved)
-                txtBestEpoch.setText(eString);
-            int intScore = 0;
-            if (this.score > MIN_SCORE)
-                intScore = (int) ((Math.log10(this.score) - LOG10_LOWER) * 100 / (LOG10_UPPER - LOG10_LOWER));
-            if (intScore >  100) intScore = 100;
-            barScore.setSelection(intScore);
+        public void accept(int epoch, double score, boolean saved) {
+            // A search trains many models.  If the epoch goes backward, a new model has started.
+            if (epoch <= history.getLastEpoch())
+                history.clear();
+            history.add(epoch, score, saved);
+            this.epoch = epoch;
+            this.score = score;
+            if (saved) this.savedEpoch = epoch;
         }
 
     }
 
     /**
-     * Runnable to update the status message.
+     * Store a report in the results display.
+     *
+     * @param report	text of the report
      */
-    private class Message implements Runnable {
-
-        private String text;
-
-        public Message(String text) {
-            this.text = text;
-        }
+    private void showReport(String report) {
+        String[] lines = LINE_END.split(report);
+        txtResults.setText(StringUtils.join(lines, System.getProperty("line.separator")));
+    }
 
-        @Override
-        public void run() {
-            txtStatus.setText(text);
-        }
+    /**
+     * Set the progress controls.
+     *
+     * @param epoch			current epoch
+     * @param score			score for the current epoch
+     * @param savedEpoch	most recent epoch at which the model was saved, or -1 if it has not changed
+     */
+    private void showProgress(int epoch, double score, int savedEpoch) {
+        txtEpoch.setText(Integer.toString(epoch));
+        txtScore.setText(String.format("%10.6g", score));
+        if (savedEpoch >= 0)
+            txtBestEpoch.setText(Integer.toString(savedEpoch));
+        int intScore = 0;
+        if (score > MIN_SCORE)
+            intScore = (int) ((Math.log10(score) - LOG10_LOWER) * 100 / (LOG10_UPPER - LOG10_LOWER));
+        if (intScore >  100) intScore = 100;
+        barScore.setSelection(intScore);
+    }
 
+    /**
+     * Redraw the learning curve from the score history.  The number of points is bounded by the history
+     * size, so this takes the same time no matter how long the run has been going.
+     */
+    private void showCurve() {
+        ILineSeries<?> curve = (ILineSeries<?>) chartCurve.getSeriesSet().createSeries(ISeries.SeriesType.LINE,
+                "score");
+        curve.setXSeries(history.getCurveEpochs());
+        curve.setYSeries(history.getCurveScores(MIN_SCORE));
+        curve.setLineColor(CURVE_COLOR);
+        curve.setSymbolType(ILineSeries.PlotSymbolType.NONE);
+        ILineSeries<?> markers = (ILineSeries<?>) chartCurve.getSeriesSet().createSeries(ISeries.SeriesType.LINE,
+                "saved");
+        markers.setXSeries(history.getSavedEpochs());
+        markers.setYSeries(history.getSavedScores(MIN_SCORE));
+        markers.setLineStyle(LineStyle.NONE);
+        markers.setSymbolType(ILineSeries.PlotSymbolType.CIRCLE);
+        markers.setSymbolColor(SAVED_COLOR);
+        markers.setSymbolSize(3);
+        if (history.size() > 0)
+            chartCurve.getAxisSet().adjustRange();
+        chartCurve.redraw();
     }
 
     /**
@@ -701,6 +828,9 @@ public class TrainingManager implements AutoCloseable, ITrainReporter {
 
         @Override
         public void run() {
+            // Show the last reports from the command before resetting.
+            if (pump != null)
+                pump.update();
             enableButtons(true);
             barScore.setSelection(0);
         }
@@ -0,0 +1,162 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+/**
+ * This object contains the per-class and summary quality metrics for a classification model, computed from a
+ * confusion matrix.  For each class we have the precision, recall, F1 score, and support (number of records
+ * expected to be in the class).  The summary metrics are the macro averages (the mean over the classes that
+ * have support) and the micro averages.  Because each record has exactly one expected and one predicted
+ * class, the micro-averaged precision, recall, and F1 score are all equal to the accuracy.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ClassMetrics {
+
+    // FIELDS
+    /** number of classes */
+    private int nLabels;
+    /** precision for each class */
+    private double[] precision;
+    /** recall for each class */
+    private double[] recall;
+    /** F1 score for each class */
+    private double[] f1;
+    /** number of records expected to be in each class */
+    private int[] support;
+    /** total number of records */
+    private int total;
+    /** number of records predicted correctly */
+    private int correct;
+    /** macro-averaged precision */
+    private double macroPrecision;
+    /** macro-averaged recall */
+    private double macroRecall;
+    /** macro-averaged F1 score */
+    private double macroF1;
+
+    /**
+     * Compute the metrics from a confusion matrix.
+     *
+     * @param matrix	confusion matrix
+     */
+    public ClassMetrics(SparseConfusion matrix) {
+        this.nLabels = matrix.getLabelCount();
+        this.precision = new double[this.nLabels];
+        this.recall = new double[this.nLabels];
+        this.f1 = new double[this.nLabels];
+        this.support = new int[this.nLabels];
+        int[] predicted = new int[this.nLabels];
+        int[] hits = new int[this.nLabels];
+        this.total = matrix.getTotal();
+        this.correct = 0;
+        for (int c = 0; c < this.nLabels; c++) {
+            predicted[c] = matrix.getRowTotal(c);
+            this.support[c] = matrix.getColumnTotal(c);
+            hits[c] = matrix.get(c, c);
+            this.correct += hits[c];
+        }
+        // Compute the per-class metrics and the macro averages.
+        int supported = 0;
+        double pSum = 0.0;
+        double rSum = 0.0;
+        double fSum = 0.0;
+        for (int c = 0; c < this.nLabels; c++) {
+            this.precision[c] = (predicted[c] > 0 ? (double) hits[c] / predicted[c] : 0.0);
+            this.recall[c] = (this.support[c] > 0 ? (double) hits[c] / this.support[c] : 0.0);
+            double denom = this.precision[c] + this.recall[c];
+            this.f1[c] = (denom > 0 ? 2 * this.precision[c] * this.recall[c] / denom : 0.0);
+            if (this.support[c] > 0) {
+                supported++;
+                pSum += this.precision[c];
+                rSum += this.recall[c];
+                fSum += this.f1[c];
+            }
+        }
+        this.macroPrecision = (supported > 0 ? pSum / supported : Double.NaN);
+        this.macroRecall = (supported > 0 ? rSum / supported : Double.NaN);
+        this.macroF1 = (supported > 0 ? fSum / supported : Double.NaN);
+    }
+
+    /**
+     * @return the number of classes
+     */
+    public int size() {
+        return this.nLabels;
+    }
+
+    /**
+     * @return the precision for a class
+     *
+     * @param c		index of the class of interest
+     */
+    public double getPrecision(int c) {
+        return this.precision[c];
+    }
+
+    /**
+     * @return the recall for a class
+     *
+     * @param c		index of the class of interest
+     */
+    public double getRecall(int c) {
+        return this.recall[c];
+    }
+
+    /**
+     * @return the F1 score for a class
+     *
+     * @param c		index of the class of interest
+     */
+    public double getF1(int c) {
+        return this.f1[c];
+    }
+
+    /**
+     * @return the number of records expected to be in a class
+     *
+     * @param c		index of the class of interest
+     */
+    public int getSupport(int c) {
+        return this.support[c];
+    }
+
+    /**
+     * @return the total number of records
+     */
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * @return the fraction of records predicted correctly, which is also the micro-averaged precision,
+     * 		   recall, and F1 score
+     */
+    public double getAccuracy() {
+        return (this.total > 0 ? (double) this.correct / this.total : Double.NaN);
+    }
+
+    /**
+     * @return the macro-averaged precision
+     */
+    public double getMacroPrecision() {
+        return this.macroPrecision;
+    }
+
+    /**
+     * @return the macro-averaged recall
+     */
+    public double getMacroRecall() {
+        return this.macroRecall;
+    }
+
+    /**
+     * @return the macro-averaged F1 score
+     */
+    public double getMacroF1() {
+        return this.macroF1;
+    }
+
+}
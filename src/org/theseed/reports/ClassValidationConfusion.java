@@ -3,37 +3,97 @@
  */
 package org.theseed.reports;
 
-import java.util.Arrays;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.theseed.dl4j.train.ClassPredictError;
 import org.theseed.dl4j.train.IPredictError;
 
 /**
- * This computes the confusion matrices for a classification model.
+ * This computes the confusion matrices for a classification model.  The matrices are sparse, so only the
+ * label pairs that actually occur take up memory.
+ *
+ * Output batches can come in from several threads at once.  Each thread counts into its own shard of the
+ * training and testing matrices, so there is no locking while the batches are processed.  The shards are
+ * merged into the final matrices when the report finishes.
+ *
+ * In the same pass, we record the rank of the expected label among the output values of each record, which
+ * gives us the top-K accuracy.  Precision, recall, and the other per-class metrics are computed from the
+ * finished matrices.
+ *
+ * The saved state of the report is the finished matrices and rank counts.  When it is restored, they become
+ * one more shard, so the batches that follow are merged into them when the report finishes.
  *
  * @author Bruce Parrello
  *
  */
-public class ClassValidationConfusion extends ValidationDisplayReport {
+public class ClassValidationConfusion extends ValidationDisplayReport implements IConcurrentValidationReport,
+        IResumableValidationReport {
 
     // FIELDS
-    /** confusion matrix for the training set [o][e] */
-    private int[][] trainMatrix;
-    /** confusion matrix for the testing set [o][e] */
-    private int[][] testMatrix;
-    /** confusion matrix for the sum of the two sets [o][e] */
-    private int[][] allMatrix;
+    /** confusion matrix for the training set */
+    private SparseConfusion trainMatrix;
+    /** confusion matrix for the testing set */
+    private SparseConfusion testMatrix;
+    /** confusion matrix for the sum of the two sets */
+    private SparseConfusion allMatrix;
     /** array of matrices */
-    private int[][][] matrixArray;
+    private SparseConfusion[] matrixArray;
     /** number of labels */
     int nLabels;
+    /** matrix shard for the current thread */
+    private ThreadLocal<Shard> shards;
+    /** list of all the shards created for this report */
+    private Queue<Shard> shardList;
+    /** number of records by rank of the expected label in the output, for testing [0] and training [1] */
+    private int[][] rankCounts;
+    /** maximum K for top-K accuracy */
+    public static final int MAX_K = 5;
+    /** matrix type for the sum of the testing and training sets */
+    public static final int ALL = 2;
 
     public ClassValidationConfusion() {
         super();
     }
 
+    /**
+     * This object contains the training and testing counts accumulated by a single thread.
+     */
+    private static class Shard {
+
+        /** confusion matrix for the training set */
+        private SparseConfusion trainMatrix;
+        /** confusion matrix for the testing set */
+        private SparseConfusion testMatrix;
+        /** number of records by rank of the expected label, for testing [0] and training [1] */
+        private int[][] rankCounts;
+
+        /**
+         * Create a blank shard.
+         *
+         * @param nLabels	number of labels
+         */
+        public Shard(int nLabels) {
+            this.trainMatrix = new SparseConfusion(nLabels);
+            this.testMatrix = new SparseConfusion(nLabels);
+            this.rankCounts = new int[2][MAX_K];
+        }
+
+    }
+
+    /**
+     * @return a new, empty shard for the current thread
+     */
+    private Shard createShard() {
+        Shard retVal = new Shard(this.nLabels);
+        this.shardList.add(retVal);
+        return retVal;
+    }
+
     /**
      * Get the testing matrix value for a pair of labels.
      *
@@ -43,7 +103,7 @@ public class ClassValidationConfusion extends ValidationDisplayReport {
      * @return the count for the specified combination
      */
     public int getTestCount(int o, int e) {
-        return this.testMatrix[o][e];
+        return this.testMatrix.get(o, e);
     }
 
     /**
@@ -55,7 +115,7 @@ public class ClassValidationConfusion extends ValidationDisplayReport {
      * @return the count for the specified combination
      */
     public int getTrainCount(int o, int e) {
-        return this.testMatrix[o][e];
+        return this.trainMatrix.get(o, e);
     }
 
     /**
@@ -68,44 +128,197 @@ public class ClassValidationConfusion extends ValidationDisplayReport {
      * @return the count for the specified combination
      */
     public int getCount(int type, int o, int e) {
-        return this.matrixArray[type][o][e];
+        return this.matrixArray[type].get(o, e);
+    }
+
+    /**
+     * @return the specified confusion matrix
+     *
+     * @param type	0 = testing, 1 = training, 2 = both
+     */
+    public SparseConfusion getMatrix(int type) {
+        return this.matrixArray[type];
+    }
+
+    /**
+     * @return the total count for an output label in the specified matrix
+     *
+     * @param type	0 = testing, 1 = training, 2 = both
+     * @param o		output label index
+     */
+    public int getRowTotal(int type, int o) {
+        return this.matrixArray[type].getRowTotal(o);
+    }
+
+    /**
+     * @return the total count for an expected label in the specified matrix
+     *
+     * @param type	0 = testing, 1 = training, 2 = both
+     * @param e		expected label index
+     */
+    public int getColumnTotal(int type, int e) {
+        return this.matrixArray[type].getColumnTotal(e);
+    }
+
+    /**
+     * @return the most common errors in the specified matrix, in descending order by count
+     *
+     * @param type	0 = testing, 1 = training, 2 = both
+     * @param n		maximum number of errors to return
+     */
+    public List<SparseConfusion.Cell> getTopConfused(int type, int n) {
+        return this.matrixArray[type].getTopConfused(n);
+    }
+
+    /**
+     * @return the quality metrics for the specified matrix
+     *
+     * @param type	0 = testing, 1 = training, 2 = both
+     */
+    public ClassMetrics getMetrics(int type) {
+        return new ClassMetrics(this.matrixArray[type]);
+    }
+
+    /**
+     * @return the fraction of records whose expected label is among the K highest-scoring output labels
+     *
+     * @param type	0 = testing, 1 = training, 2 = both
+     * @param k		number of top labels to consider (from 1 to MAX_K)
+     */
+    public double getTopKAccuracy(int type, int k) {
+        int hits = 0;
+        int total = 0;
+        for (int t = 0; t < 2; t++) {
+            if (type == 2 || type == t) {
+                for (int i = 0; i < k; i++)
+                    hits += this.rankCounts[t][i];
+                total += this.matrixArray[t].getTotal();
+            }
+        }
+        return (total > 0 ? (double) hits / total : Double.NaN);
     }
 
     @Override
     public void startReport(List<String> metaCols, List<String> labels) {
-        // Clear the matrices.
+        // Clear the shards.  The matrices themselves are built at the end.
         nLabels = labels.size();
-        this.trainMatrix = new int[nLabels][nLabels];
-        this.testMatrix = new int[nLabels][nLabels];
-        this.allMatrix = new int[nLabels][nLabels];
-        for (int i = 0; i < nLabels; i++) {
-            Arrays.fill(this.trainMatrix[i], 0);
-            Arrays.fill(this.testMatrix[i], 0);
-            Arrays.fill(this.allMatrix[i], 0);
-        }
+        this.shardList = new ConcurrentLinkedQueue<Shard>();
+        this.shards = ThreadLocal.withInitial(() -> this.createShard());
     }
 
     @Override
-    public void reportOutput(List<String> metaData, INDArray expected, INDArray output) {
+    public void reportOutput(MetaBatch metaData, INDArray expected, INDArray output) {
+        Shard shard = this.shards.get();
+        String[] ids = getIds(metaData);
+        // Compute the expected and predicted label indices for the whole batch at once.
+        int[] eIdx = bestIndices(expected);
+        int[] oIdx = bestIndices(output);
+        double[][] oVals = output.toDoubleMatrix();
         for (int r = 0; r < metaData.size(); r++) {
-            String id = metaData.get(r);
-            int e = ClassPredictError.computeBest(expected, r);
-            int o = ClassPredictError.computeBest(output, r);
+            String id = ids[r];
+            int e = eIdx[r];
+            int o = oIdx[r];
             // Now we have the expected and output values.
-            if (this.isTrained(id))
-                this.trainMatrix[o][e]++;
-            else
-                this.testMatrix[o][e]++;
+            int type;
+            if (this.isTrained(id)) {
+                shard.trainMatrix.increment(o, e);
+                type = 1;
+            } else {
+                shard.testMatrix.increment(o, e);
+                type = 0;
+            }
+            int rank = expectedRank(oVals[r], e);
+            if (rank < MAX_K)
+                shard.rankCounts[type][rank]++;
         }
     }
 
+    /**
+     * Compute the rank of the expected label among the output values.  The rank is the number of labels
+     * ahead of it, so the best label has rank 0.  As with the best-label computation, ties go to the lowest
+     * index.  We stop counting once the rank reaches MAX_K.
+     *
+     * @param values	output values for a record
+     * @param e			index of the expected label
+     *
+     * @return the rank of the expected label, or MAX_K if it is MAX_K or greater
+     */
+    private static int expectedRank(double[] values, int e) {
+        double target = values[e];
+        int retVal = 0;
+        for (int j = 0; j < values.length && retVal < MAX_K; j++) {
+            if (values[j] > target || values[j] == target && j < e)
+                retVal++;
+        }
+        return retVal;
+    }
+
+    /**
+     * Compute the index of the highest-valued column in each row of a batch.  This is done with a single
+     * native argmax, rather than a walk through the individual cells.  As with a cell walk, ties go to
+     * the lowest index.
+     *
+     * @param batch		matrix of label values, one row per record
+     *
+     * @return an array containing the index of the best label for each row
+     */
+    public static int[] bestIndices(INDArray batch) {
+        return batch.argMax(1).toIntVector();
+    }
+
     @Override
     public void finishReport(IPredictError errors) {
-        for (int o = 0; o < nLabels; o++) {
-            for (int e = 0; e < nLabels; e++)
-                this.allMatrix[o][e] = this.testMatrix[o][e] + this.trainMatrix[o][e];
+        // Merge the shards.
+        this.trainMatrix = new SparseConfusion(nLabels);
+        this.testMatrix = new SparseConfusion(nLabels);
+        this.allMatrix = new SparseConfusion(nLabels);
+        this.rankCounts = new int[2][MAX_K];
+        for (Shard shard : this.shardList) {
+            for (int type = 0; type < 2; type++) {
+                for (int k = 0; k < MAX_K; k++)
+                    this.rankCounts[type][k] += shard.rankCounts[type][k];
+            }
+            this.trainMatrix.merge(shard.trainMatrix);
+            this.testMatrix.merge(shard.testMatrix);
+        }
+        this.shardList.clear();
+        this.shards = null;
+        // Form the sum matrix.
+        this.allMatrix.merge(this.testMatrix);
+        this.allMatrix.merge(this.trainMatrix);
+        this.matrixArray = new SparseConfusion[] { this.testMatrix, this.trainMatrix, this.allMatrix };
+    }
+
+    @Override
+    public String getStateType() {
+        return this.getClass().getName();
+    }
+
+    @Override
+    public void saveState(DataOutputStream writer) throws IOException {
+        this.writeBaseState(writer);
+        this.testMatrix.write(writer);
+        this.trainMatrix.write(writer);
+        for (int[] counts : this.rankCounts) {
+            for (int count : counts)
+                writer.writeInt(count);
+        }
+    }
+
+    @Override
+    public long loadState(DataInputStream reader) throws IOException {
+        this.readBaseState(reader);
+        Shard shard = new Shard(this.nLabels);
+        shard.testMatrix = new SparseConfusion(reader);
+        shard.trainMatrix = new SparseConfusion(reader);
+        if (shard.testMatrix.getLabelCount() != this.nLabels || shard.trainMatrix.getLabelCount() != this.nLabels)
+            throw new IOException("Saved confusion matrices have the wrong number of labels.");
+        for (int[] counts : shard.rankCounts) {
+            for (int k = 0; k < MAX_K; k++)
+                counts[k] = reader.readInt();
         }
-        this.matrixArray = new int[][][] { this.testMatrix, this.trainMatrix, this.allMatrix };
+        this.shardList.add(shard);
+        return shard.testMatrix.getTotal() + shard.trainMatrix.getTotal();
     }
 
 }
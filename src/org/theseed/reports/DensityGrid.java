@@ -0,0 +1,148 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+/**
+ * This object counts points in a rectangular grid of cells covering a region of the plane.  There are two
+ * layers of counts, one for the training points and one for the testing points.  It is used to display a
+ * scatter graph with too many points to draw individually.
+ *
+ * Cell (0, 0) is at the lower left corner of the region.  Points outside the region are ignored.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DensityGrid {
+
+    // FIELDS
+    /** number of columns (x-axis cells) */
+    private int width;
+    /** number of rows (y-axis cells) */
+    private int height;
+    /** minimum x-value */
+    private double minX;
+    /** maximum x-value */
+    private double maxX;
+    /** minimum y-value */
+    private double minY;
+    /** maximum y-value */
+    private double maxY;
+    /** number of x-axis cells per unit */
+    private double xScale;
+    /** number of y-axis cells per unit */
+    private double yScale;
+    /** counts for testing points, indexed by row * width + column */
+    private int[] testCounts;
+    /** counts for training points, indexed by row * width + column */
+    private int[] trainCounts;
+    /** highest count in any cell of either layer */
+    private int maxCount;
+    /** index of the training layer */
+    public static final int TRAIN = 1;
+    /** index of the testing layer */
+    public static final int TEST = 0;
+
+    /**
+     * Create an empty density grid.
+     *
+     * @param width		number of cells along the x-axis
+     * @param height	number of cells along the y-axis
+     * @param minX		minimum x-value
+     * @param maxX		maximum x-value
+     * @param minY		minimum y-value
+     * @param maxY		maximum y-value
+     */
+    public DensityGrid(int width, int height, double minX, double maxX, double minY, double maxY) {
+        this.width = Math.max(1, width);
+        this.height = Math.max(1, height);
+        this.minX = minX;
+        this.maxX = maxX;
+        this.minY = minY;
+        this.maxY = maxY;
+        this.xScale = (maxX > minX ? this.width / (maxX - minX) : 0.0);
+        this.yScale = (maxY > minY ? this.height / (maxY - minY) : 0.0);
+        this.testCounts = new int[this.width * this.height];
+        this.trainCounts = new int[this.width * this.height];
+        this.maxCount = 0;
+    }
+
+    /**
+     * Count a point.
+     *
+     * @param x			x-value of the point
+     * @param y			y-value of the point
+     * @param trained	TRUE if the point is in the training set, else FALSE
+     */
+    public void add(double x, double y, boolean trained) {
+        if (x >= this.minX && x <= this.maxX && y >= this.minY && y <= this.maxY) {
+            int col = Math.min(this.width - 1, (int) ((x - this.minX) * this.xScale));
+            int row = Math.min(this.height - 1, (int) ((y - this.minY) * this.yScale));
+            int[] counts = (trained ? this.trainCounts : this.testCounts);
+            int count = ++counts[row * this.width + col];
+            if (count > this.maxCount) this.maxCount = count;
+        }
+    }
+
+    /**
+     * @return the count in a cell
+     *
+     * @param layer		TRAIN or TEST
+     * @param col		column (x-axis) index of the cell
+     * @param row		row (y-axis) index of the cell
+     */
+    public int getCount(int layer, int col, int row) {
+        int[] counts = (layer == TRAIN ? this.trainCounts : this.testCounts);
+        return counts[row * this.width + col];
+    }
+
+    /**
+     * @return the highest count in any cell of either layer
+     */
+    public int getMaxCount() {
+        return this.maxCount;
+    }
+
+    /**
+     * @return the number of cells along the x-axis
+     */
+    public int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * @return the number of cells along the y-axis
+     */
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * @return the minimum x-value
+     */
+    public double getMinX() {
+        return this.minX;
+    }
+
+    /**
+     * @return the maximum x-value
+     */
+    public double getMaxX() {
+        return this.maxX;
+    }
+
+    /**
+     * @return the minimum y-value
+     */
+    public double getMinY() {
+        return this.minY;
+    }
+
+    /**
+     * @return the maximum y-value
+     */
+    public double getMaxY() {
+        return this.maxY;
+    }
+
+}
@@ -0,0 +1,27 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * This interface describes a validation report that can receive the metadata for each batch already split
+ * into columns.  A caller that feeds the same batch to several reports can then split the metadata once
+ * and share it among them.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface IColumnarValidationReport extends IValidationReport {
+
+    /**
+     * Process a batch of output.
+     *
+     * @param metaData	metadata for the batch, split into columns
+     * @param expected	expected values, one row per record
+     * @param output	output values, one row per record
+     */
+    public void reportOutput(MetaBatch metaData, INDArray expected, INDArray output);
+
+}
@@ -0,0 +1,16 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+/**
+ * This is a marker interface for validation reports that can accept output batches from more than one thread
+ * at a time.  The setup methods and startReport are still called once, before any batches, and finishReport
+ * is called once, after all the batches are in; but reportOutput may be called concurrently and in any order.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface IConcurrentValidationReport extends IValidationReport {
+
+}
@@ -0,0 +1,48 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * This interface describes a validation report whose accumulated results can be saved and later restored.
+ * A restored report is in the same condition as one that has been sent all the original batches, so new
+ * batches can be added to the old results without sending the old rows again.
+ *
+ * The state is saved after finishReport.  It is restored after the report is started and the ID column is set
+ * up, before any new batches arrive, and the report is then finished normally.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface IResumableValidationReport extends IValidationReport {
+
+    /**
+     * @return a string identifying the format of the saved state, or NULL if the state cannot be saved
+     */
+    public String getStateType();
+
+    /**
+     * Save the accumulated results of a finished report.
+     *
+     * @param writer	output stream to receive the state
+     *
+     * @throws IOException
+     */
+    public void saveState(DataOutputStream writer) throws IOException;
+
+    /**
+     * Restore the accumulated results saved by an earlier report of the same type.
+     *
+     * @param reader	input stream containing the state
+     *
+     * @return the number of rows covered by the restored results
+     *
+     * @throws IOException
+     */
+    public long loadState(DataInputStream reader) throws IOException;
+
+}
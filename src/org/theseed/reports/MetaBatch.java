@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This object contains the metadata for a batch of output, split into columns.  A column is split out of the
+ * metadata strings the first time it is asked for, and then kept, so that reports can pull values out by column
+ * index without any per-row work.  Columns that no report asks for are never split.
+ *
+ * Columns are delimited by tabs.  As with StringUtils.split, empty columns are skipped, so the column
+ * indices here match the ones computed by the older string-based methods.  A row that is short some
+ * columns has NULL in those positions.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MetaBatch {
+
+    // FIELDS
+    /** metadata strings, one per row */
+    private List<String> rows;
+    /** metadata values already split out, indexed by column and then row */
+    private Map<Integer, String[]> columns;
+    /** number of columns in the widest row, or -1 if it has not been computed */
+    private int width;
+
+    /**
+     * Create the column metadata for a batch.
+     *
+     * @param metaData	list of tab-delimited metadata strings, one per row
+     */
+    public MetaBatch(List<String> metaData) {
+        this.rows = metaData;
+        this.columns = new HashMap<Integer, String[]>();
+        this.width = -1;
+    }
+
+    /**
+     * @return the number of rows in this batch
+     */
+    public int size() {
+        return this.rows.size();
+    }
+
+    /**
+     * @return the number of columns found in this batch
+     */
+    public int getWidth() {
+        if (this.width < 0) {
+            int max = 0;
+            for (String line : this.rows) {
+                int count = 0;
+                int len = line.length();
+                for (int i = 0; i < len; i++) {
+                    // A value starts at each non-delimiter that is at the front or follows a delimiter.
+                    if (line.charAt(i) != '\t' && (i == 0 || line.charAt(i - 1) == '\t'))
+                        count++;
+                }
+                max = Math.max(max, count);
+            }
+            this.width = max;
+        }
+        return this.width;
+    }
+
+    /**
+     * @return the values in the specified column, or NULL if no row has that column
+     *
+     * @param col	index of the desired column
+     */
+    public String[] getColumn(int col) {
+        String[] retVal = null;
+        if (col >= 0) {
+            retVal = this.columns.get(col);
+            if (retVal == null && ! this.columns.containsKey(col)) {
+                retVal = this.splitColumn(col);
+                this.columns.put(col, retVal);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the values in the specified column, split out of the metadata strings, or NULL if no row has it
+     *
+     * @param col	index of the desired column
+     */
+    private String[] splitColumn(int col) {
+        int n = this.rows.size();
+        String[] retVal = new String[n];
+        boolean found = false;
+        for (int r = 0; r < n; r++) {
+            String line = this.rows.get(r);
+            int len = line.length();
+            int idx = 0;
+            int start = 0;
+            while (start < len && idx <= col) {
+                // Skip over delimiters to the start of the next value.
+                while (start < len && line.charAt(start) == '\t') start++;
+                if (start < len) {
+                    int end = line.indexOf('\t', start);
+                    if (end < 0) end = len;
+                    if (idx == col) {
+                        retVal[r] = line.substring(start, end);
+                        found = true;
+                    }
+                    idx++;
+                    start = end;
+                }
+            }
+        }
+        if (! found)
+            retVal = null;
+        return retVal;
+    }
+
+    /**
+     * @return the value in the specified column of the specified row, or NULL if the row does not have that column
+     *
+     * @param col	index of the desired column
+     * @param row	index of the desired row
+     */
+    public String get(int col, int row) {
+        String retVal = null;
+        String[] column = this.getColumn(col);
+        if (column != null)
+            retVal = column[row];
+        return retVal;
+    }
+
+}
@@ -0,0 +1,273 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.theseed.dl4j.train.IPredictError;
+
+/**
+ * This report writes the predictions to a file as they arrive.  For each row we write the ID, the split
+ * ("train" or "test"), the expected value for each label, and the output value for each label.  Nothing is
+ * kept for a row once it has been written, so the memory used does not depend on the size of the input.
+ *
+ * There are two formats.  The TSV format is a tab-delimited file with a header line.  The binary format is
+ * big-endian, and consists of the magic number 0x444c3450, the version number (1), the number of labels, and
+ * the label names.  Then, for each row, there is the ID, a byte that is 1 for a training row and 0 for a
+ * testing row, the expected values as doubles, and the output values as doubles.  A length of -1 in place of
+ * an ID marks the end of the file.  Strings are written as a 4-byte length followed by the UTF-8 bytes.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class PredictionExportReport extends ValidationDisplayReport {
+
+    // FIELDS
+    /** output file */
+    private File outFile;
+    /** output format */
+    private Format format;
+    /** output channel, or NULL if the file is not open */
+    private FileChannel channel;
+    /** output buffer */
+    private ByteBuffer buffer;
+    /** number of labels */
+    private int nLabels;
+    /** reusable line builder for the TSV format */
+    private StringBuilder line;
+    /** size of the output buffer */
+    private static final int BUFFER_SIZE = 4 << 20;
+    /** magic number for the binary format */
+    public static final int MAGIC = 0x444c3450;
+    /** binary format version */
+    public static final int VERSION = 1;
+
+    /**
+     * Enumeration of output formats.
+     */
+    public static enum Format {
+        /** tab-delimited text with a header */
+        TSV,
+        /** packed binary */
+        BINARY;
+
+        /**
+         * @return the format implied by a file name:  binary for a ".bin" extension, else TSV
+         *
+         * @param file	file of interest
+         */
+        public static Format forFile(File file) {
+            return (file.getName().endsWith(".bin") ? BINARY : TSV);
+        }
+    }
+
+    /**
+     * Create a prediction export report.
+     *
+     * @param outFile	output file
+     * @param format	output format
+     */
+    public PredictionExportReport(File outFile, Format format) {
+        super();
+        this.outFile = outFile;
+        this.format = format;
+        this.channel = null;
+        this.line = new StringBuilder(200);
+    }
+
+    @Override
+    public void startReport(List<String> metaCols, List<String> labels) {
+        this.nLabels = labels.size();
+        try {
+            this.close();
+            this.channel = FileChannel.open(this.outFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            if (this.buffer == null)
+                this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            this.buffer.clear();
+            if (this.format == Format.BINARY) {
+                this.buffer.putInt(MAGIC);
+                this.buffer.putInt(VERSION);
+                this.buffer.putInt(this.nLabels);
+                for (String label : labels)
+                    this.putString(label);
+            } else {
+                this.line.setLength(0);
+                this.line.append("id\tsplit");
+                for (String label : labels)
+                    this.line.append("\texpected.").append(label);
+                for (String label : labels)
+                    this.line.append("\toutput.").append(label);
+                this.line.append('\n');
+                this.putBytes(this.line.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void reportOutput(MetaBatch metaData, INDArray expected, INDArray output) {
+        int n = metaData.size();
+        String[] ids = getIds(metaData);
+        double[][] eBatch = expected.toDoubleMatrix();
+        double[][] oBatch = output.toDoubleMatrix();
+        try {
+            for (int r = 0; r < n; r++) {
+                boolean trained = isTrained(ids[r]);
+                if (this.format == Format.BINARY)
+                    this.writeBinary(ids[r], trained, eBatch[r], oBatch[r]);
+                else
+                    this.writeText(ids[r], trained, eBatch[r], oBatch[r]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write a row in binary format.
+     *
+     * @param id		row ID
+     * @param trained	TRUE if the row is in the training set
+     * @param eRow		expected values
+     * @param oRow		output values
+     *
+     * @throws IOException
+     */
+    private void writeBinary(String id, boolean trained, double[] eRow, double[] oRow) throws IOException {
+        this.putString(id);
+        this.ensureRoom(1 + 16 * this.nLabels);
+        this.buffer.put((byte) (trained ? 1 : 0));
+        for (int j = 0; j < this.nLabels; j++)
+            this.buffer.putDouble(eRow[j]);
+        for (int j = 0; j < this.nLabels; j++)
+            this.buffer.putDouble(oRow[j]);
+    }
+
+    /**
+     * Write a row in TSV format.
+     *
+     * @param id		row ID
+     * @param trained	TRUE if the row is in the training set
+     * @param eRow		expected values
+     * @param oRow		output values
+     *
+     * @throws IOException
+     */
+    private void writeText(String id, boolean trained, double[] eRow, double[] oRow) throws IOException {
+        StringBuilder buf = this.line;
+        buf.setLength(0);
+        buf.append(id).append('\t').append(trained ? "train" : "test");
+        for (int j = 0; j < this.nLabels; j++)
+            buf.append('\t').append(eRow[j]);
+        for (int j = 0; j < this.nLabels; j++)
+            buf.append('\t').append(oRow[j]);
+        buf.append('\n');
+        this.putBytes(buf.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write a string as a length followed by UTF-8 bytes.
+     *
+     * @param string	string to write
+     *
+     * @throws IOException
+     */
+    private void putString(String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        this.ensureRoom(4);
+        this.buffer.putInt(bytes.length);
+        this.putBytes(bytes);
+    }
+
+    /**
+     * Write an array of bytes.
+     *
+     * @param bytes		bytes to write
+     *
+     * @throws IOException
+     */
+    private void putBytes(byte[] bytes) throws IOException {
+        if (bytes.length > this.buffer.capacity()) {
+            // Too big for the buffer, so write it directly.
+            this.flush();
+            this.writeFully(ByteBuffer.wrap(bytes));
+        } else {
+            this.ensureRoom(bytes.length);
+            this.buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Insure there is room in the buffer for the specified number of bytes.
+     *
+     * @param needed	number of bytes needed
+     *
+     * @throws IOException
+     */
+    private void ensureRoom(int needed) throws IOException {
+        if (this.buffer.remaining() < needed)
+            this.flush();
+    }
+
+    /**
+     * Write the buffer contents to the output channel.
+     *
+     * @throws IOException
+     */
+    private void flush() throws IOException {
+        this.buffer.flip();
+        this.writeFully(this.buffer);
+        this.buffer.clear();
+    }
+
+    /**
+     * Write all the remaining bytes in a buffer to the output channel.
+     *
+     * @param source	buffer to write
+     *
+     * @throws IOException
+     */
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining())
+            this.channel.write(source);
+    }
+
+    @Override
+    public void finishReport(IPredictError errors) {
+        try {
+            if (this.format == Format.BINARY) {
+                this.ensureRoom(4);
+                this.buffer.putInt(-1);
+            }
+            this.flush();
+            this.channel.close();
+            this.channel = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                // Nothing useful can be done about an error closing an abandoned file.
+            }
+            this.channel = null;
+        }
+    }
+
+}
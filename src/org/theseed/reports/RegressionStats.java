@@ -0,0 +1,226 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * This object accumulates the statistics for comparing the expected and output values of a regression label.
+ * The statistics are computed in a single pass using Welford's method, which remains accurate even when the
+ * values are large compared to their spread.  Two accumulators can be merged using the pairwise formulas of
+ * Chan et al., so partial results from separate passes can be combined.
+ *
+ * Only a fixed number of sums is kept, regardless of the number of values.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RegressionStats {
+
+    // FIELDS
+    /** number of values */
+    private long n;
+    /** mean expected value */
+    private double meanE;
+    /** mean output value */
+    private double meanO;
+    /** sum of squared deviations of the expected values from their mean */
+    private double m2E;
+    /** sum of squared deviations of the output values from their mean */
+    private double m2O;
+    /** sum of the products of the expected and output deviations */
+    private double coMoment;
+    /** mean squared error */
+    private double meanSqErr;
+    /** mean absolute error */
+    private double meanAbsErr;
+
+    /**
+     * Create an empty accumulator.
+     */
+    public RegressionStats() {
+        this.n = 0;
+        this.meanE = 0.0;
+        this.meanO = 0.0;
+        this.m2E = 0.0;
+        this.m2O = 0.0;
+        this.coMoment = 0.0;
+        this.meanSqErr = 0.0;
+        this.meanAbsErr = 0.0;
+    }
+
+    /**
+     * Create a copy of an accumulator.
+     *
+     * @param other		accumulator to copy
+     */
+    public RegressionStats(RegressionStats other) {
+        this.n = other.n;
+        this.meanE = other.meanE;
+        this.meanO = other.meanO;
+        this.m2E = other.m2E;
+        this.m2O = other.m2O;
+        this.coMoment = other.coMoment;
+        this.meanSqErr = other.meanSqErr;
+        this.meanAbsErr = other.meanAbsErr;
+    }
+
+    /**
+     * Read an accumulator saved by "write".
+     *
+     * @param reader	input stream positioned at the accumulator
+     *
+     * @throws IOException
+     */
+    public RegressionStats(DataInputStream reader) throws IOException {
+        this.n = reader.readLong();
+        this.meanE = reader.readDouble();
+        this.meanO = reader.readDouble();
+        this.m2E = reader.readDouble();
+        this.m2O = reader.readDouble();
+        this.coMoment = reader.readDouble();
+        this.meanSqErr = reader.readDouble();
+        this.meanAbsErr = reader.readDouble();
+    }
+
+    /**
+     * Write this accumulator to an output stream.
+     *
+     * @param writer	output stream to receive the accumulator
+     *
+     * @throws IOException
+     */
+    public void write(DataOutputStream writer) throws IOException {
+        writer.writeLong(this.n);
+        writer.writeDouble(this.meanE);
+        writer.writeDouble(this.meanO);
+        writer.writeDouble(this.m2E);
+        writer.writeDouble(this.m2O);
+        writer.writeDouble(this.coMoment);
+        writer.writeDouble(this.meanSqErr);
+        writer.writeDouble(this.meanAbsErr);
+    }
+
+    /**
+     * Record a prediction.
+     *
+     * @param expected	expected value
+     * @param output	predicted value
+     */
+    public void add(double expected, double output) {
+        this.n++;
+        double dE = expected - this.meanE;
+        this.meanE += dE / this.n;
+        double dO = output - this.meanO;
+        this.meanO += dO / this.n;
+        // The second factor in each product uses the updated mean.
+        this.m2E += dE * (expected - this.meanE);
+        this.m2O += dO * (output - this.meanO);
+        this.coMoment += dE * (output - this.meanO);
+        double err = output - expected;
+        this.meanSqErr += (err * err - this.meanSqErr) / this.n;
+        this.meanAbsErr += (Math.abs(err) - this.meanAbsErr) / this.n;
+    }
+
+    /**
+     * Merge the values from another accumulator into this one.
+     *
+     * @param other		accumulator to merge
+     */
+    public void merge(RegressionStats other) {
+        if (other.n > 0) {
+            if (this.n == 0) {
+                this.n = other.n;
+                this.meanE = other.meanE;
+                this.meanO = other.meanO;
+                this.m2E = other.m2E;
+                this.m2O = other.m2O;
+                this.coMoment = other.coMoment;
+                this.meanSqErr = other.meanSqErr;
+                this.meanAbsErr = other.meanAbsErr;
+            } else {
+                long total = this.n + other.n;
+                double wOther = (double) other.n / total;
+                double cross = (double) this.n * other.n / total;
+                double dE = other.meanE - this.meanE;
+                double dO = other.meanO - this.meanO;
+                this.m2E += other.m2E + dE * dE * cross;
+                this.m2O += other.m2O + dO * dO * cross;
+                this.coMoment += other.coMoment + dE * dO * cross;
+                this.meanE += dE * wOther;
+                this.meanO += dO * wOther;
+                this.meanSqErr += (other.meanSqErr - this.meanSqErr) * wOther;
+                this.meanAbsErr += (other.meanAbsErr - this.meanAbsErr) * wOther;
+                this.n = total;
+            }
+        }
+    }
+
+    /**
+     * @return the number of values
+     */
+    public long getCount() {
+        return this.n;
+    }
+
+    /**
+     * @return the mean expected value
+     */
+    public double getMeanExpected() {
+        return (this.n == 0 ? Double.NaN : this.meanE);
+    }
+
+    /**
+     * @return the mean output value
+     */
+    public double getMeanOutput() {
+        return (this.n == 0 ? Double.NaN : this.meanO);
+    }
+
+    /**
+     * @return the sample variance of the expected values
+     */
+    public double getVarianceExpected() {
+        return (this.n < 2 ? Double.NaN : this.m2E / (this.n - 1));
+    }
+
+    /**
+     * @return the sample variance of the output values
+     */
+    public double getVarianceOutput() {
+        return (this.n < 2 ? Double.NaN : this.m2O / (this.n - 1));
+    }
+
+    /**
+     * @return the root mean squared error
+     */
+    public double getRmse() {
+        return (this.n == 0 ? Double.NaN : Math.sqrt(this.meanSqErr));
+    }
+
+    /**
+     * @return the mean absolute error
+     */
+    public double getMae() {
+        return (this.n == 0 ? Double.NaN : this.meanAbsErr);
+    }
+
+    /**
+     * @return the Pearson correlation coefficient between the expected and output values
+     */
+    public double getPearson() {
+        double denom = Math.sqrt(this.m2E * this.m2O);
+        return (denom > 0 ? this.coMoment / denom : Double.NaN);
+    }
+
+    /**
+     * @return the coefficient of determination (R-squared) of the outputs as predictions of the expected values
+     */
+    public double getRSquared() {
+        return (this.m2E > 0 ? 1.0 - this.meanSqErr * this.n / this.m2E : Double.NaN);
+    }
+
+}
@@ -3,136 +3,388 @@
  */
 package org.theseed.reports;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
-import org.eclipse.swtchart.model.CartesianSeriesModel;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.theseed.dl4j.train.IPredictError;
 
 /**
- * This class is the reporter for the regression scatter display.  It creates a map of the results from the prediction
- * validation run.  This map is then used as a data model for the graph.
+ * This class is the reporter for the regression scatter display.  It copies the results from the prediction
+ * validation run into packed columns, one pair (expected and output) per label.  The rows are numbered in the
+ * order they come in, and an ID table maps each row number to its ID.  These columns are then used as a data
+ * model for the graph.
+ *
+ * None of the INDArray batches are retained past the call to reportOutput, so the memory used is only the
+ * primitive values themselves.  Summary statistics and a quantile sketch of the residuals (output minus
+ * expected, counted by magnitude) for each label are accumulated as the rows come in, separately for the
+ * training and testing sets.  A new report run allocates new columns, so columns obtained from a finished run
+ * remain valid while the next run is in progress.
+ *
+ * The saved state of the report is the filled part of the columns, along with the statistics and sketches, so a
+ * restored report can continue adding rows where the saved one left off.
  *
  * @author Bruce Parrello
  *
  */
-public class RegressionValidationScatter extends ValidationDisplayReport implements IValidationReport {
+public class RegressionValidationScatter extends ValidationDisplayReport implements IResumableValidationReport {
 
     // FIELDS
-    /** map of ID strings to predictions */
-    private Map<String, Prediction> predictionMap;
+    /** number of labels */
+    private int nLabels;
+    /** number of rows stored */
+    private int size;
+    /** expected values, one column per label */
+    private double[][] expect;
+    /** output values, one column per label */
+    private double[][] output;
+    /** row IDs, indexed by row number */
+    private String[] ids;
+    /** row numbers of the rows in the training set */
+    private BitSet trainedRows;
+    /** minimum expected value for each label */
+    private double[] minExpect;
+    /** maximum expected value for each label */
+    private double[] maxExpect;
+    /** minimum output value for each label */
+    private double[] minOutput;
+    /** maximum output value for each label */
+    private double[] maxOutput;
+    /** prediction statistics for each label, indexed by TEST or TRAIN and then label */
+    private RegressionStats[][] stats;
+    /** residual sketches for each label, indexed by TEST or TRAIN and then label */
+    private ResidualSketch[][] residuals;
+    /** index of the testing set statistics */
+    public static final int TEST = 0;
+    /** index of the training set statistics */
+    public static final int TRAIN = 1;
+    /** initial row capacity */
+    private static final int INIT_CAPACITY = 500;
 
     public RegressionValidationScatter() {
         super();
+        this.nLabels = 0;
+        this.size = 0;
     }
 
-    /**
-     * This class represents the expected and output values for a single record.
-     * Note the predictions come in in INDArray batches, but each of these
-     * contains only a pointer to the matrix, not the matrix itself.
-     */
-    private class Prediction {
-
-        private INDArray expect;
-        private INDArray output;
-        private int row;
-
-        public Prediction(int r, INDArray expect, INDArray output) {
-            this.expect = expect;
-            this.output = output;
-            this.row = r;
+    @Override
+    public void startReport(List<String> metaCols, List<String> labels) {
+        // Create the columns.
+        this.nLabels = labels.size();
+        this.size = 0;
+        this.expect = new double[this.nLabels][INIT_CAPACITY];
+        this.output = new double[this.nLabels][INIT_CAPACITY];
+        this.ids = new String[INIT_CAPACITY];
+        this.trainedRows = new BitSet(INIT_CAPACITY);
+        this.minExpect = new double[this.nLabels];
+        this.maxExpect = new double[this.nLabels];
+        this.minOutput = new double[this.nLabels];
+        this.maxOutput = new double[this.nLabels];
+        Arrays.fill(this.minExpect, Double.POSITIVE_INFINITY);
+        Arrays.fill(this.maxExpect, Double.NEGATIVE_INFINITY);
+        Arrays.fill(this.minOutput, Double.POSITIVE_INFINITY);
+        Arrays.fill(this.maxOutput, Double.NEGATIVE_INFINITY);
+        this.stats = new RegressionStats[2][this.nLabels];
+        this.residuals = new ResidualSketch[2][this.nLabels];
+        for (int j = 0; j < this.nLabels; j++) {
+            this.stats[TEST][j] = new RegressionStats();
+            this.stats[TRAIN][j] = new RegressionStats();
+            this.residuals[TEST][j] = new ResidualSketch();
+            this.residuals[TRAIN][j] = new ResidualSketch();
         }
+    }
 
-        /**
-         * @return the expected value for the given label
-         *
-         * @param labelIdx	index of the label of interest
-         */
-        public double getExpect(int labelIdx) {
-            return this.expect.getDouble(this.row, labelIdx);
+    @Override
+    public void reportOutput(MetaBatch metaData, INDArray expected, INDArray output) {
+        int n = metaData.size();
+        String[] batchIds = getIds(metaData);
+        this.ensureCapacity(this.size + n);
+        // Pull the batch values out in bulk.  This is one native call per matrix instead of one per cell.
+        double[][] eBatch = expected.toDoubleMatrix();
+        double[][] oBatch = output.toDoubleMatrix();
+        // Loop through the metadata, peeling off predictions.
+        for (int r = 0; r < n; r++) {
+            String id = batchIds[r];
+            this.ids[this.size] = id;
+            boolean trained = isTrained(id);
+            if (trained)
+                this.trainedRows.set(this.size);
+            RegressionStats[] rowStats = this.stats[trained ? TRAIN : TEST];
+            ResidualSketch[] rowResiduals = this.residuals[trained ? TRAIN : TEST];
+            for (int j = 0; j < this.nLabels; j++) {
+                double e = eBatch[r][j];
+                double o = oBatch[r][j];
+                this.expect[j][this.size] = e;
+                this.output[j][this.size] = o;
+                if (e < this.minExpect[j]) this.minExpect[j] = e;
+                if (e > this.maxExpect[j]) this.maxExpect[j] = e;
+                if (o < this.minOutput[j]) this.minOutput[j] = o;
+                if (o > this.maxOutput[j]) this.maxOutput[j] = o;
+                rowStats[j].add(e, o);
+                rowResiduals[j].add(o - e);
+            }
+            this.size++;
         }
+    }
 
-        /**
-         * @return the output value for the given label
-         *
-         * @param labelIdx	index of the label of interest
-         */
-        public double getOutput(int labelIdx) {
-            return this.output.getDouble(this.row, labelIdx);
+    /**
+     * Insure there is room in the columns for the specified number of rows.
+     *
+     * @param needed	number of rows required
+     */
+    private void ensureCapacity(int needed) {
+        int capacity = this.ids.length;
+        if (needed > capacity) {
+            while (capacity < needed) capacity += capacity >> 1;
+            for (int j = 0; j < this.nLabels; j++) {
+                this.expect[j] = Arrays.copyOf(this.expect[j], capacity);
+                this.output[j] = Arrays.copyOf(this.output[j], capacity);
+            }
+            this.ids = Arrays.copyOf(this.ids, capacity);
         }
+    }
 
+    @Override
+    public void finishReport(IPredictError errors) {
     }
 
     @Override
-    public void startReport(List<String> metaCols, List<String> labels) {
-        // Create the prediction map.
-        this.predictionMap = new HashMap<String, Prediction>(500);
+    public String getStateType() {
+        return this.getClass().getName();
     }
 
     @Override
-    public void reportOutput(List<String> metaData, INDArray expected, INDArray output) {
-        // Loop through the metadata, peeling off predictions.
-        for (int r = 0; r < metaData.size(); r++) {
-            String id = getId(metaData.get(r));
-            this.predictionMap.put(id, new Prediction(r, expected, output));
+    public void saveState(DataOutputStream writer) throws IOException {
+        this.writeBaseState(writer);
+        writer.writeInt(this.nLabels);
+        writer.writeInt(this.size);
+        for (int r = 0; r < this.size; r++)
+            writer.writeUTF(this.ids[r]);
+        long[] trainedWords = this.trainedRows.toLongArray();
+        writer.writeInt(trainedWords.length);
+        for (long word : trainedWords)
+            writer.writeLong(word);
+        for (int j = 0; j < this.nLabels; j++) {
+            for (int r = 0; r < this.size; r++) {
+                writer.writeDouble(this.expect[j][r]);
+                writer.writeDouble(this.output[j][r]);
+            }
+            writer.writeDouble(this.minExpect[j]);
+            writer.writeDouble(this.maxExpect[j]);
+            writer.writeDouble(this.minOutput[j]);
+            writer.writeDouble(this.maxOutput[j]);
+            for (int type = TEST; type <= TRAIN; type++) {
+                this.stats[type][j].write(writer);
+                this.residuals[type][j].write(writer);
+            }
         }
     }
 
     @Override
-    public void finishReport(IPredictError errors) {
+    public long loadState(DataInputStream reader) throws IOException {
+        this.readBaseState(reader);
+        if (reader.readInt() != this.nLabels)
+            throw new IOException("Saved scatter data has the wrong number of labels.");
+        int n = reader.readInt();
+        this.ensureCapacity(n);
+        for (int r = 0; r < n; r++)
+            this.ids[r] = reader.readUTF();
+        long[] trainedWords = new long[reader.readInt()];
+        for (int i = 0; i < trainedWords.length; i++)
+            trainedWords[i] = reader.readLong();
+        this.trainedRows = BitSet.valueOf(trainedWords);
+        for (int j = 0; j < this.nLabels; j++) {
+            for (int r = 0; r < n; r++) {
+                this.expect[j][r] = reader.readDouble();
+                this.output[j][r] = reader.readDouble();
+            }
+            this.minExpect[j] = reader.readDouble();
+            this.maxExpect[j] = reader.readDouble();
+            this.minOutput[j] = reader.readDouble();
+            this.maxOutput[j] = reader.readDouble();
+            for (int type = TEST; type <= TRAIN; type++) {
+                this.stats[type][j] = new RegressionStats(reader);
+                this.residuals[type][j] = new ResidualSketch(reader);
+            }
+        }
+        this.size = n;
+        return n;
     }
 
     /**
-     * This class produces the data model for the training or testing series on a specified label.
+     * @return the number of rows reported
      */
-    public class Model implements CartesianSeriesModel<String> {
+    public int getRowCount() {
+        return this.size;
+    }
 
-        /** index of the label of interest */
-        private int lblIdx;
-        /** list of relevant IDs */
-        private List<String> idList;
+    /**
+     * @return the ID of the specified row
+     *
+     * @param row	row number of interest
+     */
+    public String getRowId(int row) {
+        return this.ids[row];
+    }
 
-        /**
-         * Create the model for a specified data series.
-         *
-         * @param lablIdx	index of the desired label column
-         * @param training	TRUE for training data, FALSE for testing data
-         */
-        public Model(int labelIdx, boolean training) {
-            this.lblIdx = labelIdx;
-            // Get the IDs of the appropriate type.
-            this.idList = predictionMap.keySet().stream().filter(x -> isTrained(x) == training).collect(Collectors.toList());
-        }
+    /**
+     * @return TRUE if the specified row is in the training set, else FALSE
+     *
+     * @param row	row number of interest
+     */
+    public boolean isTrainedRow(int row) {
+        return this.trainedRows.get(row);
+    }
 
-        @Override
-        public Iterator<String> iterator() {
-            return this.idList.iterator();
-        }
+    /**
+     * @return the expected value of a label for a row
+     *
+     * @param labelIdx	index of the label of interest
+     * @param row		row number of interest
+     */
+    public double getExpect(int labelIdx, int row) {
+        return this.expect[labelIdx][row];
+    }
 
-        @Override
-        public Number getX(String data) {
-            double retVal = 0.0;
-            Prediction prediction = predictionMap.get(data);
-            if (prediction != null)
-                retVal = prediction.getExpect(this.lblIdx);
-            return retVal;
-        }
+    /**
+     * @return the output value of a label for a row
+     *
+     * @param labelIdx	index of the label of interest
+     * @param row		row number of interest
+     */
+    public double getOutput(int labelIdx, int row) {
+        return this.output[labelIdx][row];
+    }
 
-        @Override
-        public Number getY(String data) {
-            double retVal = 0.0;
-            Prediction prediction = predictionMap.get(data);
-            if (prediction != null)
-                retVal = prediction.getOutput(this.lblIdx);
-            return retVal;
-        }
+    /**
+     * @return the expected-value column for a label; only the first "getRowCount" entries are meaningful
+     *
+     * @param labelIdx	index of the label of interest
+     */
+    public double[] getExpectColumn(int labelIdx) {
+        return this.expect[labelIdx];
+    }
 
+    /**
+     * @return the output-value column for a label; only the first "getRowCount" entries are meaningful
+     *
+     * @param labelIdx	index of the label of interest
+     */
+    public double[] getOutputColumn(int labelIdx) {
+        return this.output[labelIdx];
+    }
+
+    /**
+     * @return the set of row numbers for rows in the training set
+     */
+    public BitSet getTrainedRows() {
+        return this.trainedRows;
+    }
+
+    /**
+     * @return the prediction statistics for a label in the training or testing set
+     *
+     * @param labelIdx	index of the label of interest
+     * @param type		TRAIN or TEST
+     */
+    public RegressionStats getStats(int labelIdx, int type) {
+        return this.stats[type][labelIdx];
+    }
+
+    /**
+     * @return the prediction statistics for a label over all rows
+     *
+     * @param labelIdx	index of the label of interest
+     */
+    public RegressionStats getAllStats(int labelIdx) {
+        RegressionStats retVal = new RegressionStats(this.stats[TEST][labelIdx]);
+        retVal.merge(this.stats[TRAIN][labelIdx]);
+        return retVal;
+    }
+
+    /**
+     * @return the sketch of the residual magnitudes for a label in the training or testing set
+     *
+     * @param labelIdx	index of the label of interest
+     * @param type		TRAIN or TEST
+     */
+    public ResidualSketch getResiduals(int labelIdx, int type) {
+        return this.residuals[type][labelIdx];
+    }
+
+    /**
+     * @return the sketch of the residual magnitudes for a label over all rows
+     *
+     * @param labelIdx	index of the label of interest
+     */
+    public ResidualSketch getAllResiduals(int labelIdx) {
+        ResidualSketch retVal = new ResidualSketch(this.residuals[TEST][labelIdx]);
+        retVal.merge(this.residuals[TRAIN][labelIdx]);
+        return retVal;
+    }
+
+    /**
+     * @return the minimum expected value for a label, or 0 if there are no rows
+     *
+     * @param labelIdx	index of the label of interest
+     */
+    public double getMinExpect(int labelIdx) {
+        return (this.size == 0 ? 0.0 : this.minExpect[labelIdx]);
+    }
+
+    /**
+     * @return the maximum expected value for a label, or 0 if there are no rows
+     *
+     * @param labelIdx	index of the label of interest
+     */
+    public double getMaxExpect(int labelIdx) {
+        return (this.size == 0 ? 0.0 : this.maxExpect[labelIdx]);
     }
 
+    /**
+     * @return the minimum output value for a label, or 0 if there are no rows
+     *
+     * @param labelIdx	index of the label of interest
+     */
+    public double getMinOutput(int labelIdx) {
+        return (this.size == 0 ? 0.0 : this.minOutput[labelIdx]);
+    }
+
+    /**
+     * @return the maximum output value for a label, or 0 if there are no rows
+     *
+     * @param labelIdx	index of the label of interest
+     */
+    public double getMaxOutput(int labelIdx) {
+        return (this.size == 0 ? 0.0 : this.maxOutput[labelIdx]);
+    }
 
+    /**
+     * Count the expected/output pairs for a label in a density grid.  The grid covers the specified region,
+     * and the training and testing rows are counted in separate layers.
+     *
+     * @param labelIdx	index of the label of interest
+     * @param width		number of grid cells along the x-axis (expected values)
+     * @param height	number of grid cells along the y-axis (output values)
+     * @param minX		minimum expected value to include
+     * @param maxX		maximum expected value to include
+     * @param minY		minimum output value to include
+     * @param maxY		maximum output value to include
+     *
+     * @return the density grid for the label
+     */
+    public DensityGrid computeDensity(int labelIdx, int width, int height, double minX, double maxX,
+            double minY, double maxY) {
+        DensityGrid retVal = new DensityGrid(width, height, minX, maxX, minY, maxY);
+        double[] xCol = this.expect[labelIdx];
+        double[] yCol = this.output[labelIdx];
+        for (int r = 0; r < this.size; r++)
+            retVal.add(xCol[r], yCol[r], this.trainedRows.get(r));
+        return retVal;
+    }
 
 }
@@ -0,0 +1,315 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This object is a compact summary of the magnitudes of a set of values, such as the residuals of a regression
+ * model, from which quantiles can be estimated.  The values may be signed, but only their magnitudes are
+ * counted, so the quantiles are those of the absolute values.  The magnitudes are counted in logarithmically
+ * sized buckets, so that every quantile estimate is within a fixed relative error of a true value in the
+ * distribution.  Merging two sketches adds their bucket counts, so as long as no buckets have been collapsed
+ * (see below), the merged sketch is the same as the one that would have been built from all the values directly.
+ *
+ * Memory is bounded.  If the number of buckets exceeds the maximum, the lowest buckets are collapsed
+ * together, which sacrifices accuracy only for the smallest values.  For the default accuracy, the maximum
+ * covers nearly eighteen orders of magnitude before this happens.  Once it does, the collapse point depends on
+ * the order in which values arrive, so a merged sketch can differ from a directly-built one in its lowest
+ * buckets.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ResidualSketch {
+
+    // FIELDS
+    /** bucket counts, indexed by bucket key minus the offset */
+    private long[] counts;
+    /** bucket key for the first position in the counts array */
+    private int offset;
+    /** lowest bucket key in use */
+    private int minKey;
+    /** highest bucket key in use */
+    private int maxKey;
+    /** number of values too small to bucket */
+    private long zeroCount;
+    /** total number of values */
+    private long total;
+    /** largest value seen */
+    private double maxValue;
+    /** log of the bucket growth factor */
+    private static final double LOG_GAMMA;
+    /** bucket growth factor */
+    private static final double GAMMA;
+    /** relative accuracy of the quantile estimates */
+    public static final double ACCURACY = 0.01;
+    /** values smaller than this are counted as zero */
+    public static final double MIN_VALUE = 1e-12;
+    /** maximum number of buckets */
+    private static final int MAX_BUCKETS = 2048;
+    /** initial size of the counts array */
+    private static final int INIT_SIZE = 64;
+
+    static {
+        GAMMA = (1.0 + ACCURACY) / (1.0 - ACCURACY);
+        LOG_GAMMA = Math.log(GAMMA);
+    }
+
+    /**
+     * Create an empty sketch.
+     */
+    public ResidualSketch() {
+        this.counts = null;
+        this.offset = 0;
+        this.minKey = Integer.MAX_VALUE;
+        this.maxKey = Integer.MIN_VALUE;
+        this.zeroCount = 0;
+        this.total = 0;
+        this.maxValue = 0.0;
+    }
+
+    /**
+     * Create a copy of a sketch.
+     *
+     * @param other		sketch to copy
+     */
+    public ResidualSketch(ResidualSketch other) {
+        this.counts = (other.counts == null ? null : Arrays.copyOf(other.counts, other.counts.length));
+        this.offset = other.offset;
+        this.minKey = other.minKey;
+        this.maxKey = other.maxKey;
+        this.zeroCount = other.zeroCount;
+        this.total = other.total;
+        this.maxValue = other.maxValue;
+    }
+
+    /**
+     * Read a sketch saved by "write".
+     *
+     * @param reader	input stream positioned at the sketch
+     *
+     * @throws IOException
+     */
+    public ResidualSketch(DataInputStream reader) throws IOException {
+        this();
+        this.zeroCount = reader.readLong();
+        this.total = reader.readLong();
+        this.maxValue = reader.readDouble();
+        int buckets = reader.readInt();
+        if (buckets > 0) {
+            int lo = reader.readInt();
+            this.counts = new long[buckets];
+            this.offset = lo;
+            this.minKey = lo;
+            this.maxKey = lo + buckets - 1;
+            for (int i = 0; i < buckets; i++)
+                this.counts[i] = reader.readLong();
+        }
+    }
+
+    /**
+     * Write this sketch to an output stream.  Only the buckets in use are written.
+     *
+     * @param writer	output stream to receive the sketch
+     *
+     * @throws IOException
+     */
+    public void write(DataOutputStream writer) throws IOException {
+        writer.writeLong(this.zeroCount);
+        writer.writeLong(this.total);
+        writer.writeDouble(this.maxValue);
+        int buckets = (this.minKey <= this.maxKey ? this.maxKey - this.minKey + 1 : 0);
+        writer.writeInt(buckets);
+        if (buckets > 0) {
+            writer.writeInt(this.minKey);
+            for (int k = this.minKey; k <= this.maxKey; k++)
+                writer.writeLong(this.counts[k - this.offset]);
+        }
+    }
+
+    /**
+     * Add a value to the sketch.  Negative values are counted by magnitude.
+     *
+     * @param value		value to add
+     */
+    public void add(double value) {
+        value = Math.abs(value);
+        if (! Double.isNaN(value)) {
+            if (value < MIN_VALUE)
+                this.zeroCount++;
+            else
+                this.addToBucket(key(value), 1);
+            this.total++;
+            if (value > this.maxValue) this.maxValue = value;
+        }
+    }
+
+    /**
+     * Merge another sketch into this one.
+     *
+     * @param other		sketch to merge
+     */
+    public void merge(ResidualSketch other) {
+        for (int k = other.minKey; k <= other.maxKey; k++) {
+            long count = other.counts[k - other.offset];
+            if (count > 0)
+                this.addToBucket(k, count);
+        }
+        this.zeroCount += other.zeroCount;
+        this.total += other.total;
+        if (other.maxValue > this.maxValue) this.maxValue = other.maxValue;
+    }
+
+    /**
+     * @return the bucket key for a positive value
+     *
+     * @param value		value to bucket
+     */
+    private static int key(double value) {
+        return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    }
+
+    /**
+     * @return the representative value for a bucket; this is within the relative accuracy of every
+     * 		   value in the bucket
+     *
+     * @param key		bucket key
+     */
+    private static double bucketValue(int key) {
+        return 2.0 * Math.exp(key * LOG_GAMMA) / (GAMMA + 1.0);
+    }
+
+    /**
+     * Add a count to a bucket.
+     *
+     * @param key		bucket key
+     * @param count		count to add
+     */
+    private void addToBucket(int key, long count) {
+        if (this.counts == null) {
+            this.counts = new long[INIT_SIZE];
+            this.offset = key - INIT_SIZE / 2;
+        }
+        // If we would have too many buckets, fold the low ones into the lowest bucket we can keep.
+        if (key > this.maxKey && this.minKey <= this.maxKey && key - this.minKey >= MAX_BUCKETS)
+            this.collapseBelow(key - MAX_BUCKETS + 1);
+        if (this.minKey <= this.maxKey && key < this.maxKey - MAX_BUCKETS + 1)
+            key = this.maxKey - MAX_BUCKETS + 1;
+        this.ensureRange(key);
+        this.counts[key - this.offset] += count;
+        if (key < this.minKey) this.minKey = key;
+        if (key > this.maxKey) this.maxKey = key;
+    }
+
+    /**
+     * Fold all the buckets below a specified key into that key's bucket.
+     *
+     * @param floor		lowest key to keep
+     */
+    private void collapseBelow(int floor) {
+        if (this.minKey < floor) {
+            long folded = 0;
+            int limit = Math.min(floor - 1, this.maxKey);
+            for (int k = this.minKey; k <= limit; k++) {
+                folded += this.counts[k - this.offset];
+                this.counts[k - this.offset] = 0;
+            }
+            this.minKey = floor;
+            if (this.maxKey < floor) this.maxKey = floor;
+            this.ensureRange(floor);
+            this.counts[floor - this.offset] += folded;
+        }
+    }
+
+    /**
+     * Insure the counts array covers a specified key.  When the array is reallocated, only the buckets in
+     * use are kept, so its size stays proportional to the range of keys in use.
+     *
+     * @param key	bucket key that must be present
+     */
+    private void ensureRange(int key) {
+        int end = this.offset + this.counts.length;
+        if (key < this.offset || key >= end) {
+            int lo = Math.min(key, this.minKey);
+            int hi = Math.max(key, this.maxKey);
+            // Leave some slack on the side being extended.
+            int slack = (hi - lo) / 2 + 1;
+            if (key == lo) lo -= slack;
+            if (key == hi) hi += slack;
+            long[] newCounts = new long[hi - lo + 1];
+            // Copy the part of the old array that is in use.
+            int copyLo = Math.max(this.minKey, this.offset);
+            int copyHi = Math.min(this.maxKey, end - 1);
+            if (copyLo <= copyHi)
+                System.arraycopy(this.counts, copyLo - this.offset, newCounts, copyLo - lo, copyHi - copyLo + 1);
+            this.counts = newCounts;
+            this.offset = lo;
+        }
+    }
+
+    /**
+     * @return the number of values in the sketch
+     */
+    public long getCount() {
+        return this.total;
+    }
+
+    /**
+     * @return the largest value in the sketch
+     */
+    public double getMax() {
+        return this.maxValue;
+    }
+
+    /**
+     * @return the estimated value at a specified quantile, or NaN if the sketch is empty
+     *
+     * @param q		quantile desired (from 0 to 1)
+     */
+    public double getQuantile(double q) {
+        double retVal = Double.NaN;
+        if (this.total > 0) {
+            long rank = (long) Math.floor(q * (this.total - 1));
+            if (rank < this.zeroCount)
+                retVal = 0.0;
+            else {
+                long seen = this.zeroCount;
+                for (int k = this.minKey; k <= this.maxKey && Double.isNaN(retVal); k++) {
+                    seen += this.counts[k - this.offset];
+                    if (seen > rank)
+                        retVal = Math.min(bucketValue(k), this.maxValue);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Compute a histogram of the values in the sketch.  Each bucket's count goes into the bin containing the
+     * bucket's representative value.  Values above the upper limit are counted in the last bin.
+     *
+     * @param upper		upper limit of the histogram (the lower limit is 0)
+     * @param nBins		number of bins
+     *
+     * @return an array of the counts in each bin
+     */
+    public long[] getHistogram(double upper, int nBins) {
+        long[] retVal = new long[nBins];
+        retVal[0] = this.zeroCount;
+        double width = upper / nBins;
+        for (int k = this.minKey; k <= this.maxKey; k++) {
+            long count = this.counts[k - this.offset];
+            if (count > 0) {
+                int bin = (width > 0 ? (int) (bucketValue(k) / width) : 0);
+                retVal[Math.min(bin, nBins - 1)] += count;
+            }
+        }
+        return retVal;
+    }
+
+}
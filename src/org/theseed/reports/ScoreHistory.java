@@ -0,0 +1,253 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+import java.util.Arrays;
+
+/**
+ * This object records the score history of a training run for display as a learning curve.  The history is
+ * kept in buckets of consecutive epochs, and for each bucket we keep the minimum and maximum score.  At first
+ * each bucket holds a single epoch.  When the bucket arrays reach their maximum size, adjacent buckets are
+ * merged in pairs and each bucket thereafter holds twice as many epochs.  So the memory used and the number
+ * of points plotted are bounded no matter how long the run, and because each bucket keeps its extremes, a
+ * spike in the score never disappears from the curve.
+ *
+ * We also keep the epochs at which the model was saved.  These are thinned in the same way, except that the
+ * most recent one, which is the best model so far, is always kept.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ScoreHistory {
+
+    // FIELDS
+    /** first epoch in each bucket */
+    private int[] firstEpoch;
+    /** last epoch in each bucket */
+    private int[] lastEpoch;
+    /** minimum score in each bucket */
+    private double[] minScore;
+    /** maximum score in each bucket */
+    private double[] maxScore;
+    /** number of epochs in each bucket */
+    private int[] counts;
+    /** number of buckets in use */
+    private int size;
+    /** number of epochs per bucket */
+    private int stride;
+    /** maximum number of buckets */
+    private int maxBuckets;
+    /** saved epochs */
+    private int[] savedEpochs;
+    /** scores of the saved epochs */
+    private double[] savedScores;
+    /** number of saved epochs kept */
+    private int savedCount;
+    /** initial number of buckets allocated */
+    private static final int INIT_BUCKETS = 256;
+    /** default maximum number of buckets */
+    public static final int DEFAULT_MAX_BUCKETS = 2048;
+    /** maximum number of saved epochs kept */
+    private static final int MAX_SAVED = 512;
+
+    /**
+     * Create an empty score history with the default size limit.
+     */
+    public ScoreHistory() {
+        this(DEFAULT_MAX_BUCKETS);
+    }
+
+    /**
+     * Create an empty score history.
+     *
+     * @param maxBuckets	maximum number of buckets (must be even)
+     */
+    public ScoreHistory(int maxBuckets) {
+        this.maxBuckets = maxBuckets;
+        int initSize = Math.min(INIT_BUCKETS, maxBuckets);
+        this.firstEpoch = new int[initSize];
+        this.lastEpoch = new int[initSize];
+        this.minScore = new double[initSize];
+        this.maxScore = new double[initSize];
+        this.counts = new int[initSize];
+        this.savedEpochs = new int[MAX_SAVED];
+        this.savedScores = new double[MAX_SAVED];
+        this.clear();
+    }
+
+    /**
+     * Erase the history.
+     */
+    public void clear() {
+        this.size = 0;
+        this.stride = 1;
+        this.savedCount = 0;
+    }
+
+    /**
+     * Record the score for an epoch.
+     *
+     * @param epoch		epoch number
+     * @param score		score for the epoch
+     * @param saved		TRUE if the model was saved at this epoch
+     */
+    public void add(int epoch, double score, boolean saved) {
+        if (! Double.isNaN(score)) {
+            int last = this.size - 1;
+            if (last >= 0 && this.counts[last] < this.stride) {
+                // Add the epoch to the current bucket.
+                this.lastEpoch[last] = epoch;
+                if (score < this.minScore[last]) this.minScore[last] = score;
+                if (score > this.maxScore[last]) this.maxScore[last] = score;
+                this.counts[last]++;
+            } else {
+                // Start a new bucket.
+                if (this.size >= this.maxBuckets)
+                    this.compress();
+                else if (this.size >= this.counts.length)
+                    this.grow();
+                int i = this.size++;
+                this.firstEpoch[i] = epoch;
+                this.lastEpoch[i] = epoch;
+                this.minScore[i] = score;
+                this.maxScore[i] = score;
+                this.counts[i] = 1;
+            }
+            if (saved)
+                this.addSaved(epoch, score);
+        }
+    }
+
+    /**
+     * Enlarge the bucket arrays.
+     */
+    private void grow() {
+        int newSize = Math.min(this.maxBuckets, this.counts.length * 2);
+        this.firstEpoch = Arrays.copyOf(this.firstEpoch, newSize);
+        this.lastEpoch = Arrays.copyOf(this.lastEpoch, newSize);
+        this.minScore = Arrays.copyOf(this.minScore, newSize);
+        this.maxScore = Arrays.copyOf(this.maxScore, newSize);
+        this.counts = Arrays.copyOf(this.counts, newSize);
+    }
+
+    /**
+     * Merge adjacent pairs of buckets, doubling the number of epochs per bucket.
+     */
+    private void compress() {
+        int n = this.size / 2;
+        for (int i = 0; i < n; i++) {
+            int a = 2 * i;
+            int b = a + 1;
+            this.firstEpoch[i] = this.firstEpoch[a];
+            this.lastEpoch[i] = this.lastEpoch[b];
+            this.minScore[i] = Math.min(this.minScore[a], this.minScore[b]);
+            this.maxScore[i] = Math.max(this.maxScore[a], this.maxScore[b]);
+            this.counts[i] = this.counts[a] + this.counts[b];
+        }
+        this.size = n;
+        this.stride *= 2;
+    }
+
+    /**
+     * Record a saved epoch.  If the saved-epoch list is full, every other one is discarded, keeping the
+     * most recent.
+     *
+     * @param epoch		epoch number
+     * @param score		score for the epoch
+     */
+    private void addSaved(int epoch, double score) {
+        if (this.savedCount >= MAX_SAVED) {
+            int n = this.savedCount / 2;
+            int offset = this.savedCount - 2 * n;
+            for (int i = 0; i < n; i++) {
+                this.savedEpochs[i] = this.savedEpochs[offset + 2 * i + 1];
+                this.savedScores[i] = this.savedScores[offset + 2 * i + 1];
+            }
+            this.savedCount = n;
+        }
+        this.savedEpochs[this.savedCount] = epoch;
+        this.savedScores[this.savedCount] = score;
+        this.savedCount++;
+    }
+
+    /**
+     * @return the number of buckets in use
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of epochs per bucket
+     */
+    public int getStride() {
+        return this.stride;
+    }
+
+    /**
+     * @return the last epoch recorded, or -1 if the history is empty
+     */
+    public int getLastEpoch() {
+        return (this.size == 0 ? -1 : this.lastEpoch[this.size - 1]);
+    }
+
+    /**
+     * The score curve has two points per bucket, one at the start of the bucket for the minimum score and one
+     * at the end for the maximum, so a single line traces the full range of each bucket.
+     *
+     * @return the x-coordinates for plotting the score curve
+     */
+    public double[] getCurveEpochs() {
+        double[] retVal = new double[this.size * 2];
+        for (int i = 0; i < this.size; i++) {
+            retVal[2 * i] = this.firstEpoch[i];
+            retVal[2 * i + 1] = this.lastEpoch[i];
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the y-coordinates for plotting the score curve
+     *
+     * @param floor		minimum value to return; lower scores are raised to this value
+     */
+    public double[] getCurveScores(double floor) {
+        double[] retVal = new double[this.size * 2];
+        for (int i = 0; i < this.size; i++) {
+            retVal[2 * i] = Math.max(floor, this.minScore[i]);
+            retVal[2 * i + 1] = Math.max(floor, this.maxScore[i]);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of saved epochs kept
+     */
+    public int getSavedCount() {
+        return this.savedCount;
+    }
+
+    /**
+     * @return the saved epochs, as x-coordinates for plotting
+     */
+    public double[] getSavedEpochs() {
+        double[] retVal = new double[this.savedCount];
+        for (int i = 0; i < this.savedCount; i++)
+            retVal[i] = this.savedEpochs[i];
+        return retVal;
+    }
+
+    /**
+     * @return the scores of the saved epochs, as y-coordinates for plotting
+     *
+     * @param floor		minimum value to return; lower scores are raised to this value
+     */
+    public double[] getSavedScores(double floor) {
+        double[] retVal = new double[this.savedCount];
+        for (int i = 0; i < this.savedCount; i++)
+            retVal[i] = Math.max(floor, this.savedScores[i]);
+        return retVal;
+    }
+
+}
@@ -0,0 +1,335 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This object is a confusion matrix that only stores the non-zero cells.  A model with thousands of labels
+ * has millions of possible cells, but only a small fraction of them are ever used, mostly along the diagonal.
+ * The cells are kept in an open-addressing hash table keyed on the (output, expected) label pair.  The row
+ * and column totals are kept in arrays, so they are available without a scan.
+ *
+ * As elsewhere, rows are indexed by output label and columns by expected label.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SparseConfusion {
+
+    // FIELDS
+    /** number of labels */
+    private int nLabels;
+    /** cell keys; 0 denotes an empty slot */
+    private long[] keys;
+    /** cell counts, parallel to the keys */
+    private int[] counts;
+    /** number of non-zero cells */
+    private int size;
+    /** mask for converting a hash to a table index */
+    private int mask;
+    /** total for each output label */
+    private int[] rowTotals;
+    /** total for each expected label */
+    private int[] colTotals;
+    /** total of all the cells */
+    private int total;
+    /** initial table size (must be a power of 2) */
+    private static final int INIT_TABLE_SIZE = 64;
+
+    /**
+     * This interface is used to visit the non-zero cells.
+     */
+    public interface ICellVisitor {
+
+        /**
+         * Process a non-zero cell.
+         *
+         * @param o			output label index
+         * @param e			expected label index
+         * @param count		count in the cell
+         */
+        public void visit(int o, int e, int count);
+
+    }
+
+    /**
+     * This object describes a single non-zero cell.
+     */
+    public static class Cell {
+
+        /** output label index */
+        private int o;
+        /** expected label index */
+        private int e;
+        /** count in the cell */
+        private int count;
+
+        public Cell(int o, int e, int count) {
+            this.o = o;
+            this.e = e;
+            this.count = count;
+        }
+
+        /**
+         * @return the output label index
+         */
+        public int getOutput() {
+            return this.o;
+        }
+
+        /**
+         * @return the expected label index
+         */
+        public int getExpected() {
+            return this.e;
+        }
+
+        /**
+         * @return the count in the cell
+         */
+        public int getCount() {
+            return this.count;
+        }
+
+    }
+
+    /**
+     * Create an empty confusion matrix.
+     *
+     * @param nLabels	number of labels
+     */
+    public SparseConfusion(int nLabels) {
+        this.nLabels = nLabels;
+        this.keys = new long[INIT_TABLE_SIZE];
+        this.counts = new int[INIT_TABLE_SIZE];
+        this.mask = INIT_TABLE_SIZE - 1;
+        this.size = 0;
+        this.rowTotals = new int[nLabels];
+        this.colTotals = new int[nLabels];
+        this.total = 0;
+    }
+
+    /**
+     * Read a confusion matrix saved by "write".
+     *
+     * @param reader	input stream positioned at the matrix
+     *
+     * @throws IOException
+     */
+    public SparseConfusion(DataInputStream reader) throws IOException {
+        this(reader.readInt());
+        int cells = reader.readInt();
+        for (int i = 0; i < cells; i++) {
+            int o = reader.readInt();
+            int e = reader.readInt();
+            this.add(o, e, reader.readInt());
+        }
+    }
+
+    /**
+     * Write this matrix to an output stream.  Only the non-zero cells are written.
+     *
+     * @param writer	output stream to receive the matrix
+     *
+     * @throws IOException
+     */
+    public void write(DataOutputStream writer) throws IOException {
+        writer.writeInt(this.nLabels);
+        writer.writeInt(this.size);
+        for (int i = 0; i < this.keys.length; i++) {
+            long key = this.keys[i];
+            if (key != 0) {
+                long packed = key - 1;
+                writer.writeInt((int) (packed >>> 32));
+                writer.writeInt((int) packed);
+                writer.writeInt(this.counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Add to the count in a cell.
+     *
+     * @param o			output label index
+     * @param e			expected label index
+     * @param count		amount to add
+     */
+    public void add(int o, int e, int count) {
+        long key = key(o, e);
+        int i = this.find(key);
+        if (this.keys[i] == 0) {
+            // This is a new cell.  Make room for it if necessary.
+            if ((this.size + 1) * 2 > this.keys.length) {
+                this.rehash(this.keys.length * 2);
+                i = this.find(key);
+            }
+            this.keys[i] = key;
+            this.size++;
+        }
+        this.counts[i] += count;
+        this.rowTotals[o] += count;
+        this.colTotals[e] += count;
+        this.total += count;
+    }
+
+    /**
+     * Count one record in a cell.
+     *
+     * @param o			output label index
+     * @param e			expected label index
+     */
+    public void increment(int o, int e) {
+        this.add(o, e, 1);
+    }
+
+    /**
+     * @return the count in a cell
+     *
+     * @param o			output label index
+     * @param e			expected label index
+     */
+    public int get(int o, int e) {
+        int i = this.find(key(o, e));
+        return this.counts[i];
+    }
+
+    /**
+     * Add all the counts from another matrix to this one.
+     *
+     * @param other		matrix to add
+     */
+    public void merge(SparseConfusion other) {
+        other.forEach((o, e, count) -> this.add(o, e, count));
+    }
+
+    /**
+     * Visit all the non-zero cells, in no particular order.
+     *
+     * @param visitor	visitor to call for each cell
+     */
+    public void forEach(ICellVisitor visitor) {
+        for (int i = 0; i < this.keys.length; i++) {
+            long key = this.keys[i];
+            if (key != 0) {
+                long packed = key - 1;
+                visitor.visit((int) (packed >>> 32), (int) packed, this.counts[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the off-diagonal cells with the highest counts, in descending order by count
+     *
+     * @param n		maximum number of cells to return
+     */
+    public List<Cell> getTopConfused(int n) {
+        List<Cell> retVal = new ArrayList<Cell>();
+        this.forEach((o, e, count) -> {
+            if (o != e) retVal.add(new Cell(o, e, count));
+        });
+        retVal.sort(Comparator.comparingInt(Cell::getCount).reversed());
+        return (retVal.size() > n ? new ArrayList<Cell>(retVal.subList(0, n)) : retVal);
+    }
+
+    /**
+     * @return the total count for an output label
+     *
+     * @param o		output label index
+     */
+    public int getRowTotal(int o) {
+        return this.rowTotals[o];
+    }
+
+    /**
+     * @return the total count for an expected label
+     *
+     * @param e		expected label index
+     */
+    public int getColumnTotal(int e) {
+        return this.colTotals[e];
+    }
+
+    /**
+     * @return the total count of all the cells
+     */
+    public int getTotal() {
+        return this.total;
+    }
+
+    /**
+     * @return the number of non-zero cells
+     */
+    public int getCellCount() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of labels
+     */
+    public int getLabelCount() {
+        return this.nLabels;
+    }
+
+    /**
+     * @return the table key for a cell; this is never 0
+     *
+     * @param o			output label index
+     * @param e			expected label index
+     */
+    private static long key(int o, int e) {
+        return ((long) o << 32 | e) + 1;
+    }
+
+    /**
+     * @return the table index for a key, which is either the slot containing it or the empty slot where it
+     * 		   belongs
+     *
+     * @param key	key to find
+     */
+    private int find(long key) {
+        int i = hash(key) & this.mask;
+        while (this.keys[i] != 0 && this.keys[i] != key)
+            i = (i + 1) & this.mask;
+        return i;
+    }
+
+    /**
+     * @return a well-mixed hash code for a key
+     *
+     * @param key	key to hash
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    /**
+     * Move the cells to a bigger hash table.
+     *
+     * @param newSize	new table size (must be a power of 2)
+     */
+    private void rehash(int newSize) {
+        long[] oldKeys = this.keys;
+        int[] oldCounts = this.counts;
+        this.keys = new long[newSize];
+        this.counts = new int[newSize];
+        this.mask = newSize - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int j = this.find(oldKeys[i]);
+                this.keys[j] = oldKeys[i];
+                this.counts[j] = oldCounts[i];
+            }
+        }
+    }
+
+}
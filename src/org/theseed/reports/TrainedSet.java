@@ -0,0 +1,252 @@
+/**
+ *
+ */
+package org.theseed.reports;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/**
+ * This object is a compact set of the IDs used in training.  Rather than keeping the ID strings, it stores a
+ * 64-bit fingerprint of each ID in an open-addressing hash table.  With millions of IDs this takes a small
+ * fraction of the memory of a string set.  The chance of a false match is roughly the number of IDs divided
+ * by 2^64, which is negligible.
+ *
+ * The set can be loaded directly from a "trained.tbl" file, which is memory-mapped and fingerprinted in
+ * place, so the ID strings are never built.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TrainedSet {
+
+    // FIELDS
+    /** hash table of fingerprints; 0 denotes an empty slot */
+    private long[] table;
+    /** number of fingerprints stored */
+    private int size;
+    /** mask for converting a fingerprint to a table index */
+    private int mask;
+    /** initial table size (must be a power of 2) */
+    private static final int INIT_TABLE_SIZE = 64;
+    /** size of a memory-mapped window for loading files */
+    private static final int WINDOW_SIZE = 1 << 28;
+    /** FNV-1a offset basis */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+    /** FNV-1a prime */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Create an empty trained set.
+     */
+    public TrainedSet() {
+        this.table = new long[INIT_TABLE_SIZE];
+        this.mask = INIT_TABLE_SIZE - 1;
+        this.size = 0;
+    }
+
+    /**
+     * Create a trained set from a collection of IDs.
+     *
+     * @param ids	IDs to put in the set
+     */
+    public TrainedSet(Collection<String> ids) {
+        this();
+        for (String id : ids)
+            this.add(id);
+    }
+
+    /**
+     * Load a trained set from a file with one ID per line.
+     *
+     * @param inFile	file to load
+     *
+     * @return the set of IDs in the file
+     *
+     * @throws IOException
+     */
+    public static TrainedSet load(File inFile) throws IOException {
+        TrainedSet retVal = new TrainedSet();
+        try (FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long windowStart = 0;
+            while (windowStart < fileSize) {
+                long windowLen = Math.min(WINDOW_SIZE, fileSize - windowStart);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLen);
+                boolean lastWindow = (windowStart + windowLen >= fileSize);
+                int lineStart = 0;
+                int limit = (int) windowLen;
+                for (int i = 0; i < limit; i++) {
+                    if (window.get(i) == '\n') {
+                        retVal.addLine(window, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+                if (lastWindow) {
+                    // Process the residual line, if any.
+                    if (lineStart < limit)
+                        retVal.addLine(window, lineStart, limit);
+                    windowStart = fileSize;
+                } else if (lineStart == 0) {
+                    throw new IOException("Line too long in " + inFile + ".");
+                } else {
+                    // Start the next window at the beginning of the incomplete line.
+                    windowStart += lineStart;
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Add the ID on a line of a mapped file to this set.
+     *
+     * @param buffer	buffer containing the line
+     * @param start		position of the first byte of the line
+     * @param end		position past the last byte of the line
+     */
+    private void addLine(MappedByteBuffer buffer, int start, int end) {
+        if (end > start && buffer.get(end - 1) == '\r') end--;
+        if (end > start) {
+            // Check for non-ASCII characters.  ASCII bytes can be fingerprinted as characters directly.
+            boolean ascii = true;
+            long hash = FNV_BASIS;
+            for (int i = start; ascii && i < end; i++) {
+                byte b = buffer.get(i);
+                if (b < 0)
+                    ascii = false;
+                else
+                    hash = (hash ^ b) * FNV_PRIME;
+            }
+            if (ascii)
+                this.addFingerprint(finish(hash));
+            else {
+                byte[] bytes = new byte[end - start];
+                for (int i = start; i < end; i++)
+                    bytes[i - start] = buffer.get(i);
+                this.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Add an ID to this set.
+     *
+     * @param id	ID to add
+     */
+    public void add(String id) {
+        this.addFingerprint(fingerprint(id));
+    }
+
+    /**
+     * @return TRUE if the specified ID is in this set, else FALSE
+     *
+     * @param id	ID to check
+     */
+    public boolean contains(String id) {
+        long fp = fingerprint(id);
+        int i = (int) fp & this.mask;
+        boolean retVal = false;
+        while (! retVal && this.table[i] != 0) {
+            if (this.table[i] == fp)
+                retVal = true;
+            else
+                i = (i + 1) & this.mask;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of IDs in this set
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Store a fingerprint in the hash table.
+     *
+     * @param fp	fingerprint to store
+     */
+    private void addFingerprint(long fp) {
+        // Keep the table at most half full.
+        if ((this.size + 1) * 2 > this.table.length)
+            this.rehash(this.table.length * 2);
+        if (this.insert(this.table, this.mask, fp))
+            this.size++;
+    }
+
+    /**
+     * Insert a fingerprint into a hash table.
+     *
+     * @param target	hash table to update
+     * @param tMask		index mask for the table
+     * @param fp		fingerprint to insert
+     *
+     * @return TRUE if the fingerprint was added, FALSE if it was already present
+     */
+    private boolean insert(long[] target, int tMask, long fp) {
+        int i = (int) fp & tMask;
+        boolean retVal = true;
+        while (retVal && target[i] != 0) {
+            if (target[i] == fp)
+                retVal = false;
+            else
+                i = (i + 1) & tMask;
+        }
+        if (retVal)
+            target[i] = fp;
+        return retVal;
+    }
+
+    /**
+     * Move the fingerprints to a bigger hash table.
+     *
+     * @param newSize	new table size (must be a power of 2)
+     */
+    private void rehash(int newSize) {
+        long[] newTable = new long[newSize];
+        int newMask = newSize - 1;
+        for (long fp : this.table) {
+            if (fp != 0)
+                this.insert(newTable, newMask, fp);
+        }
+        this.table = newTable;
+        this.mask = newMask;
+    }
+
+    /**
+     * @return the 64-bit fingerprint of an ID string
+     *
+     * @param id	ID to fingerprint
+     */
+    public static long fingerprint(String id) {
+        long hash = FNV_BASIS;
+        int n = id.length();
+        for (int i = 0; i < n; i++)
+            hash = (hash ^ id.charAt(i)) * FNV_PRIME;
+        return finish(hash);
+    }
+
+    /**
+     * Scramble the bits of a raw hash and insure it is nonzero.
+     *
+     * @param hash	raw FNV hash value
+     *
+     * @return the final fingerprint
+     */
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (hash == 0 ? 1 : hash);
+    }
+
+}
@@ -3,38 +3,44 @@
  */
 package org.theseed.reports;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
-import org.theseed.io.LineReader;
+import org.nd4j.linalg.api.ndarray.INDArray;
 
 /**
  * This is the base class for the two validation reports.  It mostly handles the testing/training divide.
  *
+ * The subclasses receive their metadata already split into columns.  The string-based reportOutput is
+ * still supported, and simply splits the batch's metadata before passing it on.
+ *
+ * Subclasses that can save their results and resume from them later use this class to save the part of the
+ * state they share, which is the numbering of rows that have no ID.
+ *
  * @author Bruce Parrello
  *
  */
-public abstract class ValidationDisplayReport implements IValidationReport {
+public abstract class ValidationDisplayReport implements IColumnarValidationReport {
 
     /** IDs of records that were used in training */
-    private Set<String> trained;
+    private TrainedSet trained;
     /** ID column index in metadata */
     private int idColIdx;
     /** next available ID number */
-    private int idNum;
+    private AtomicInteger idNum;
 
     /**
      * Construct a blank scatter object.
      */
     public ValidationDisplayReport() {
-        this.trained = Collections.emptySet();
-        this.idNum = 1;
+        this.trained = new TrainedSet();
+        this.idNum = new AtomicInteger(1);
     }
 
     /**
@@ -48,7 +54,25 @@ public abstract class ValidationDisplayReport implements IValidationReport {
         if (this.idColIdx >= 0 && metaCols.length > this.idColIdx)
             retVal = metaCols[this.idColIdx];
         else
-            retVal = String.format("item %d", this.idNum++);
+            retVal = String.format("item %d", this.idNum.getAndIncrement());
+        return retVal;
+    }
+
+    /**
+     * @return the ID strings for all the rows in a batch
+     *
+     * @param metaData	metadata for the batch, split into columns
+     */
+    public String[] getIds(MetaBatch metaData) {
+        int n = metaData.size();
+        String[] retVal = new String[n];
+        String[] idColumn = metaData.getColumn(this.idColIdx);
+        for (int r = 0; r < n; r++) {
+            String id = (idColumn == null ? null : idColumn[r]);
+            if (id == null)
+                id = String.format("item %d", this.idNum.getAndIncrement());
+            retVal[r] = id;
+        }
         return retVal;
     }
 
@@ -65,15 +89,42 @@ public abstract class ValidationDisplayReport implements IValidationReport {
     public void setupIdCol(File modelDir, String idCol, List<String> metaList, Collection<String> trainList) throws IOException {
         this.idColIdx = metaList.indexOf(idCol);
         if (trainList != null)
-            this.trained = new HashSet<String>(trainList);
+            this.trained = new TrainedSet(trainList);
         else {
             File trainedFile = new File(modelDir, "trained.tbl");
-            this.trained = LineReader.readSet(trainedFile);
+            this.trained = TrainedSet.load(trainedFile);
         }
     }
 
+    @Override
+    public void reportOutput(List<String> metaData, INDArray expected, INDArray output) {
+        this.reportOutput(new MetaBatch(metaData), expected, output);
+    }
+
     @Override
     public void close() {
     }
 
+    /**
+     * Save the part of the report state kept by the base class.
+     *
+     * @param writer	output stream to receive the state
+     *
+     * @throws IOException
+     */
+    protected void writeBaseState(DataOutputStream writer) throws IOException {
+        writer.writeInt(this.idNum.get());
+    }
+
+    /**
+     * Restore the part of the report state kept by the base class.
+     *
+     * @param reader	input stream containing the state
+     *
+     * @throws IOException
+     */
+    protected void readBaseState(DataInputStream reader) throws IOException {
+        this.idNum.set(reader.readInt());
+    }
+
 }